@@ -0,0 +1,69 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Benchmarks for {@link Duration} parsing and formatting.
+ * 
+ * @author Leonid Bogdanov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DurationBenchmark {
+
+    @Param({"30m", "0m 30m 1h 2h 3h 5h 8h 13h 20h 40h 100h"})
+    private String estimates;
+    private Duration duration;
+
+    /**
+     * Prepares a <code>Duration</code> instance to be formatted.
+     */
+    @Setup
+    public void setup() {
+        duration = new Duration(Duration.MINUTES_PER_WEEK + Duration.MINUTES_PER_DAY + Duration.MINUTES_PER_HOUR + 1);
+    }
+
+    /**
+     * Benchmark for {@link Duration#parse(String)}.
+     * 
+     * @return the parsed durations
+     */
+    @Benchmark
+    public List<Duration> parse() {
+        return Duration.parse(estimates);
+    }
+
+    /**
+     * Benchmark for {@link Duration#toString()}.
+     * 
+     * @return the formatted duration
+     */
+    @Benchmark
+    public String format() {
+        return duration.toString();
+    }
+
+}
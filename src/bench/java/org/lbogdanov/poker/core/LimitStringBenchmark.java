@@ -0,0 +1,72 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core;
+
+import static org.lbogdanov.poker.core.Constants.SESSION_NAME_MAX_LENGTH;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.google.common.base.Strings;
+
+
+/**
+ * Benchmarks for {@link AbstractEntity#limitString(String, int)}.
+ * 
+ * @author Leonid Bogdanov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LimitStringBenchmark {
+
+    @Param({"0", "64", "4096"})
+    private int length;
+    private String input;
+
+    /**
+     * Prepares an input string of a specified length.
+     */
+    @Setup
+    public void setup() {
+        input = Strings.repeat("x", length);
+    }
+
+    /**
+     * Benchmark for a <code>null</code> input.
+     * 
+     * @return the limited string
+     */
+    @Benchmark
+    public String limitNull() {
+        return AbstractEntity.limitString(null, SESSION_NAME_MAX_LENGTH);
+    }
+
+    /**
+     * Benchmark for a non-<code>null</code> input.
+     * 
+     * @return the limited string
+     */
+    @Benchmark
+    public String limit() {
+        return AbstractEntity.limitString(input, SESSION_NAME_MAX_LENGTH);
+    }
+
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.shiro.subject.PrincipalCollection;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Benchmarks for external ID calculation in {@link UserServiceImpl}.
+ * 
+ * @author Leonid Bogdanov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExternalIdBenchmark {
+
+    private PrincipalCollection iniPrincipals;
+
+    /**
+     * Prepares principals of an ini realm user.
+     */
+    @Setup
+    public void setup() {
+        iniPrincipals = new SimplePrincipalCollection("testaccount", "iniRealm");
+    }
+
+    /**
+     * Benchmark for an ini realm user.
+     * 
+     * @return the external ID
+     */
+    @Benchmark
+    public String iniRealm() {
+        return UserServiceImpl.toExternalId(iniPrincipals);
+    }
+
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core.impl;
+
+import static org.lbogdanov.poker.core.Constants.SESSION_CODE_DEFAULT_LENGTH;
+
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Benchmarks for session code generation in {@link SessionServiceImpl}.
+ * 
+ * @author Leonid Bogdanov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NewCodeBenchmark {
+
+    private Random rnd;
+
+    /**
+     * Creates a shared <code>SecureRandom</code> instance.
+     */
+    @Setup
+    public void setup() {
+        rnd = new SecureRandom();
+    }
+
+    /**
+     * Benchmark for a code generation with a shared source of randomness.
+     * 
+     * @return the generated code
+     */
+    @Benchmark
+    public String newCode() {
+        return SessionServiceImpl.newCode(rnd, SESSION_CODE_DEFAULT_LENGTH);
+    }
+
+    /**
+     * Benchmark for a code generation with a fresh <code>SecureRandom</code>, as done on every
+     * {@link SessionServiceImpl#create(String, String, String)} call.
+     * 
+     * @return the generated code
+     */
+    @Benchmark
+    public String newCodeFreshRandom() {
+        return SessionServiceImpl.newCode(new SecureRandom(), SESSION_CODE_DEFAULT_LENGTH);
+    }
+
+}
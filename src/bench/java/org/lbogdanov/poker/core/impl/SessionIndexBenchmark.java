@@ -0,0 +1,86 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core.impl;
+
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+import org.lbogdanov.poker.core.Session;
+import org.lbogdanov.poker.core.User;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Benchmarks for {@link SessionIndex} lookups of a user with many sessions.
+ * 
+ * @author Leonid Bogdanov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionIndexBenchmark {
+
+    private static final String[] WORDS = {"sprint", "planning", "backlog", "grooming", "release", "retrospective",
+                                           "estimation", "epic", "story", "team", "alpha", "beta", "mobile", "web"};
+
+    @Param({"10000", "50000"})
+    private int sessions;
+    private SessionIndex index;
+
+    /**
+     * Indexes sessions of a single author with random names and descriptions.
+     */
+    @Setup
+    public void setup() {
+        Random rnd = new Random(42);
+        User author = new User();
+        author.setId(1L);
+        index = new SessionIndex();
+        for (int i = 0; i < sessions; i++) {
+            Session session = new Session();
+            session.setId((long) i);
+            session.setAuthor(author);
+            session.setName(WORDS[rnd.nextInt(WORDS.length)] + " " + i);
+            session.setDescription(WORDS[rnd.nextInt(WORDS.length)] + " " + WORDS[rnd.nextInt(WORDS.length)]);
+            index.add(author.getId(), session);
+        }
+    }
+
+    /**
+     * Benchmark for a typeahead lookup of a single word prefix.
+     * 
+     * @return the sessions found
+     */
+    @Benchmark
+    public SortedMap<Long, String> prefix() {
+        return index.search(1L, "gro", 8);
+    }
+
+    /**
+     * Benchmark for a typeahead lookup of several word prefixes.
+     * 
+     * @return the sessions found
+     */
+    @Benchmark
+    public SortedMap<Long, String> prefixes() {
+        return index.search(1L, "spr pla", 8);
+    }
+
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Benchmarks for {@link KeyedRateLimiter}: the overhead a chat post pays to be rate limited. The rate is high enough
+ * for every call to take a token, i.e. to go through the CAS rather than the cheaper refusal.
+ * 
+ * @author Leonid Bogdanov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyedRateLimiterBenchmark {
+
+    @Param({"1", "10000"})
+    private int participants;
+    private String[] keys;
+    private KeyedRateLimiter limiter;
+
+    /**
+     * Creates the limiter and the participants' keys.
+     */
+    @Setup
+    public void setup() {
+        keys = new String[participants];
+        for (int i = 0; i < participants; i++) {
+            keys[i] = "wicket-session-" + i + "/ROOM" + (i % 100);
+        }
+        limiter = new KeyedRateLimiter(1e9, 1000);
+    }
+
+    /**
+     * Benchmark for a single poster.
+     * 
+     * @return the time until the next token
+     */
+    @Benchmark
+    public long acquire(Poster poster) {
+        return limiter.tryAcquire(keys[poster.next() % participants]);
+    }
+
+    /**
+     * Benchmark for concurrent posters.
+     * 
+     * @return the time until the next token
+     */
+    @Benchmark
+    @Threads(4)
+    public long acquireConcurrently(Poster poster) {
+        return limiter.tryAcquire(keys[poster.next() % participants]);
+    }
+
+    /**
+     * A benchmark thread's position in the participants' keys.
+     */
+    @State(Scope.Thread)
+    public static class Poster {
+
+        private int next;
+
+        int next() {
+            next = (next + 7919) % 10000; // a prime step, so a thread visits all the keys
+            return next;
+        }
+
+    }
+
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.cluster;
+
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.lbogdanov.poker.core.User;
+import org.lbogdanov.poker.web.util.ChatMessage;
+import org.lbogdanov.poker.web.util.Message;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Benchmarks for cross-node delivery latency of {@link ClusterBridge} implementations, i.e. the time from a message
+ * being published on one node until it's received by another one.
+ * 
+ * @author Leonid Bogdanov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClusterBridgeBenchmark {
+
+    @Param({"jvm", "tcp"})
+    public String bridge;
+    @Param({"0", "5"})
+    public long batchMillis;
+
+    private final BlockingQueue<Message<?>> received = new LinkedBlockingQueue<Message<?>>();
+    private ClusterBridge sender;
+    private ClusterBridge receiver;
+    private ChatMessage message;
+
+    /**
+     * Starts two nodes connected with the bridge under test.
+     */
+    @Setup
+    public void setup() {
+        if ("tcp".equals(bridge)) {
+            TcpClusterBridge node = new TcpClusterBridge("receiver", null, batchMillis, false, "127.0.0.1", 0,
+                                                         Collections.<String, InetSocketAddress>emptyMap());
+            receiver = node;
+            receiver.start(new Queued(received));
+            sender = new TcpClusterBridge("sender", null, batchMillis, false, "127.0.0.1", 0, Collections.singletonMap(
+                    "receiver", new InetSocketAddress("127.0.0.1", node.getPort())));
+        } else {
+            receiver = new InJvmClusterBridge("benchmark", "receiver", null, batchMillis, false);
+            receiver.start(new Queued(received));
+            sender = new InJvmClusterBridge("benchmark", "sender", null, batchMillis, false);
+        }
+        sender.start(new Queued(new LinkedBlockingQueue<Message<?>>() {
+
+            @Override
+            public boolean add(Message<?> e) {
+                return true; // local deliveries aren't measured
+            }
+
+        }));
+        User user = new User();
+        user.setFirstName("John");
+        user.setLastName("Doe");
+        message = new ChatMessage("origin", user, "The quick brown fox jumps over the lazy dog");
+    }
+
+    /**
+     * Stops the nodes.
+     */
+    @TearDown
+    public void tearDown() {
+        sender.stop();
+        receiver.stop();
+    }
+
+    /**
+     * Benchmark for a single message round from one node to another.
+     * 
+     * @return the received message
+     * @throws InterruptedException if interrupted while waiting for the message
+     */
+    @Benchmark
+    public Message<?> deliver() throws InterruptedException {
+        sender.publish("benchmark", message);
+        return received.take();
+    }
+
+    private static final class Queued implements ClusterBridge.Receiver {
+
+        private final BlockingQueue<Message<?>> queue;
+
+        Queued(BlockingQueue<Message<?>> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void receive(String channel, Message<?> message) {
+            queue.add(message);
+        }
+
+        @Override
+        public Collection<String> getChannels() {
+            return Collections.emptySet();
+        }
+
+    }
+
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.util;
+
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.ocpsoft.prettytime.Duration;
+import org.ocpsoft.prettytime.PrettyTime;
+
+import com.google.common.collect.Iterables;
+
+
+/**
+ * Benchmarks for {@link DateFormatter} compared to formatters created per call.
+ * 
+ * @author Leonid Bogdanov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateFormatterBenchmark {
+
+    private Date recent;
+    private Date old;
+
+    /**
+     * Prepares a date of 5 minutes ago and a date of a month ago.
+     */
+    @Setup
+    public void setup() {
+        recent = new Date(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(5));
+        old = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(30));
+    }
+
+    /**
+     * Benchmark for a <code>DateFormat</code> created per call.
+     * 
+     * @return the formatted date
+     */
+    @Benchmark
+    public String dateFormat() {
+        return DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT, Locale.ENGLISH).format(old);
+    }
+
+    /**
+     * Benchmark for {@link DateFormatter#format(Date, int, int, Locale)}.
+     * 
+     * @return the formatted date
+     */
+    @Benchmark
+    public String format() {
+        return DateFormatter.get().format(old, DateFormat.SHORT, DateFormat.SHORT, Locale.ENGLISH);
+    }
+
+    /**
+     * Benchmark for a <code>PrettyTime</code> created per call.
+     * 
+     * @return the formatted date
+     */
+    @Benchmark
+    public String prettyTime() {
+        PrettyTime prettyTime = new PrettyTime(Locale.ENGLISH);
+        Duration largest = Iterables.getFirst(prettyTime.calculatePreciseDuration(recent), null);
+        return prettyTime.format(largest);
+    }
+
+    /**
+     * Benchmark for {@link DateFormatter#formatRelative(Date, Locale)}.
+     * 
+     * @return the formatted date
+     */
+    @Benchmark
+    public String formatRelative() {
+        return DateFormatter.get().formatRelative(recent, Locale.ENGLISH);
+    }
+
+}
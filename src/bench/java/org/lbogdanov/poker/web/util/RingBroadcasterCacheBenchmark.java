@@ -0,0 +1,95 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import org.atmosphere.cpr.AtmosphereResource;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Benchmarks for {@link RingBroadcasterCache}: every long-polling client of a room misses the same messages while
+ * reconnecting and gets them on the next request.
+ * 
+ * @author Leonid Bogdanov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RingBroadcasterCacheBenchmark {
+
+    @Param({"10", "100"})
+    private int clients;
+    @Param({"1", "10"})
+    private int messages;
+    private AtmosphereResource[] resources;
+    private String[] payloads;
+    private RingBroadcasterCache cache;
+
+    /**
+     * Creates the clients and the messages they miss.
+     */
+    @Setup
+    public void setup() {
+        resources = new AtmosphereResource[clients];
+        for (int i = 0; i < clients; i++) {
+            final String uuid = "client-" + i;
+            resources[i] = (AtmosphereResource) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                                       new Class<?>[] {AtmosphereResource.class},
+                                                                       new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return uuid;
+                }
+
+            });
+        }
+        payloads = new String[messages];
+        for (int i = 0; i < messages; i++) {
+            payloads[i] = "<ajax-response><evaluate><![CDATA[Poker.dispatch({\"type\":\"chatMsg\",\"message\":\"" + i
+                          + "\",\"author\":\"John Doe\"});]]></evaluate></ajax-response>";
+        }
+        cache = new RingBroadcasterCache(1000);
+    }
+
+    /**
+     * Benchmark for caching the messages for every client and replaying them on reconnects.
+     * 
+     * @return the number of replayed messages
+     */
+    @Benchmark
+    public int missAndReplay() {
+        for (String payload : payloads) {
+            for (AtmosphereResource resource : resources) {
+                cache.addToCache("room", resource, payload);
+            }
+        }
+        int replayed = 0;
+        for (AtmosphereResource resource : resources) {
+            replayed += cache.retrieveFromCache("room", resource).size();
+        }
+        return replayed;
+    }
+
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.util;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.lbogdanov.poker.core.User;
+import org.openjdk.jmh.annotations.*;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+
+
+/**
+ * Benchmarks for serialization of messages sent via Atmosphere framework.
+ * 
+ * @author Leonid Bogdanov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    private ObjectMapper mapper;
+    private User user;
+    private ChatMessage message;
+
+    /**
+     * Configures an <code>ObjectMapper</code> the same way the application does.
+     */
+    @Setup
+    public void setup() {
+        mapper = new ObjectMapper().registerModule(new SimpleModule().addSerializer(UserSerializer.get()));
+        user = new User();
+        user.setFirstName("John");
+        user.setLastName("Doe");
+        message = new ChatMessage("origin", user, "The quick brown fox jumps over the lazy dog");
+    }
+
+    /**
+     * Benchmark for a <code>ChatMessage</code> serialization.
+     * 
+     * @return the JSON representation of the message
+     * @throws JsonProcessingException if the message cannot be serialized
+     */
+    @Benchmark
+    public String chatMessage() throws JsonProcessingException {
+        return mapper.writeValueAsString(message);
+    }
+
+    /**
+     * Benchmark for {@link UserSerializer#convertToString(User, Locale)}.
+     * 
+     * @return the string representation of the user
+     */
+    @Benchmark
+    public String userToString() {
+        return UserSerializer.get().convertToString(user, Locale.ENGLISH);
+    }
+
+}
@@ -29,14 +29,52 @@ public final class Constants {
     public static final int SESSION_NAME_MAX_LENGTH = 128;
     public static final int SESSION_DESCRIPTION_MAX_LENGTH = 4096;
     public static final int SESSION_ESTIMATES_MAX_LENGTH = 1024;
+    public static final int CHAT_MESSAGE_MAX_LENGTH = 4096;
     public static final int USER_FIRST_NAME_MAX_LENGTH = 128;
     public static final int USER_LAST_NAME_MAX_LENGTH = 128;
     public static final int USER_EMAIL_MAX_LENGTH = 254;
     public static final int USER_EXTERNAL_ID_MAX_LENGTH = 64;
+    public static final int DEFAULT_SLOW_QUERY_MILLIS = 100;
+    public static final int SLOW_QUERY_CAPACITY = 100;
+    public static final int SEARCH_MAX_RESULTS = 1000;
+    public static final int DEFAULT_PARTICIPANTS_BATCH_SIZE = 100;
+    public static final int DEFAULT_PARTICIPANTS_FLUSH_MILLIS = 1000;
+    public static final int DEFAULT_CHAT_BATCH_SIZE = 100;
+    public static final int DEFAULT_CHAT_FLUSH_MILLIS = 500;
+    public static final int DEFAULT_CHAT_HISTORY_SIZE = 50;
+    public static final int CHAT_HISTORY_ROOMS = 10000;
+    public static final int DEFAULT_CHAT_RATE_LIMIT = 60;
+    public static final int DEFAULT_CHAT_RATE_BURST = 10;
+    public static final int DEFAULT_REQUEST_MAX_KB = 64;
+    public static final int DEFAULT_WEBSOCKET_DEFLATE_BYTES = 0;
+    public static final int DEFAULT_SETTINGS_RELOAD_SECONDS = 10;
+    public static final int DEFAULT_BROADCASTER_CACHE_SIZE = 1000;
+    public static final int BROADCASTER_CACHE_DEDUPE_WINDOW = 16;
+    public static final int DEFAULT_BROADCASTER_IDLE_SECONDS = 300;
+    public static final long BROADCASTER_REAP_SECONDS = 60;
+    public static final int BROADCASTER_LOCK_STRIPES = 64;
+    public static final int DEFAULT_DISPATCH_THREADS = 4;
+    public static final int DEFAULT_ASYNC_MESSAGE_THREADS = 10;
+    public static final int DEFAULT_ASYNC_WRITE_THREADS = 20;
+    public static final int DEFAULT_PRESENCE_HEARTBEAT_SECONDS = 30;
+    public static final int DEFAULT_PRESENCE_TIMEOUT_SECONDS = 90;
+    public static final int DEFAULT_PRESENCE_FLUSH_MILLIS = 500;
+    public static final long PRESENCE_TICK_MILLIS = 100;
+    public static final int PRESENCE_WHEEL_SIZE = 512;
+    public static final int DEFAULT_CLUSTER_BATCH_MILLIS = 5;
+    public static final long DEFAULT_PAGE_STORE_SIZE_MB = 64;
+    public static final int ARCHIVE_BATCH_SIZE = 500;
+    public static final long ARCHIVE_PROGRESS_ROWS = 100000;
+    public static final int DEFAULT_RETENTION_BATCH_SIZE = 500;
+    public static final int DEFAULT_RETENTION_PAUSE_MILLIS = 1000;
+    public static final int DEFAULT_RETENTION_PERIOD_MINUTES = 60;
 
     public static final String OAUTH_FILTER_URL = "oauth";
     public static final String OAUTH_CLBK_FILTER_URL = "oauth-clbk";
     public static final String DEFAULT_ASYNC_TRANSPORT = "long_polling";
+    public static final String ADMIN_URL = "admin";
+    public static final String ADMIN_ROLE = "admin";
+    public static final String DEFAULT_CLUSTER_NAME = "PlanningPoker";
 
     private Constants() {}
 
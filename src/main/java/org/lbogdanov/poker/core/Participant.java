@@ -0,0 +1,121 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core;
+
+import java.util.Date;
+
+import javax.persistence.*;
+
+import com.google.common.base.Objects;
+
+
+/**
+ * Represents a membership of a user in a Planning Poker session, authors are participants of their own sessions.
+ * 
+ * @author Leonid Bogdanov
+ */
+@Entity
+@Table(name = "PARTICIPANTS", uniqueConstraints = @UniqueConstraint(columnNames = {"USER_ID", "SESSION_ID"}))
+public class Participant extends AbstractEntity {
+
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "USER_ID", nullable = false)
+    private User user;
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "SESSION_ID", nullable = false)
+    private Session session;
+    @Column(name = "JOINED", nullable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date joined = new Date();
+
+    /**
+     * Returns a participating user.
+     * 
+     * @return the user
+     */
+    public User getUser() {
+        return user;
+    }
+
+    /**
+     * Sets a participating user.
+     * 
+     * @param user the user
+     */
+    public void setUser(User user) {
+        this.user = user;
+    }
+
+    /**
+     * Returns a session the user participates in.
+     * 
+     * @return the session
+     */
+    public Session getSession() {
+        return session;
+    }
+
+    /**
+     * Sets a session the user participates in.
+     * 
+     * @param session the session
+     */
+    public void setSession(Session session) {
+        this.session = session;
+    }
+
+    /**
+     * Returns a date the user joined the session first.
+     * 
+     * @return the join date
+     */
+    public Date getJoined() {
+        return joined;
+    }
+
+    /**
+     * Sets a date the user joined the session first.
+     * 
+     * @param joined the join date
+     */
+    public void setJoined(Date joined) {
+        this.joined = joined;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(getUser(), getSession());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof Participant) {
+            Participant other = (Participant) obj;
+            return Objects.equal(getUser(), other.getUser()) && Objects.equal(getSession(), other.getSession());
+        }
+        return false;
+    }
+
+}
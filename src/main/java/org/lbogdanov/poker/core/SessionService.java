@@ -15,6 +15,11 @@
  */
 package org.lbogdanov.poker.core;
 
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.shiro.authz.UnauthorizedException;
+
 
 /**
  * A service to create and manipulate {@link Session} instances.
@@ -48,17 +53,32 @@ public interface SessionService {
     public Session find(String code);
 
     /**
-     * Returns sessions a specified user created or participated in.
+     * Returns sessions a specified user created or participated in. If a search query is given, only sessions which
+     * names or descriptions contain words starting with every word of the query are returned. If the query has no
+     * words, or more than {@link Constants#SEARCH_MAX_RESULTS} sessions match it, sessions which names contain the
+     * query are returned instead.
      * 
      * @param user the user
-     * @param name sessions name pattern
-     * @param orderBy the order by criterion
+     * @param name the search query, can be <code>null</code>
+     * @param orderBy the order by criterion: <code>name</code>, <code>created</code> or <code>author</code>
      * @param ascending <code>true</code> for ascending sort order
      * @param pageSize the max number of sessions in a page
      * @return the sessions as a <code>PagingList</code>
      */
     public PagingList<Session> find(User user, String name, String orderBy, boolean ascending, int pageSize);
 
+    /**
+     * Returns names of sessions a specified user created or participated in which match a search query, in descending
+     * order of the session IDs. The query is matched by words the same way as in
+     * {@link #find(User, String, String, boolean, int)}.
+     * 
+     * @param user the user
+     * @param query the search query
+     * @param max the max number of names to return
+     * @return the session names
+     */
+    public List<String> suggest(User user, String query, int max);
+
     /**
      * Creates a new session object and persists it in a storage.
      * 
@@ -70,10 +90,47 @@ public interface SessionService {
     public Session create(String name, String description, String estimates);
 
     /**
-     * Deletes a session.
+     * Records the current user as a participant of a session, so that the session is returned by
+     * {@link #find(User, String, String, boolean, int)} for the user. The participant is written asynchronously.
+     * 
+     * @param session the session the user joins
+     */
+    public void join(Session session);
+
+    /**
+     * Posts a chat message of the current user to a session. The message is written asynchronously.
+     * 
+     * @param session the session
+     * @param message the message text
+     * @return the posted message
+     */
+    public ChatEntry post(Session session, String message);
+
+    /**
+     * Returns the most recent chat messages posted to a session, the oldest first. Messages still queued to be written
+     * on the local node are included, while messages posted to other cluster nodes less than a write interval ago may
+     * be missing.
+     * 
+     * @param session the session
+     * @param max the max number of messages to return
+     * @return the messages
+     */
+    public List<ChatEntry> getHistory(Session session, int max);
+
+    /**
+     * Deletes a session the current user is the author of.
      * 
      * @param session the session to delete
+     * @throws UnauthorizedException if the current user isn't the author of the session
      */
     public void delete(Session session);
 
+    /**
+     * Deletes several sessions at once, a single statement per table rather than a statement per session. Only the
+     * sessions the current user is the author of are deleted, the others are skipped.
+     * 
+     * @param sessions the sessions to delete
+     */
+    public void delete(Collection<Session> sessions);
+
 }
@@ -0,0 +1,212 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core.impl;
+
+import static org.lbogdanov.poker.core.Constants.DEFAULT_CHAT_BATCH_SIZE;
+import static org.lbogdanov.poker.core.Constants.DEFAULT_CHAT_FLUSH_MILLIS;
+import static org.lbogdanov.poker.util.Settings.CHAT_BATCH_SIZE;
+import static org.lbogdanov.poker.util.Settings.CHAT_FLUSH_MILLIS;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.lbogdanov.poker.core.ChatEntry;
+import org.lbogdanov.poker.core.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.avaje.ebean.EbeanServer;
+import com.avaje.ebean.Transaction;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Objects;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+
+/**
+ * Persists chat messages behind their delivery: posted messages are queued and inserted in JDBC batches as soon as
+ * a batch is full or the flush interval elapses, whichever comes first.
+ * 
+ * @author Leonid Bogdanov
+ */
+@Singleton
+public class ChatWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChatWriter.class);
+
+    private final EbeanServer ebean;
+    private final int batchSize;
+    private final BlockingQueue<ChatEntry> queue = new LinkedBlockingQueue<ChatEntry>();
+    private volatile List<ChatEntry> writing = Collections.emptyList();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final ScheduledExecutorService flusher;
+    private final Meter written;
+    private final Timer batches;
+
+    /**
+     * Creates a new instance of <code>ChatWriter</code> and starts a background thread which writes queued messages.
+     * 
+     * @param ebean the <code>EbeanServer</code> instance
+     * @param metrics the registry to report the queue size and written messages to
+     */
+    @Inject
+    public ChatWriter(EbeanServer ebean, MetricRegistry metrics) {
+        this.ebean = ebean;
+        batchSize = CHAT_BATCH_SIZE.asInt().or(DEFAULT_CHAT_BATCH_SIZE);
+        long flushMillis = CHAT_FLUSH_MILLIS.asLong().or((long) DEFAULT_CHAT_FLUSH_MILLIS);
+        written = metrics.meter(name(ChatWriter.class, "written"));
+        batches = metrics.timer(name(ChatWriter.class, "batches"));
+        metrics.register(name(ChatWriter.class, "pending"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return queue.size();
+            }
+
+        });
+        flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "chat-writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+
+        });
+        flusher.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                flush();
+            }
+
+        }, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a message to be written, wakes the background thread up once a full batch is queued.
+     * 
+     * @param entry the message
+     */
+    public void add(ChatEntry entry) {
+        queue.add(entry);
+        if (queue.size() >= batchSize && flushRequested.compareAndSet(false, true)) {
+            try {
+                flusher.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+
+                });
+            } catch (RejectedExecutionException e) {
+                flushRequested.set(false); // stopped, the final flush writes the message
+            }
+        }
+    }
+
+    /**
+     * Returns the messages of a session which are queued or being written, the oldest first. A message is either
+     * returned or can be found in the database once the method returns.
+     * 
+     * @param session the session
+     * @return the messages
+     */
+    public List<ChatEntry> getPending(Session session) {
+        List<ChatEntry> pending = Lists.newArrayList();
+        synchronized (queue) { // a message taken from the queue is published as being written at once
+            for (ChatEntry entry : Iterables.concat(writing, queue)) {
+                if (Objects.equal(session.getId(), entry.getSession().getId())) {
+                    pending.add(entry);
+                }
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Writes all queued messages and stops the background thread.
+     */
+    public void stop() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * Writes queued messages in batches of up to {@link #batchSize}.
+     */
+    void flush() {
+        flushRequested.set(false);
+        while (true) {
+            List<ChatEntry> batch = Lists.newArrayListWithCapacity(batchSize);
+            synchronized (queue) {
+                if (queue.drainTo(batch, batchSize) == 0) {
+                    break;
+                }
+                writing = batch;
+            }
+            Timer.Context context = batches.time();
+            try {
+                write(batch);
+            } catch (RuntimeException e) {
+                LOG.debug("Failed to write a batch of {} chat messages, writing one by one", batch.size(), e);
+                for (ChatEntry entry : batch) { // e.g. a session has just been deleted
+                    try {
+                        write(Collections.singletonList(entry));
+                    } catch (RuntimeException ex) {
+                        LOG.warn("Failed to write a chat message", ex);
+                    }
+                }
+            } finally {
+                writing = Collections.emptyList(); // written or given up on
+                context.stop();
+            }
+        }
+    }
+
+    private void write(List<ChatEntry> batch) {
+        Transaction tx = ebean.beginTransaction();
+        try {
+            tx.setBatchMode(true);
+            tx.setBatchSize(batchSize);
+            for (ChatEntry entry : batch) {
+                ebean.save(entry, tx);
+            }
+            tx.commit();
+        } finally {
+            tx.end();
+        }
+        written.mark(batch.size());
+    }
+
+}
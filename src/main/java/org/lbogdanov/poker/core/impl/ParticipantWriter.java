@@ -0,0 +1,209 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core.impl;
+
+import static org.lbogdanov.poker.core.Constants.DEFAULT_PARTICIPANTS_BATCH_SIZE;
+import static org.lbogdanov.poker.core.Constants.DEFAULT_PARTICIPANTS_FLUSH_MILLIS;
+import static org.lbogdanov.poker.util.Settings.PARTICIPANTS_BATCH_SIZE;
+import static org.lbogdanov.poker.util.Settings.PARTICIPANTS_FLUSH_MILLIS;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.lbogdanov.poker.core.Participant;
+import org.lbogdanov.poker.core.Session;
+import org.lbogdanov.poker.core.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.avaje.ebean.EbeanServer;
+import com.avaje.ebean.Transaction;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+
+/**
+ * Records participants of sessions asynchronously: users joining sessions are queued and written to the database in
+ * batches, recently recorded memberships are skipped.
+ * 
+ * @author Leonid Bogdanov
+ */
+@Singleton
+public class ParticipantWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParticipantWriter.class);
+    private static final int RECORDED_CAPACITY = 10000;
+
+    private final EbeanServer ebean;
+    private final int batchSize;
+    private final BlockingQueue<Participant> queue = new LinkedBlockingQueue<Participant>();
+    private final Cache<List<Long>, Boolean> recorded = CacheBuilder.newBuilder()
+                                                                    .maximumSize(RECORDED_CAPACITY)
+                                                                    .build();
+    private final ScheduledExecutorService flusher;
+    private final Meter written;
+
+    /**
+     * Creates a new instance of <code>ParticipantWriter</code> and starts a background thread which writes queued
+     * participants.
+     * 
+     * @param ebean the <code>EbeanServer</code> instance
+     * @param metrics the registry to report the queue size and written participants to
+     */
+    @Inject
+    public ParticipantWriter(EbeanServer ebean, MetricRegistry metrics) {
+        this.ebean = ebean;
+        batchSize = PARTICIPANTS_BATCH_SIZE.asInt().or(DEFAULT_PARTICIPANTS_BATCH_SIZE);
+        long flushMillis = PARTICIPANTS_FLUSH_MILLIS.asLong().or((long) DEFAULT_PARTICIPANTS_FLUSH_MILLIS);
+        written = metrics.meter(name(ParticipantWriter.class, "written"));
+        metrics.register(name(ParticipantWriter.class, "pending"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return queue.size();
+            }
+
+        });
+        flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "participant-writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+
+        });
+        flusher.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                flush();
+            }
+
+        }, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a user to be recorded as a participant of a session, does nothing if the membership has been recorded
+     * recently.
+     * 
+     * @param session the session
+     * @param user the user
+     * @return <code>true</code> if the user has been queued
+     */
+    public boolean add(Session session, User user) {
+        List<Long> key = Arrays.asList(session.getId(), user.getId());
+        if (recorded.asMap().putIfAbsent(key, Boolean.TRUE) != null) {
+            return false;
+        }
+        Participant participant = new Participant();
+        participant.setSession(session);
+        participant.setUser(user);
+        return queue.add(participant);
+    }
+
+    /**
+     * Marks a membership as recorded, e.g. after it has been written synchronously.
+     * 
+     * @param participant the participant
+     */
+    public void recorded(Participant participant) {
+        recorded.put(Arrays.asList(participant.getSession().getId(), participant.getUser().getId()), Boolean.TRUE);
+    }
+
+    /**
+     * Writes all queued participants and stops the background thread.
+     */
+    public void stop() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * Writes queued participants in batches of up to {@link #batchSize}.
+     */
+    void flush() {
+        List<Participant> batch = Lists.newArrayListWithCapacity(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            try {
+                write(batch);
+            } catch (RuntimeException e) {
+                LOG.debug("Failed to write a batch of {} participants, writing one by one", batch.size(), e);
+                for (Participant participant : batch) { // e.g. another node has just written some of them
+                    try {
+                        write(Collections.singletonList(participant));
+                    } catch (RuntimeException ex) {
+                        LOG.warn("Failed to write a participant", ex);
+                    }
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private void write(List<Participant> batch) {
+        // skip memberships recorded earlier, e.g. before a restart or by another node
+        Map<List<Long>, Participant> pending = Maps.newLinkedHashMap();
+        Set<Long> sessions = Sets.newHashSet();
+        Set<Long> users = Sets.newHashSet();
+        for (Participant participant : batch) {
+            Long session = participant.getSession().getId();
+            Long user = participant.getUser().getId();
+            pending.put(Arrays.asList(session, user), participant);
+            sessions.add(session);
+            users.add(user);
+        }
+        List<Participant> existing = ebean.find(Participant.class).select("user, session")
+                                          .where().in("session.id", sessions).in("user.id", users)
+                                          .findList();
+        for (Participant participant : existing) {
+            pending.remove(Arrays.asList(participant.getSession().getId(), participant.getUser().getId()));
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        Transaction tx = ebean.beginTransaction();
+        try {
+            tx.setBatchMode(true);
+            tx.setBatchSize(batchSize);
+            for (Participant participant : pending.values()) {
+                ebean.save(participant, tx);
+            }
+            tx.commit();
+        } finally {
+            tx.end();
+        }
+        written.mark(pending.size());
+    }
+
+}
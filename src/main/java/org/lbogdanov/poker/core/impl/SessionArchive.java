@@ -0,0 +1,464 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core.impl;
+
+import static org.lbogdanov.poker.core.Constants.ARCHIVE_BATCH_SIZE;
+import static org.lbogdanov.poker.core.Constants.ARCHIVE_PROGRESS_ROWS;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.lbogdanov.poker.core.AbstractEntity;
+import org.lbogdanov.poker.core.ChatEntry;
+import org.lbogdanov.poker.core.Participant;
+import org.lbogdanov.poker.core.Session;
+import org.lbogdanov.poker.core.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.avaje.ebean.EbeanServer;
+import com.avaje.ebean.Query;
+import com.avaje.ebean.Transaction;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.MinimalPrettyPrinter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+
+/**
+ * Exports sessions along with their participants, chat messages and users to newline-delimited JSON and imports them
+ * back, e.g. into another environment. Rows are streamed in both directions, so memory use doesn't depend on the
+ * number of rows: the export reads rows in pages of {@link org.lbogdanov.poker.core.Constants#ARCHIVE_BATCH_SIZE} by
+ * their primary keys, the import reads one record at a time and inserts them in JDBC batches of the same size.
+ * <p>
+ * Every line is a JSON object with a <code>type</code> of <code>user</code>, <code>session</code>,
+ * <code>participant</code> or <code>message</code>, all users come first, then sessions, participants and messages.
+ * Rows refer to each other by natural keys, users by external IDs and sessions by codes, as database IDs differ
+ * between environments.
+ *
+ * @author Leonid Bogdanov
+ */
+@Singleton
+public class SessionArchive {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionArchive.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final EbeanServer ebean;
+    private final SessionIndex index;
+    private final Meter exported;
+    private final Meter imported;
+
+    /**
+     * Creates a new instance of <code>SessionArchive</code>.
+     *
+     * @param ebean the <code>EbeanServer</code> instance
+     * @param index the index imported sessions are added to
+     * @param metrics the registry to report exported and imported rows to
+     */
+    @Inject
+    public SessionArchive(EbeanServer ebean, SessionIndex index, MetricRegistry metrics) {
+        this.ebean = ebean;
+        this.index = index;
+        exported = metrics.meter(name(SessionArchive.class, "exported"));
+        imported = metrics.meter(name(SessionArchive.class, "imported"));
+    }
+
+    /**
+     * Writes sessions created before a specified date, their participants and chat messages, and all users to a
+     * stream. The stream isn't closed.
+     *
+     * @param out the stream to write to
+     * @param before the date, <code>null</code> to export all sessions
+     * @return the number of rows written
+     * @throws IOException if the stream can't be written
+     */
+    public long exportTo(OutputStream out, Date before) throws IOException {
+        final JsonGenerator json = MAPPER.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        json.setPrettyPrinter(new MinimalPrettyPrinter("\n"));
+        Progress progress = new Progress("Exported", exported);
+        export(ebean.find(User.class).select("externalId, firstName, lastName, email"),
+               new RecordWriter<User>(json, progress) {
+
+            @Override
+            void write(User user) throws IOException {
+                json.writeStringField("type", "user");
+                json.writeStringField("externalId", user.getExternalId());
+                json.writeStringField("firstName", user.getFirstName());
+                json.writeStringField("lastName", user.getLastName());
+                json.writeStringField("email", user.getEmail());
+            }
+
+        });
+        Query<Session> sessions = ebean.find(Session.class).fetch("author", "externalId");
+        if (before != null) {
+            sessions.where().lt("created", before);
+        }
+        export(sessions, new RecordWriter<Session>(json, progress) {
+
+            @Override
+            void write(Session session) throws IOException {
+                json.writeStringField("type", "session");
+                json.writeStringField("code", session.getCode());
+                json.writeStringField("name", session.getName());
+                json.writeStringField("description", session.getDescription());
+                json.writeStringField("estimates", session.getEstimates());
+                json.writeNumberField("created", session.getCreated().getTime());
+                json.writeStringField("author", session.getAuthor().getExternalId());
+            }
+
+        });
+        Query<Participant> participants = ebean.find(Participant.class).fetch("user", "externalId")
+                                               .fetch("session", "code");
+        if (before != null) {
+            participants.where().lt("session.created", before);
+        }
+        export(participants, new RecordWriter<Participant>(json, progress) {
+
+            @Override
+            void write(Participant participant) throws IOException {
+                json.writeStringField("type", "participant");
+                json.writeStringField("session", participant.getSession().getCode());
+                json.writeStringField("user", participant.getUser().getExternalId());
+                json.writeNumberField("joined", participant.getJoined().getTime());
+            }
+
+        });
+        Query<ChatEntry> messages = ebean.find(ChatEntry.class).fetch("author", "externalId")
+                                         .fetch("session", "code");
+        if (before != null) {
+            messages.where().lt("session.created", before);
+        }
+        export(messages, new RecordWriter<ChatEntry>(json, progress) {
+
+            @Override
+            void write(ChatEntry entry) throws IOException {
+                json.writeStringField("type", "message");
+                json.writeStringField("session", entry.getSession().getCode());
+                json.writeStringField("author", entry.getAuthor().getExternalId());
+                json.writeStringField("message", entry.getMessage());
+                json.writeNumberField("posted", entry.getPosted().getTime());
+            }
+
+        });
+        if (progress.rows > 0) {
+            json.writeRaw('\n'); // the separator precedes records, terminate the last one
+        }
+        json.close();
+        progress.done();
+        return progress.rows;
+    }
+
+    /**
+     * Reads rows written by {@link #exportTo(OutputStream, Date)} from a stream and inserts them. Users which already
+     * exist are reused, sessions which codes are already taken are skipped along with their participants and
+     * messages, as are rows referring to unknown users. The stream isn't closed.
+     *
+     * @param in the stream to read from
+     * @return the number of rows inserted
+     * @throws IOException if the stream can't be read or contains malformed JSON
+     */
+    public long importFrom(InputStream in) throws IOException {
+        Importer importer = new Importer();
+        MappingIterator<JsonNode> records = MAPPER.reader(JsonNode.class).readValues(in);
+        try {
+            while (records.hasNextValue()) {
+                importer.add(records.nextValue());
+            }
+        } finally {
+            records.close();
+        }
+        importer.flush();
+        importer.progress.done();
+        return importer.progress.rows;
+    }
+
+    private static String text(JsonNode record, String field) {
+        JsonNode value = record.get(field);
+        return value == null || value.isNull() ? null : value.asText();
+    }
+
+    private static <T extends AbstractEntity> void export(Query<T> query, RecordWriter<T> writer) throws IOException {
+        // keyset pages rather than a single visit, MySQL's driver reads a whole result set into memory by default
+        List<T> page;
+        Long last = null;
+        do {
+            Query<T> pageQuery = query.copy();
+            if (last != null) {
+                pageQuery.where().gt("id", last);
+            }
+            page = pageQuery.orderBy("id").setMaxRows(ARCHIVE_BATCH_SIZE).findList();
+            for (T bean : page) {
+                writer.accept(bean);
+                last = bean.getId();
+            }
+        } while (page.size() == ARCHIVE_BATCH_SIZE);
+    }
+
+    /**
+     * Writes rows as JSON objects.
+     */
+    private static abstract class RecordWriter<T> {
+
+        final JsonGenerator json;
+        final Progress progress;
+
+        RecordWriter(JsonGenerator json, Progress progress) {
+            this.json = json;
+            this.progress = progress;
+        }
+
+        void accept(T bean) throws IOException {
+            json.writeStartObject();
+            write(bean);
+            json.writeEndObject();
+            progress.add(1);
+        }
+
+        abstract void write(T bean) throws IOException;
+
+    }
+
+    /**
+     * Collects records of the same type in batches and inserts every batch in a single transaction.
+     */
+    private class Importer {
+
+        // codes are unique, so a session with one of these codes is the one inserted by this import
+        final Set<String> inserted = Sets.newHashSet();
+        final List<JsonNode> batch = Lists.newArrayListWithCapacity(ARCHIVE_BATCH_SIZE);
+        final Progress progress = new Progress("Imported", imported);
+        String type;
+
+        void add(JsonNode record) {
+            String recordType = text(record, "type");
+            if (!Objects.equal(recordType, type) || batch.size() >= ARCHIVE_BATCH_SIZE) {
+                flush();
+                type = recordType;
+            }
+            batch.add(record);
+        }
+
+        void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            Transaction tx = ebean.beginTransaction();
+            try {
+                tx.setBatchMode(true);
+                tx.setBatchSize(ARCHIVE_BATCH_SIZE);
+                int rows;
+                if ("user".equals(type)) {
+                    rows = writeUsers(tx);
+                } else if ("session".equals(type)) {
+                    rows = writeSessions(tx);
+                } else if ("participant".equals(type)) {
+                    rows = writeParticipants(tx);
+                } else if ("message".equals(type)) {
+                    rows = writeMessages(tx);
+                } else {
+                    throw new IllegalArgumentException("Unknown record type: " + type);
+                }
+                tx.commit();
+                progress.add(rows);
+            } finally {
+                tx.end();
+            }
+            batch.clear();
+        }
+
+        int writeUsers(Transaction tx) {
+            Map<String, User> users = users(values("externalId"));
+            int rows = 0;
+            for (JsonNode record : batch) {
+                String externalId = text(record, "externalId");
+                if (!users.containsKey(externalId)) {
+                    User user = new User();
+                    user.setExternalId(externalId);
+                    user.setFirstName(text(record, "firstName"));
+                    user.setLastName(text(record, "lastName"));
+                    user.setEmail(text(record, "email"));
+                    ebean.save(user, tx);
+                    users.put(externalId, user);
+                    rows++;
+                }
+            }
+            return rows;
+        }
+
+        int writeSessions(Transaction tx) {
+            Set<String> codes = values("code");
+            Set<String> taken = Sets.newHashSet();
+            for (Session session : ebean.find(Session.class).select("code").where().in("code", codes).findList()) {
+                taken.add(session.getCode());
+            }
+            Map<String, User> authors = users(values("author"));
+            int rows = 0;
+            for (JsonNode record : batch) {
+                String code = text(record, "code");
+                User author = authors.get(text(record, "author"));
+                if (author == null || !taken.add(code)) {
+                    LOG.debug("Skipped session {}", code);
+                    continue;
+                }
+                Session session = new Session();
+                session.setCode(code);
+                session.setName(text(record, "name"));
+                session.setDescription(text(record, "description"));
+                session.setEstimates(text(record, "estimates"));
+                session.setCreated(new Date(record.path("created").asLong()));
+                session.setAuthor(author);
+                ebean.save(session, tx);
+                inserted.add(code);
+                rows++;
+            }
+            return rows;
+        }
+
+        int writeParticipants(Transaction tx) {
+            Map<String, Session> sessions = sessions(values("session"));
+            Map<String, User> users = users(values("user"));
+            List<Participant> written = Lists.newArrayListWithCapacity(batch.size());
+            for (JsonNode record : batch) {
+                Session session = sessions.get(text(record, "session"));
+                User user = users.get(text(record, "user"));
+                if (session != null && user != null) {
+                    Participant participant = new Participant();
+                    participant.setSession(session);
+                    participant.setUser(user);
+                    participant.setJoined(new Date(record.path("joined").asLong()));
+                    ebean.save(participant, tx);
+                    written.add(participant);
+                }
+            }
+            for (Participant participant : written) {
+                index.add(participant.getUser().getId(), participant.getSession());
+            }
+            return written.size();
+        }
+
+        int writeMessages(Transaction tx) {
+            Map<String, Session> sessions = sessions(values("session"));
+            Map<String, User> authors = users(values("author"));
+            int rows = 0;
+            for (JsonNode record : batch) {
+                Session session = sessions.get(text(record, "session"));
+                User author = authors.get(text(record, "author"));
+                if (session != null && author != null) {
+                    ChatEntry entry = new ChatEntry();
+                    entry.setSession(session);
+                    entry.setAuthor(author);
+                    entry.setMessage(text(record, "message"));
+                    entry.setPosted(new Date(record.path("posted").asLong()));
+                    ebean.save(entry, tx);
+                    rows++;
+                }
+            }
+            return rows;
+        }
+
+        Set<String> values(String field) {
+            Set<String> values = Sets.newHashSet();
+            for (JsonNode record : batch) {
+                values.add(record.path(field).asText());
+            }
+            return values;
+        }
+
+        Map<String, User> users(Set<String> externalIds) {
+            Map<String, User> users = Maps.newHashMap();
+            for (User user : ebean.find(User.class).select("externalId").where().in("externalId", externalIds)
+                                  .findList()) {
+                users.put(user.getExternalId(), user);
+            }
+            return users;
+        }
+
+        /**
+         * Returns sessions inserted by this import by their codes.
+         */
+        Map<String, Session> sessions(Set<String> codes) {
+            Map<String, Session> sessions = Maps.newHashMap();
+            codes.retainAll(inserted);
+            if (codes.isEmpty()) {
+                return sessions;
+            }
+            for (Session session : ebean.find(Session.class).select("code, name, description")
+                                        .where().in("code", codes)
+                                        .findList()) {
+                sessions.put(session.getCode(), session);
+            }
+            return sessions;
+        }
+
+    }
+
+    /**
+     * Counts processed rows, logs the count and the rate every
+     * {@link org.lbogdanov.poker.core.Constants#ARCHIVE_PROGRESS_ROWS} rows.
+     */
+    private static final class Progress {
+
+        final String action;
+        final Meter meter;
+        final long start = System.currentTimeMillis();
+        long rows;
+
+        Progress(String action, Meter meter) {
+            this.action = action;
+            this.meter = meter;
+        }
+
+        void add(int n) {
+            meter.mark(n);
+            long before = rows;
+            rows += n;
+            if (rows / ARCHIVE_PROGRESS_ROWS != before / ARCHIVE_PROGRESS_ROWS) {
+                log();
+            }
+        }
+
+        void done() {
+            log();
+        }
+
+        private void log() {
+            long millis = Math.max(1, System.currentTimeMillis() - start);
+            LOG.info("{} {} rows in {} ms, {} rows/s", action, rows, millis, rows * 1000 / millis);
+        }
+
+    }
+
+}
@@ -0,0 +1,306 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core.impl;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.lbogdanov.poker.core.Participant;
+import org.lbogdanov.poker.core.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.avaje.ebean.EbeanServer;
+import com.avaje.ebean.QueryResultVisitor;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
+
+
+/**
+ * An in-memory inverted index of sessions by words of their names and descriptions, maintained separately for every
+ * participant. Words are matched by prefix, so the index is suitable for a typeahead. The index is loaded from the
+ * database on creation and has to be updated whenever a session is created, joined or deleted.
+ * 
+ * @author Leonid Bogdanov
+ */
+@Singleton
+public class SessionIndex {
+
+    /**
+     * Sessions of a single participant.
+     */
+    private static final class UserIndex {
+
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final NavigableMap<String, NavigableSet<Long>> words = new TreeMap<String, NavigableSet<Long>>();
+        private final Map<Long, Entry> entries = Maps.newHashMap();
+
+        public boolean contains(Long id) {
+            lock.readLock().lock();
+            try {
+                return entries.containsKey(id);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        public void add(Long id, String name, Set<String> tokens) {
+            lock.writeLock().lock();
+            try {
+                remove(id);
+                entries.put(id, new Entry(name, tokens));
+                for (String token : tokens) {
+                    NavigableSet<Long> ids = words.get(token);
+                    if (ids == null) {
+                        ids = Sets.newTreeSet();
+                        words.put(token, ids);
+                    }
+                    ids.add(id);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        public void remove(Long id) {
+            lock.writeLock().lock();
+            try {
+                Entry entry = entries.remove(id);
+                if (entry != null) {
+                    for (String token : entry.tokens) {
+                        Set<Long> ids = words.get(token);
+                        ids.remove(id);
+                        if (ids.isEmpty()) {
+                            words.remove(token);
+                        }
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        public SortedMap<Long, String> search(List<String> prefixes, int max) {
+            // the longest prefix is likely the most selective one, the others are checked against session words
+            String longest = Collections.max(prefixes, BY_LENGTH);
+            lock.readLock().lock();
+            try {
+                List<Iterator<Long>> byWord = Lists.newArrayList();
+                SortedMap<String, NavigableSet<Long>> matching =
+                        words.subMap(longest, true, longest + Character.MAX_VALUE, true);
+                for (NavigableSet<Long> ids : matching.values()) {
+                    byWord.add(ids.descendingIterator());
+                }
+                SortedMap<Long, String> found = new TreeMap<Long, String>(Ordering.natural().reverse());
+                Long previous = null;
+                for (Iterator<Long> ids = Iterators.mergeSorted(byWord, Ordering.natural().reverse());
+                        ids.hasNext() && found.size() < max;) {
+                    Long id = ids.next();
+                    if (!id.equals(previous)) { // a session can have several words with the same prefix
+                        Entry entry = entries.get(id);
+                        if (entry.matches(prefixes)) {
+                            found.put(id, entry.name);
+                        }
+                        previous = id;
+                    }
+                }
+                return found;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+    }
+
+    /**
+     * An indexed session.
+     */
+    private static final class Entry {
+
+        private final String name;
+        private final Set<String> tokens;
+
+        public Entry(String name, Set<String> tokens) {
+            this.name = name;
+            this.tokens = tokens;
+        }
+
+        public boolean matches(List<String> prefixes) {
+            for (String prefix : prefixes) {
+                boolean matched = false;
+                for (Iterator<String> words = tokens.iterator(); !matched && words.hasNext();) {
+                    matched = words.next().startsWith(prefix);
+                }
+                if (!matched) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionIndex.class);
+    private static final Ordering<String> BY_LENGTH = new Ordering<String>() {
+
+        @Override
+        public int compare(String left, String right) {
+            return Ints.compare(left.length(), right.length());
+        }
+
+    };
+    private static final Splitter WORDS = Splitter.on(CharMatcher.JAVA_LETTER_OR_DIGIT.negate()).omitEmptyStrings();
+
+    private final ConcurrentMap<Long, UserIndex> users = Maps.newConcurrentMap();
+    // the participants which indexes hold a session, by session ID, so removals don't have to visit every index
+    private final ConcurrentMap<Long, Set<Long>> holders = Maps.newConcurrentMap();
+
+    /**
+     * Loads all participants from the database.
+     * 
+     * @param ebean the <code>EbeanServer</code> instance
+     */
+    @Inject
+    void load(EbeanServer ebean) {
+        long start = System.currentTimeMillis();
+        ebean.find(Participant.class).select("user").fetch("session", "name, description")
+             .findVisit(new QueryResultVisitor<Participant>() {
+
+                 @Override
+                 public boolean accept(Participant participant) {
+                     add(participant.getUser().getId(), participant.getSession());
+                     return true;
+                 }
+
+             });
+        LOG.info("Indexed sessions of {} users in {} ms", users.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Adds a session to the index of a participant, or updates it if the session is indexed already.
+     * 
+     * @param user the participant ID
+     * @param session the session
+     */
+    public void add(Long user, Session session) {
+        UserIndex index = users.get(user);
+        if (index == null) {
+            UserIndex existing = users.putIfAbsent(user, index = new UserIndex());
+            index = existing == null ? index : existing;
+        }
+        Set<Long> held = holders.get(session.getId());
+        if (held == null) {
+            held = Sets.newSetFromMap(Maps.<Long, Boolean>newConcurrentMap());
+            Set<Long> existing = holders.putIfAbsent(session.getId(), held);
+            held = existing == null ? held : existing;
+        }
+        held.add(user);
+        Set<String> tokens = Sets.newHashSet(tokenize(session.getName()));
+        tokens.addAll(tokenize(session.getDescription()));
+        index.add(session.getId(), session.getName(), tokens);
+    }
+
+    /**
+     * Checks if a session is indexed for a participant.
+     * 
+     * @param user the participant ID
+     * @param session the session
+     * @return <code>true</code> if the session is indexed
+     */
+    public boolean contains(Long user, Session session) {
+        UserIndex index = users.get(user);
+        return index != null && index.contains(session.getId());
+    }
+
+    /**
+     * Removes a session from the index of every participant.
+     * 
+     * @param session the session
+     */
+    public void remove(Session session) {
+        remove(session.getId());
+    }
+
+    /**
+     * Removes sessions from the index of every participant.
+     * 
+     * @param sessions the session IDs
+     */
+    public void removeAll(Collection<Long> sessions) {
+        for (Long session : sessions) {
+            remove(session);
+        }
+    }
+
+    /**
+     * Finds sessions of a participant which contain all words of a query in their names or descriptions, the words of
+     * the query are matched as prefixes, case insensitively.
+     * 
+     * @param user the participant ID
+     * @param query the query
+     * @param max the max number of sessions to return
+     * @return the IDs and names of the sessions found, in descending order of the IDs
+     */
+    public SortedMap<Long, String> search(Long user, String query, int max) {
+        UserIndex index = users.get(user);
+        List<String> prefixes = tokenize(query);
+        if (index == null || prefixes.isEmpty()) {
+            return new TreeMap<Long, String>();
+        }
+        return index.search(prefixes, max);
+    }
+
+    private void remove(Long session) {
+        Set<Long> held = holders.remove(session);
+        if (held != null) {
+            for (Long user : held) {
+                UserIndex index = users.get(user);
+                if (index != null) {
+                    index.remove(session);
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits a text into lower case words.
+     * 
+     * @param text the text, can be <code>null</code>
+     * @return the words
+     */
+    static List<String> tokenize(String text) {
+        if (text == null) {
+            return Collections.emptyList();
+        }
+        List<String> tokens = new ArrayList<String>();
+        for (String word : WORDS.split(text)) {
+            tokens.add(word.toLowerCase(Locale.ENGLISH));
+        }
+        return tokens;
+    }
+
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core.impl;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.lbogdanov.poker.core.PagingList;
+import org.lbogdanov.poker.core.Participant;
+import org.lbogdanov.poker.core.Session;
+
+import com.avaje.ebean.Expr;
+import com.avaje.ebean.Expression;
+import com.avaje.ebean.Query;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+
+/**
+ * A {@link PagingList} of sessions found through their participants. Pages are fetched with keyset pagination, i.e.
+ * a page following an already fetched one starts after the last row of the latter instead of skipping rows with an
+ * offset, so that paging through a long list costs the same for every page.
+ * 
+ * @author Leonid Bogdanov
+ */
+class SessionPagingList implements PagingList<Session> {
+
+    /**
+     * Supported sort orders.
+     */
+    enum Order {
+
+        NAME("session.name") {
+
+            @Override
+            Object keyOf(Session session) {
+                return session.getName();
+            }
+
+        },
+        AUTHOR("session.author.id") {
+
+            @Override
+            Object keyOf(Session session) {
+                return session.getAuthor().getId();
+            }
+
+        },
+        // imported sessions keep their creation dates but get new IDs, so IDs don't follow the creation dates
+        CREATED("session.created") {
+
+            @Override
+            Object keyOf(Session session) {
+                return session.getCreated();
+            }
+
+        };
+
+        private static final String ID = "session.id";
+
+        private final String property;
+
+        /**
+         * Returns a sort order by a name of a <code>Session</code> property.
+         * 
+         * @param property the property name, can be <code>null</code>
+         * @return the sort order, {@link #CREATED} if the property isn't supported
+         */
+        static Order of(String property) {
+            String name = Strings.nullToEmpty(property).toUpperCase(Locale.ENGLISH);
+            for (Order order : values()) {
+                if (order.name().equals(name)) {
+                    return order;
+                }
+            }
+            return CREATED;
+        }
+
+        private Order(String property) {
+            this.property = property;
+        }
+
+        abstract Object keyOf(Session session);
+
+        String orderBy(boolean ascending) {
+            String direction = ascending ? " asc" : " desc";
+            return property + direction + ", " + ID + direction;
+        }
+
+        Expression after(Session session, boolean ascending) {
+            Expression byId = ascending ? Expr.gt(ID, session.getId()) : Expr.lt(ID, session.getId());
+            Object value = keyOf(session);
+            Expression byValue = ascending ? Expr.gt(property, value) : Expr.lt(property, value);
+            return Expr.or(byValue, Expr.and(Expr.eq(property, value), byId));
+        }
+
+    }
+
+    private final Query<Participant> query;
+    private final Order order;
+    private final boolean ascending;
+    private final int pageSize;
+    private final Map<Integer, List<Session>> pages = Maps.newHashMap();
+    private Integer totalRowCount;
+
+    /**
+     * Creates a new instance of <code>SessionPagingList</code>.
+     * 
+     * @param query the query of participants, sessions are fetched along with them
+     * @param order the sort order
+     * @param ascending <code>true</code> for ascending sort order
+     * @param pageSize the max number of sessions in a page
+     */
+    public SessionPagingList(Query<Participant> query, Order order, boolean ascending, int pageSize) {
+        this.query = query;
+        this.order = order;
+        this.ascending = ascending;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Session> getAsList() {
+        return sessions(query.copy().orderBy(order.orderBy(ascending)).findList());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getTotalRowCount() {
+        if (totalRowCount == null) {
+            totalRowCount = query.copy().findRowCount();
+        }
+        return totalRowCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getTotalPageCount() {
+        return (getTotalRowCount() + pageSize - 1) / pageSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Session> getPage(int i) {
+        List<Session> page = pages.get(i);
+        if (page == null) {
+            Query<Participant> pageQuery = query.copy();
+            List<Session> previous = pages.get(i - 1);
+            if (previous != null && !previous.isEmpty()) {
+                pageQuery.where().add(order.after(previous.get(previous.size() - 1), ascending));
+            } else if (i > 0) { // random access, e.g. the last page, fall back to an offset
+                pageQuery.setFirstRow(i * pageSize);
+            }
+            page = sessions(pageQuery.orderBy(order.orderBy(ascending)).setMaxRows(pageSize).findList());
+            pages.put(i, page);
+        }
+        return page;
+    }
+
+    private static List<Session> sessions(List<Participant> participants) {
+        List<Session> sessions = Lists.newArrayListWithCapacity(participants.size());
+        for (Participant participant : participants) {
+            sessions.add(participant.getSession());
+        }
+        return sessions;
+    }
+
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core.impl;
+
+import static org.lbogdanov.poker.core.Constants.DEFAULT_RETENTION_BATCH_SIZE;
+import static org.lbogdanov.poker.core.Constants.DEFAULT_RETENTION_PAUSE_MILLIS;
+import static org.lbogdanov.poker.core.Constants.DEFAULT_RETENTION_PERIOD_MINUTES;
+import static org.lbogdanov.poker.util.Settings.RETENTION_BATCH_SIZE;
+import static org.lbogdanov.poker.util.Settings.RETENTION_DAYS;
+import static org.lbogdanov.poker.util.Settings.RETENTION_PAUSE_MILLIS;
+import static org.lbogdanov.poker.util.Settings.RETENTION_PERIOD_MINUTES;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.lbogdanov.poker.core.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.avaje.ebean.EbeanServer;
+import com.avaje.ebean.Transaction;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Lists;
+
+
+/**
+ * Purges sessions created more than <code>retention.days</code> ago along with their participants and chat messages.
+ * Sessions are deleted in batches, each in its own short transaction, with a pause between batches, so purging a
+ * large backlog neither holds locks for long nor saturates the database. The purge runs periodically on a background
+ * thread and never runs concurrently with itself. Settings are read on every run, so they can be changed without a
+ * restart.
+ *
+ * @author Leonid Bogdanov
+ */
+@Singleton
+public class SessionRetention {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionRetention.class);
+
+    private final EbeanServer ebean;
+    private final SessionIndex index;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong backlog = new AtomicLong();
+    private final Meter purged;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Creates a new instance of <code>SessionRetention</code> and starts a background thread which purges stale
+     * sessions every <code>retention.period.minutes</code>.
+     *
+     * @param ebean the <code>EbeanServer</code> instance
+     * @param index the index purged sessions are removed from
+     * @param metrics the registry to report purged rows and the backlog to
+     */
+    @Inject
+    public SessionRetention(EbeanServer ebean, SessionIndex index, MetricRegistry metrics) {
+        this.ebean = ebean;
+        this.index = index;
+        purged = metrics.meter(name(SessionRetention.class, "purged"));
+        metrics.register(name(SessionRetention.class, "backlog"), new Gauge<Long>() {
+
+            @Override
+            public Long getValue() {
+                return backlog.get();
+            }
+
+        });
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "session-retention");
+                thread.setDaemon(true);
+                return thread;
+            }
+
+        });
+        long period = RETENTION_PERIOD_MINUTES.asLong().or((long) DEFAULT_RETENTION_PERIOD_MINUTES);
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                int days = RETENTION_DAYS.asInt().or(0);
+                if (days > 0) {
+                    try {
+                        purge(new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days)));
+                    } catch (RuntimeException e) {
+                        LOG.warn("Failed to purge stale sessions", e);
+                    }
+                }
+            }
+
+        }, period, Math.max(period, 1), TimeUnit.MINUTES);
+    }
+
+    /**
+     * Deletes sessions created before a specified date, their participants and chat messages in batches of
+     * <code>retention.batch.size</code> sessions, pausing for <code>retention.pause.millis</code> between batches.
+     * Does nothing if a purge is running already.
+     *
+     * @param cutoff the date
+     * @return the number of sessions deleted, or <code>-1</code> if a purge is running already
+     */
+    public long purge(Date cutoff) {
+        if (!running.compareAndSet(false, true)) {
+            return -1;
+        }
+        long sessions = 0, rows = 0;
+        try {
+            int batchSize = RETENTION_BATCH_SIZE.asInt().or(DEFAULT_RETENTION_BATCH_SIZE);
+            long pauseMillis = RETENTION_PAUSE_MILLIS.asLong().or((long) DEFAULT_RETENTION_PAUSE_MILLIS);
+            backlog.set(ebean.find(Session.class).where().lt("created", cutoff).findRowCount());
+            long start = System.currentTimeMillis();
+            while (backlog.get() > 0 && !Thread.currentThread().isInterrupted()) {
+                // the oldest sessions first, served by the index on the creation dates
+                List<Session> batch = ebean.find(Session.class).select("id")
+                                           .where().lt("created", cutoff)
+                                           .orderBy("created, id").setMaxRows(batchSize)
+                                           .findList();
+                if (batch.isEmpty()) {
+                    break;
+                }
+                rows += delete(batch);
+                sessions += batch.size();
+                backlog.set(Math.max(0, backlog.get() - batch.size()));
+                long millis = Math.max(1, System.currentTimeMillis() - start);
+                LOG.info("Purged {} sessions, {} rows in {} ms, {} rows/s, {} sessions remaining", sessions, rows,
+                         millis, rows * 1000 / millis, backlog.get());
+                if (batch.size() < batchSize) {
+                    break;
+                }
+                Thread.sleep(pauseMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // stopped
+        } finally {
+            backlog.set(0);
+            running.set(false);
+        }
+        return sessions;
+    }
+
+    /**
+     * Stops purging sessions, interrupts a purge which is running.
+     */
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    private int delete(List<Session> sessions) {
+        List<Long> ids = Lists.newArrayListWithCapacity(sessions.size());
+        for (Session session : sessions) {
+            ids.add(session.getId());
+        }
+        int rows;
+        Transaction tx = ebean.beginTransaction();
+        try {
+            rows = SessionServiceImpl.delete(ebean, ids, tx);
+            tx.commit();
+        } finally {
+            tx.end();
+        }
+        index.removeAll(ids);
+        purged.mark(rows);
+        return rows;
+    }
+
+}
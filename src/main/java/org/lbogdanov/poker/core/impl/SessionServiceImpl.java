@@ -15,22 +15,35 @@
  */
 package org.lbogdanov.poker.core.impl;
 
+import static org.lbogdanov.poker.core.Constants.SEARCH_MAX_RESULTS;
 import static org.lbogdanov.poker.core.Constants.SESSION_CODE_DEFAULT_LENGTH;
 import static org.lbogdanov.poker.util.Settings.SESSION_CODE_LENGTH;
 
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Random;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import org.apache.shiro.authz.UnauthorizedException;
 import org.lbogdanov.poker.core.*;
 
 import com.avaje.ebean.EbeanServer;
 import com.avaje.ebean.ExpressionList;
 import com.avaje.ebean.Query;
+import com.avaje.ebean.SqlUpdate;
+import com.avaje.ebean.Transaction;
 import com.avaje.ebean.annotation.Transactional;
+import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 
 /**
@@ -45,6 +58,12 @@ public class SessionServiceImpl implements SessionService {
     private EbeanServer ebean;
     @Inject
     private UserService userService;
+    @Inject
+    private SessionIndex index;
+    @Inject
+    private ParticipantWriter participants;
+    @Inject
+    private ChatWriter chat;
 
     /**
      * {@inheritDoc}
@@ -83,14 +102,30 @@ public class SessionServiceImpl implements SessionService {
     @Override
     @Transactional(readOnly = true)
     public PagingList<Session> find(User user, String name, String orderBy, boolean ascending, int pageSize) {
-        // TODO union with sessions where the user has participated
-        Query<Session> query = ebean.find(Session.class);
-        ExpressionList<Session> expr = query.where().eq("author", user);
+        // authors are participants of their sessions, so a single query over the participants covers both
+        Query<Participant> query = ebean.find(Participant.class).fetch("session").fetch("session.author");
+        ExpressionList<Participant> expr = query.where().eq("user", user);
         if (!Strings.isNullOrEmpty(name)) {
-            expr = expr.ilike("name", name);
+            Set<Long> ids = SessionIndex.tokenize(name).isEmpty()
+                    ? null : index.search(user.getId(), name, SEARCH_MAX_RESULTS + 1).keySet();
+            if (ids == null || ids.size() > SEARCH_MAX_RESULTS) {
+                // the query has no words or matches too many sessions for an ID list, so the database filters names
+                expr = expr.ilike("session.name", "%" + name + "%");
+            } else {
+                // Ebean doesn't render an empty IN list, an ID is never NULL though
+                expr = ids.isEmpty() ? expr.isNull("session.id") : expr.in("session.id", ids);
+            }
         }
-        query = ascending ? expr.orderBy().asc(orderBy) : expr.orderBy().desc(orderBy);
-        return new EbeanPagingList<Session>(query.findPagingList(pageSize));
+        return new SessionPagingList(query, SessionPagingList.Order.of(orderBy), ascending, pageSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<String> suggest(User user, String query, int max) {
+        LinkedHashSet<String> names = new LinkedHashSet<String>(index.search(user.getId(), query, max).values());
+        return new ArrayList<String>(names);
     }
 
     /**
@@ -106,16 +141,131 @@ public class SessionServiceImpl implements SessionService {
         session.setCode(newCode(SESSION_CODE_LENGTH.asInt().or(SESSION_CODE_DEFAULT_LENGTH)));
         session.setAuthor(userService.getCurrentUser());
         ebean.save(session);
+        Participant author = new Participant();
+        author.setSession(session);
+        author.setUser(session.getAuthor());
+        ebean.save(author);
+        participants.recorded(author);
+        index.add(author.getUser().getId(), session);
         return session;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void join(Session session) {
+        User user = userService.getCurrentUser();
+        if (user != null && participants.add(session, user) && !index.contains(user.getId(), session)) {
+            index.add(user.getId(), session);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ChatEntry post(Session session, String message) {
+        ChatEntry entry = new ChatEntry();
+        entry.setSession(session);
+        entry.setAuthor(userService.getCurrentUser());
+        entry.setMessage(message);
+        chat.add(entry);
+        return entry;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<ChatEntry> getHistory(Session session, int max) {
+        // the queue is read first, so a message written in between is found twice rather than missed
+        List<ChatEntry> pending = chat.getPending(session);
+        List<ChatEntry> history = Lists.newArrayList(Lists.reverse(ebean.find(ChatEntry.class)
+                                                                        .fetch("author")
+                                                                        .where().eq("session", session)
+                                                                        .orderBy("posted desc, id desc")
+                                                                        .setMaxRows(max)
+                                                                        .findList()));
+        Set<Long> written = Sets.newHashSetWithExpectedSize(history.size());
+        for (ChatEntry entry : history) {
+            written.add(entry.getId());
+        }
+        for (ChatEntry entry : pending) {
+            if (entry.getId() == null || !written.contains(entry.getId())) {
+                history.add(entry);
+            }
+        }
+        return history.subList(Math.max(0, history.size() - max), history.size());
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     @Transactional
     public void delete(Session session) {
-        ebean.delete(session);
+        User user = userService.getCurrentUser();
+        if (user == null || !user.equals(session.getAuthor())) {
+            throw new UnauthorizedException("Only the author may delete a session");
+        }
+        deleteByIds(Collections.singletonList(session.getId()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Transactional
+    public void delete(Collection<Session> sessions) {
+        User user = userService.getCurrentUser();
+        if (user == null || sessions.isEmpty()) {
+            return;
+        }
+        List<Long> ids = Lists.newArrayListWithCapacity(sessions.size());
+        for (Session session : sessions) {
+            ids.add(session.getId());
+        }
+        // a submitted selection isn't trusted, sessions of other authors are left intact
+        List<Session> authored = ebean.find(Session.class).select("id")
+                                      .where().in("id", ids).eq("author.id", user.getId())
+                                      .findList();
+        ids.clear();
+        for (Session session : authored) {
+            ids.add(session.getId());
+        }
+        if (!ids.isEmpty()) {
+            deleteByIds(ids);
+        }
+    }
+
+    /**
+     * Deletes sessions along with their participants and chat messages, a single statement per table.
+     * 
+     * @param ebean the <code>EbeanServer</code> instance
+     * @param ids the session IDs, must not be empty
+     * @param tx the transaction to delete in
+     * @return the number of rows deleted
+     */
+    static int delete(EbeanServer ebean, List<Long> ids, Transaction tx) {
+        String in = " in (" + Joiner.on(',').join(Collections.nCopies(ids.size(), "?")) + ")";
+        int rows = 0;
+        for (String table : new String[] {"CHAT_MESSAGES", "PARTICIPANTS"}) {
+            rows += ebean.execute(bind(ebean.createSqlUpdate("delete from " + table + " where SESSION_ID" + in), ids), tx);
+        }
+        return rows + ebean.execute(bind(ebean.createSqlUpdate("delete from SESSIONS where ID" + in), ids), tx);
+    }
+
+    private void deleteByIds(List<Long> ids) {
+        delete(ebean, ids, ebean.currentTransaction());
+        index.removeAll(ids);
+    }
+
+    private static SqlUpdate bind(SqlUpdate update, List<Long> ids) {
+        for (int i = 0; i < ids.size(); i++) {
+            update.setParameter(i + 1, ids.get(i));
+        }
+        return update;
     }
 
     /**
@@ -126,18 +276,30 @@ public class SessionServiceImpl implements SessionService {
      */
     private String newCode(int length) {
         Random rnd = new SecureRandom();
-        StringBuilder code = new StringBuilder(length);
+        String code;
         do {
-            code.setLength(0);
-            while (code.length() < length) {
-                if (rnd.nextBoolean()) { // append a new letter or digit?
-                    char letter = (char) ('a' + rnd.nextInt(26));
-                    code.append(rnd.nextBoolean() ? Character.toUpperCase(letter) : letter);
-                } else {
-                    code.append(rnd.nextInt(10));
-                }
+            code = newCode(rnd, length);
+        } while (exists(code));
+        return code;
+    }
+
+    /**
+     * Generates a random alphanumeric code of a specified length, doesn't check the code for uniqueness.
+     * 
+     * @param rnd the source of randomness
+     * @param length the desired code length
+     * @return the new code
+     */
+    static String newCode(Random rnd, int length) {
+        StringBuilder code = new StringBuilder(length);
+        while (code.length() < length) {
+            if (rnd.nextBoolean()) { // append a new letter or digit?
+                char letter = (char) ('a' + rnd.nextInt(26));
+                code.append(rnd.nextBoolean() ? Character.toUpperCase(letter) : letter);
+            } else {
+                code.append(rnd.nextInt(10));
             }
-        } while (exists(code.toString()));
+        }
         return code.toString();
     }
 
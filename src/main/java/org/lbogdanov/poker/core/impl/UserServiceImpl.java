@@ -79,7 +79,7 @@ public class UserServiceImpl implements UserService {
         return user;
     }
 
-    private static String toExternalId(PrincipalCollection principals) {
+    static String toExternalId(PrincipalCollection principals) {
         Google2Profile googleProfile = principals.oneByType(Google2Profile.class);
         if (googleProfile != null) { // Google OAuth realm
             return new Sha256Hash(googleProfile.getId(), "google").toHex();
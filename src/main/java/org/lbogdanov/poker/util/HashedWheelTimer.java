@@ -0,0 +1,220 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.util;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+
+/**
+ * A timer for a large number of timeouts which don't need to be precise, e.g. connection idle timeouts. Timeouts are
+ * kept in a wheel of buckets which a single thread advances once per tick, so scheduling and cancelling a timeout is
+ * O(1) and a tick costs the number of timeouts in a single bucket rather than the number of all of them. A timeout
+ * fires within a tick after its delay elapsed.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class HashedWheelTimer {
+
+    /**
+     * A handle of a scheduled task.
+     */
+    public static final class Timeout {
+
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final HashedWheelTimer timer;
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private long rounds;
+
+        private Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels the task unless it has already run.
+         * 
+         * @return <code>true</code> if the task was cancelled, <code>false</code> if it has already run or been
+         *         cancelled before
+         */
+        public boolean cancel() {
+            if (state.compareAndSet(PENDING, CANCELLED)) {
+                timer.pending.decrementAndGet(); // the bucket drops it when its turn comes
+                return true;
+            }
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+    private final long tickNanos;
+    private final Queue<Timeout>[] wheel;
+    private final int mask;
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<Timeout>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final long startTime = System.nanoTime();
+    private final Thread worker;
+    private volatile boolean stopped;
+
+    /**
+     * Creates a new instance of the <code>HashedWheelTimer</code> class and starts its thread.
+     * 
+     * @param name the name of the timer thread
+     * @param tick the duration of a tick
+     * @param unit the time unit of the <code>tick</code> argument
+     * @param wheelSize the number of buckets, rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    public HashedWheelTimer(String name, long tick, TimeUnit unit, int wheelSize) {
+        Preconditions.checkArgument(tick > 0, "Tick duration must be positive");
+        Preconditions.checkArgument(wheelSize > 0 && wheelSize <= 1 << 30, "Wheel size is out of range");
+        tickNanos = unit.toNanos(tick);
+        int size = Integer.highestOneBit(wheelSize) == wheelSize ? wheelSize : Integer.highestOneBit(wheelSize) << 1;
+        wheel = new Queue[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new LinkedList<Timeout>();
+        }
+        mask = size - 1;
+        worker = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                work();
+            }
+
+        }, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Schedules a one-shot task, the task runs on the timer thread so it must not block.
+     * 
+     * @param task the task
+     * @param delay the delay from now
+     * @param unit the time unit of the <code>delay</code> argument
+     * @return the handle of the task
+     * @throws IllegalStateException if the timer is stopped
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (stopped) {
+            throw new IllegalStateException("Timer is stopped");
+        }
+        Timeout timeout = new Timeout(this, task, System.nanoTime() - startTime + unit.toNanos(Math.max(delay, 0)));
+        pending.incrementAndGet();
+        scheduled.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Returns the number of tasks which are neither run nor cancelled yet.
+     * 
+     * @return the number of pending tasks
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Stops the timer thread, pending tasks never run.
+     */
+    public void stop() {
+        stopped = true;
+        worker.interrupt();
+        if (Thread.currentThread() != worker) {
+            try {
+                worker.join(TimeUnit.NANOSECONDS.toMillis(tickNanos) + 1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void work() {
+        long tick = 0;
+        while (!stopped) {
+            long sleepNanos = startTime + tickNanos * (tick + 1) - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    continue; // stopped
+                }
+            }
+            transfer(tick);
+            expire(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    private void transfer(long tick) {
+        for (Timeout timeout = scheduled.poll(); timeout != null; timeout = scheduled.poll()) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            long ticks = timeout.deadline / tickNanos;
+            timeout.rounds = (ticks - tick) / wheel.length;
+            wheel[(int) (Math.max(ticks, tick) & mask)].add(timeout); // an overdue timeout goes to the current bucket
+        }
+    }
+
+    private void expire(Queue<Timeout> bucket) {
+        for (Iterator<Timeout> i = bucket.iterator(); i.hasNext();) {
+            Timeout timeout = i.next();
+            if (timeout.isCancelled()) {
+                i.remove();
+            } else if (timeout.rounds > 0) {
+                timeout.rounds--;
+            } else {
+                i.remove();
+                if (timeout.state.compareAndSet(Timeout.PENDING, Timeout.EXPIRED)) {
+                    pending.decrementAndGet();
+                    try {
+                        timeout.task.run();
+                    } catch (RuntimeException e) {
+                        LOG.warn("A timer task failed", e);
+                    }
+                }
+            }
+        }
+    }
+
+}
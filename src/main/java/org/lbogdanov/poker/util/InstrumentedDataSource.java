@@ -0,0 +1,267 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.util;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.List;
+import java.util.Locale;
+
+import javax.sql.DataSource;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Lists;
+
+
+/**
+ * Wraps a JDBC <code>DataSource</code> so that every executed statement is measured with a {@link Timer} named after
+ * a kind of the statement (<code>select</code>, <code>insert</code>, <code>update</code>, <code>delete</code>,
+ * <code>batch</code> or <code>other</code>), failed statements are counted separately. If a {@link QueryProfiler}
+ * is given, statements are also reported to it along with their bind values and rows count.
+ * 
+ * @author Leonid Bogdanov
+ */
+public final class InstrumentedDataSource {
+
+    private static final String PREFIX = "jdbc";
+
+    /**
+     * Returns an instrumented view of a given <code>DataSource</code>.
+     * 
+     * @param dataSource the <code>DataSource</code> to instrument
+     * @param registry the registry to create metrics in
+     * @param profiler the profiler to report statements to, can be <b>null</b>
+     * @return the instrumented <code>DataSource</code>
+     */
+    public static DataSource wrap(DataSource dataSource, MetricRegistry registry, QueryProfiler profiler) {
+        return proxy(DataSource.class, new DataSourceHandler(dataSource, registry, profiler));
+    }
+
+    private static <T> T proxy(Class<T> iface, InvocationHandler handler) {
+        return iface.cast(Proxy.newProxyInstance(InstrumentedDataSource.class.getClassLoader(),
+                                                 new Class<?>[] {iface}, handler));
+    }
+
+    private static Object call(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static String kind(String sql) {
+        String trimmed = sql == null ? "" : sql.trim();
+        int end = 0;
+        while (end < trimmed.length() && Character.isLetter(trimmed.charAt(end))) {
+            end++;
+        }
+        String kind = trimmed.substring(0, end).toLowerCase(Locale.ENGLISH);
+        return "select".equals(kind) || "insert".equals(kind) || "update".equals(kind) || "delete".equals(kind)
+               ? kind : "other";
+    }
+
+    private static final class DataSourceHandler implements InvocationHandler {
+
+        private final DataSource target;
+        private final MetricRegistry registry;
+        private final QueryProfiler profiler;
+
+        public DataSourceHandler(DataSource target, MetricRegistry registry, QueryProfiler profiler) {
+            this.target = target;
+            this.registry = registry;
+            this.profiler = profiler;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = call(target, method, args);
+            if (result instanceof Connection) {
+                return proxy(Connection.class, new ConnectionHandler((Connection) result, registry, profiler));
+            }
+            return result;
+        }
+
+    }
+
+    private static final class ConnectionHandler implements InvocationHandler {
+
+        private final Connection target;
+        private final MetricRegistry registry;
+        private final QueryProfiler profiler;
+        private int statements; // a connection is used by a single thread at a time
+
+        public ConnectionHandler(Connection target, MetricRegistry registry, QueryProfiler profiler) {
+            this.target = target;
+            this.registry = registry;
+            this.profiler = profiler;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (profiler != null && "close".equals(method.getName()) && statements > 0) {
+                profiler.transactionCompleted(statements);
+                statements = 0;
+            }
+            Object result = call(target, method, args);
+            String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+            if (result instanceof CallableStatement) {
+                return proxy(CallableStatement.class, new StatementHandler((Statement) result, this, sql));
+            } else if (result instanceof PreparedStatement) {
+                return proxy(PreparedStatement.class, new StatementHandler((Statement) result, this, sql));
+            } else if (result instanceof Statement) {
+                return proxy(Statement.class, new StatementHandler((Statement) result, this, null));
+            }
+            return result;
+        }
+
+    }
+
+    private static final class StatementHandler implements InvocationHandler {
+
+        private final Statement target;
+        private final ConnectionHandler connection;
+        private final String sql;
+        private final List<Object> binds;
+        private Execution pending;
+
+        public StatementHandler(Statement target, ConnectionHandler connection, String sql) {
+            this.target = target;
+            this.connection = connection;
+            this.sql = sql;
+            binds = connection.profiler == null ? null : Lists.newArrayList();
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("execute")) {
+                String statement = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : sql;
+                return execute(method, args, statement, "executeBatch".equals(name) ? "batch" : kind(statement));
+            }
+            if (binds != null) {
+                if (name.startsWith("set") && args != null && args.length > 1 && args[0] instanceof Integer) {
+                    int index = (Integer) args[0] - 1;
+                    while (binds.size() <= index) {
+                        binds.add(null);
+                    }
+                    binds.set(index, "setNull".equals(name) ? null : args[1]);
+                } else if ("clearParameters".equals(name)) {
+                    binds.clear();
+                } else if ("close".equals(name)) {
+                    finish();
+                }
+            }
+            Object result = call(target, method, args);
+            if (result instanceof ResultSet && pending != null) { // getResultSet() after execute()
+                pending.rows = Math.max(pending.rows, 0);
+                return proxy(ResultSet.class, new ResultSetHandler((ResultSet) result, this));
+            }
+            return result;
+        }
+
+        private Object execute(Method method, Object[] args, String statement, String kind) throws Throwable {
+            MetricRegistry registry = connection.registry;
+            finish();
+            long started = System.nanoTime();
+            Timer.Context context = registry.timer(name(PREFIX, kind)).time();
+            Object result;
+            try {
+                result = call(target, method, args);
+            } catch (Throwable t) {
+                registry.meter(name(PREFIX, "failures")).mark();
+                throw t;
+            } finally {
+                context.stop();
+            }
+            if (binds != null) {
+                pending = new Execution(statement, Lists.newArrayList(binds), System.nanoTime() - started);
+                if (result instanceof ResultSet) { // rows are counted while the result set is being read
+                    pending.rows = 0;
+                    return proxy(ResultSet.class, new ResultSetHandler((ResultSet) result, this));
+                } else if (result instanceof Integer) {
+                    pending.rows = (Integer) result;
+                } else if (result instanceof int[]) {
+                    pending.rows = 0;
+                    for (int rows : (int[]) result) {
+                        pending.rows += Math.max(rows, 0);
+                    }
+                }
+                if (!(result instanceof Boolean) || !(Boolean) result) {
+                    finish();
+                }
+            }
+            return result;
+        }
+
+        private void finish() {
+            if (pending != null) {
+                connection.profiler.record(pending.sql, pending.binds, pending.elapsed, pending.rows);
+                connection.statements++;
+                pending = null;
+            }
+        }
+
+    }
+
+    private static final class ResultSetHandler implements InvocationHandler {
+
+        private final ResultSet target;
+        private final StatementHandler statement;
+
+        public ResultSetHandler(ResultSet target, StatementHandler statement) {
+            this.target = target;
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if ("close".equals(method.getName())) {
+                statement.finish();
+            }
+            Object result = call(target, method, args);
+            if ("next".equals(method.getName()) && Boolean.TRUE.equals(result) && statement.pending != null) {
+                statement.pending.rows++;
+            }
+            return result;
+        }
+
+    }
+
+    private static final class Execution {
+
+        private final String sql;
+        private final List<Object> binds;
+        private final long elapsed;
+        private int rows = -1;
+
+        public Execution(String sql, List<Object> binds, long elapsed) {
+            this.sql = sql;
+            this.binds = binds;
+            this.elapsed = elapsed;
+        }
+
+    }
+
+    private InstrumentedDataSource() {}
+
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+
+/**
+ * A lock-free token bucket rate limiter with a bucket per key, e.g. a participant of a session room. A bucket holds up
+ * to <code>burst</code> tokens and gets <code>rate</code> tokens per second. A bucket is a single
+ * {@link AtomicLong} holding the time it will be full again, so taking a token is a single CAS.
+ * <p>
+ * A full bucket is no different from a new one, so buckets which have been full for a while are dropped by the calls
+ * which happen to come after a sweep interval. A token taken while its bucket is being dropped may be given back.
+ * <p>
+ * The rate and the burst can be changed at any time, the buckets are kept, so tokens taken before the change still
+ * count until their bucket refills.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class KeyedRateLimiter {
+
+    /**
+     * The limits of the buckets, replaced as a whole so a call never sees an interval and a capacity which don't match.
+     */
+    private static final class Limits {
+
+        final double rate;
+        final int burst;
+        final long intervalNanos;
+        final long capacityNanos;
+
+        Limits(double rate, int burst) {
+            Preconditions.checkArgument(rate > 0, "Rate must be positive");
+            Preconditions.checkArgument(burst > 0, "Burst must be positive");
+            this.rate = rate;
+            this.burst = burst;
+            intervalNanos = Math.max((long) (TimeUnit.SECONDS.toNanos(1) / rate), 1);
+            capacityNanos = intervalNanos * burst;
+        }
+
+    }
+
+    private static final long SWEEP_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private volatile Limits limits;
+    private final Ticker ticker;
+    private final ConcurrentMap<Object, AtomicLong> buckets = new ConcurrentHashMap<Object, AtomicLong>();
+    private final AtomicLong nextSweep;
+
+    /**
+     * Creates a new instance of the <code>KeyedRateLimiter</code> class.
+     * 
+     * @param rate the number of tokens per second a bucket gets
+     * @param burst the maximum number of tokens in a bucket
+     */
+    public KeyedRateLimiter(double rate, int burst) {
+        this(rate, burst, Ticker.systemTicker());
+    }
+
+    /**
+     * Creates a new instance of the <code>KeyedRateLimiter</code> class with a custom time source.
+     * 
+     * @param rate the number of tokens per second a bucket gets
+     * @param burst the maximum number of tokens in a bucket
+     * @param ticker the time source
+     */
+    public KeyedRateLimiter(double rate, int burst, Ticker ticker) {
+        this.limits = new Limits(rate, burst);
+        this.ticker = ticker;
+        nextSweep = new AtomicLong(ticker.read() + SWEEP_NANOS);
+    }
+
+    /**
+     * Changes the rate and the burst of all buckets, a call with the current limits does nothing.
+     * 
+     * @param rate the number of tokens per second a bucket gets
+     * @param burst the maximum number of tokens in a bucket
+     */
+    public void setLimits(double rate, int burst) {
+        Limits current = limits;
+        if (current.rate != rate || current.burst != burst) {
+            limits = new Limits(rate, burst);
+        }
+    }
+
+    /**
+     * Takes a token from a bucket if there is one.
+     * 
+     * @param key the bucket key
+     * @return <code>0</code> if a token was taken, otherwise the time, in nanoseconds, until the next token
+     */
+    public long tryAcquire(Object key) {
+        long now = ticker.read();
+        sweep(now);
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            AtomicLong newBucket = new AtomicLong(now);
+            bucket = buckets.putIfAbsent(key, newBucket);
+            if (bucket == null) {
+                bucket = newBucket;
+            }
+        }
+        Limits current = limits;
+        while (true) {
+            long full = bucket.get(); // the time the bucket is full again
+            long next = Math.max(full, now) + current.intervalNanos;
+            if (next - now > current.capacityNanos) {
+                return next - now - current.capacityNanos;
+            }
+            if (bucket.compareAndSet(full, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of buckets which are not known to be full.
+     * 
+     * @return the number of buckets
+     */
+    public int size() {
+        return buckets.size();
+    }
+
+    private void sweep(long now) {
+        long sweep = nextSweep.get();
+        if (now - sweep < 0 || !nextSweep.compareAndSet(sweep, now + SWEEP_NANOS)) {
+            return;
+        }
+        for (Object key : buckets.keySet()) {
+            AtomicLong bucket = buckets.get(key);
+            if (bucket != null && now - bucket.get() >= 0) { // full, i.e. idle
+                buckets.remove(key, bucket);
+            }
+        }
+    }
+
+}
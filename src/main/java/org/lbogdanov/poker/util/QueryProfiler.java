@@ -0,0 +1,387 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.util;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+
+/**
+ * Collects JDBC statement statistics: per-statement timing and rows count, a number of statements per a transaction
+ * (a connection checkout) and per a unit of work (e.g. a web request) and a bounded ring of recent slow statements
+ * along with their bind values. Statements are fed by {@link InstrumentedDataSource}.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class QueryProfiler {
+
+    /**
+     * Aggregated statistics of a single SQL statement.
+     */
+    public static final class QueryStats implements Serializable {
+
+        private final String sql;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+
+        private QueryStats(String sql) {
+            this.sql = sql;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getRows() {
+            return rows.get();
+        }
+
+        public double getTotalMillis() {
+            return nanos.get() / 1e6;
+        }
+
+        public double getMeanMillis() {
+            long n = count.get();
+            return n == 0 ? 0 : nanos.get() / 1e6 / n;
+        }
+
+        public double getMaxMillis() {
+            return maxNanos.get() / 1e6;
+        }
+
+        private void add(long elapsed, int rowCount) {
+            count.incrementAndGet();
+            nanos.addAndGet(elapsed);
+            rows.addAndGet(Math.max(rowCount, 0));
+            max(maxNanos, elapsed);
+        }
+
+    }
+
+    /**
+     * Aggregated statement counts of transactions or units of work.
+     */
+    public static final class ScopeStats implements Serializable {
+
+        private final String name;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong statements = new AtomicLong();
+        private final AtomicLong maxStatements = new AtomicLong();
+
+        private ScopeStats(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getStatements() {
+            return statements.get();
+        }
+
+        public double getMeanStatements() {
+            long n = count.get();
+            return n == 0 ? 0 : (double) statements.get() / n;
+        }
+
+        public long getMaxStatements() {
+            return maxStatements.get();
+        }
+
+        private void add(int statementCount) {
+            count.incrementAndGet();
+            statements.addAndGet(statementCount);
+            max(maxStatements, statementCount);
+        }
+
+    }
+
+    /**
+     * A statement which took longer than a configured threshold.
+     */
+    public static final class SlowQuery implements Serializable {
+
+        private final Date executed;
+        private final String sql;
+        private final String binds;
+        private final double millis;
+        private final int rows;
+
+        private SlowQuery(String sql, String binds, long elapsed, int rows) {
+            this.executed = new Date();
+            this.sql = sql;
+            this.binds = binds;
+            this.millis = elapsed / 1e6;
+            this.rows = rows;
+        }
+
+        public Date getExecuted() {
+            return executed;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public String getBinds() {
+            return binds;
+        }
+
+        public double getMillis() {
+            return millis;
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+    }
+
+    private static final int MAX_STATEMENTS = 1000;
+    private static final int MAX_BIND_LENGTH = 64;
+
+    private final boolean enabled;
+    private final long slowNanos;
+    private final ConcurrentMap<String, QueryStats> queries = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, ScopeStats> units = Maps.newConcurrentMap();
+    private final AtomicReferenceArray<SlowQuery> slowQueries;
+    private final AtomicLong slowQueryCursor = new AtomicLong();
+    private final ThreadLocal<int[]> unit = new ThreadLocal<int[]>();
+    private volatile ScopeStats transactions = new ScopeStats("transactions");
+
+    /**
+     * Creates a disabled instance of <code>QueryProfiler</code> which collects nothing.
+     */
+    public QueryProfiler() {
+        enabled = false;
+        slowNanos = Long.MAX_VALUE;
+        slowQueries = new AtomicReferenceArray<SlowQuery>(0);
+    }
+
+    /**
+     * Creates an enabled instance of <code>QueryProfiler</code>.
+     * 
+     * @param slowQueryMillis statements which take at least that many milliseconds are considered slow
+     * @param slowQueryCapacity how many recent slow statements to keep
+     */
+    public QueryProfiler(long slowQueryMillis, int slowQueryCapacity) {
+        enabled = true;
+        slowNanos = TimeUnit.MILLISECONDS.toNanos(slowQueryMillis);
+        slowQueries = new AtomicReferenceArray<SlowQuery>(slowQueryCapacity);
+    }
+
+    /**
+     * Checks if this profiler collects statistics.
+     * 
+     * @return <code>true</code> if the profiler is enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the slow statement threshold.
+     * 
+     * @return the threshold in milliseconds
+     */
+    public long getSlowQueryMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(slowNanos);
+    }
+
+    /**
+     * Records an executed statement.
+     * 
+     * @param sql the statement SQL
+     * @param binds the statement bind values, can be <b>null</b>
+     * @param elapsed the statement execution time in nanoseconds
+     * @param rows the number of returned or affected rows, negative if unknown
+     */
+    public void record(String sql, List<?> binds, long elapsed, int rows) {
+        String key = sql == null ? "" : sql;
+        QueryStats stats = queries.get(key);
+        if (stats == null && queries.size() < MAX_STATEMENTS) { // don't let ad hoc SQL exhaust the memory
+            QueryStats existing = queries.putIfAbsent(key, stats = new QueryStats(key));
+            stats = existing == null ? stats : existing;
+        }
+        if (stats != null) {
+            stats.add(elapsed, rows);
+        }
+        int[] statements = unit.get();
+        if (statements != null) {
+            statements[0]++;
+        }
+        if (elapsed >= slowNanos && slowQueries.length() > 0) {
+            int i = (int) (slowQueryCursor.getAndIncrement() % slowQueries.length());
+            slowQueries.set(i, new SlowQuery(key, format(binds), elapsed, rows));
+        }
+    }
+
+    /**
+     * Records a completed transaction, i.e. a connection which has been returned to the pool.
+     * 
+     * @param statements the number of statements executed in the transaction
+     */
+    public void transactionCompleted(int statements) {
+        transactions.add(statements);
+    }
+
+    /**
+     * Starts counting statements executed by the current thread until {@link #endUnit(String)} is called.
+     */
+    public void beginUnit() {
+        unit.set(new int[1]);
+    }
+
+    /**
+     * Stops counting statements executed by the current thread and records them under a given name.
+     * 
+     * @param name the unit name, e.g. a page class, can be <b>null</b> to discard the unit
+     */
+    public void endUnit(String name) {
+        int[] statements = unit.get();
+        unit.remove();
+        if (statements != null && name != null) {
+            ScopeStats stats = units.get(name);
+            if (stats == null) {
+                ScopeStats existing = units.putIfAbsent(name, stats = new ScopeStats(name));
+                stats = existing == null ? stats : existing;
+            }
+            stats.add(statements[0]);
+        }
+    }
+
+    /**
+     * Returns statistics of all recorded statements ordered by their total time, descending.
+     * 
+     * @return the statements statistics
+     */
+    public List<QueryStats> getQueries() {
+        List<QueryStats> result = Lists.newArrayList(queries.values());
+        Collections.sort(result, new Comparator<QueryStats>() {
+
+            @Override
+            public int compare(QueryStats o1, QueryStats o2) {
+                return Long.signum(o2.nanos.get() - o1.nanos.get());
+            }
+
+        });
+        return result;
+    }
+
+    /**
+     * Returns recent slow statements, the most recent first.
+     * 
+     * @return the slow statements
+     */
+    public List<SlowQuery> getSlowQueries() {
+        List<SlowQuery> result = Lists.newArrayList();
+        for (int i = 0; i < slowQueries.length(); i++) {
+            SlowQuery query = slowQueries.get(i);
+            if (query != null) {
+                result.add(query);
+            }
+        }
+        Collections.sort(result, new Comparator<SlowQuery>() {
+
+            @Override
+            public int compare(SlowQuery o1, SlowQuery o2) {
+                return o2.executed.compareTo(o1.executed);
+            }
+
+        });
+        return result;
+    }
+
+    /**
+     * Returns statement counts per a transaction.
+     * 
+     * @return the transactions statistics
+     */
+    public ScopeStats getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * Returns statement counts per units of work ordered by the maximum number of statements, descending.
+     * 
+     * @return the units of work statistics
+     */
+    public List<ScopeStats> getUnits() {
+        List<ScopeStats> result = Lists.newArrayList(units.values());
+        Collections.sort(result, new Comparator<ScopeStats>() {
+
+            @Override
+            public int compare(ScopeStats o1, ScopeStats o2) {
+                return Long.signum(o2.getMaxStatements() - o1.getMaxStatements());
+            }
+
+        });
+        return result;
+    }
+
+    /**
+     * Discards all collected statistics.
+     */
+    public void reset() {
+        queries.clear();
+        units.clear();
+        transactions = new ScopeStats("transactions");
+        for (int i = 0; i < slowQueries.length(); i++) {
+            slowQueries.set(i, null);
+        }
+    }
+
+    private static String format(List<?> binds) {
+        if (binds == null || binds.isEmpty()) {
+            return "";
+        }
+        StringBuilder result = new StringBuilder();
+        for (Object bind : binds) {
+            String value = String.valueOf(bind);
+            if (value.length() > MAX_BIND_LENGTH) {
+                value = value.substring(0, MAX_BIND_LENGTH) + "...";
+            }
+            result.append(result.length() == 0 ? "" : ", ").append(value);
+        }
+        return result.toString();
+    }
+
+    private static void max(AtomicLong max, long value) {
+        long current;
+        do {
+            current = max.get();
+        } while (value > current && !max.compareAndSet(current, value));
+    }
+
+}
@@ -15,7 +15,11 @@
  */
 package org.lbogdanov.poker.util;
 
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,7 +27,8 @@ import org.slf4j.LoggerFactory;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.base.Splitter;
-import com.google.common.collect.Maps;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.primitives.Doubles;
 import com.google.common.primitives.Floats;
 import com.google.common.primitives.Ints;
@@ -31,35 +36,51 @@ import com.google.common.primitives.Longs;
 
 
 /**
- * A simple container of application settings.
+ * A simple container of application settings. Values are parsed once per {@link #init(Map)} into an immutable
+ * snapshot which replaces the previous one atomically, so settings can be reloaded while the application runs and
+ * reading a setting is a mere lookup.
  * 
  * @author Leonid Bogdanov
  */
 public enum Settings {
-    SESSION_CODE_LENGTH, DEVELOPMENT_MODE, DB_DATA_SOURCE, DB_DRIVER, DB_URL, DB_USER, DB_PASSWORD,
-    GOOGLE_OAUTH_KEY, GOOGLE_OAUTH_SECRET, ASYNC_TRANSPORT;
+    SESSION_CODE_LENGTH, DEVELOPMENT_MODE, DB_DATA_SOURCE, DB_DRIVER(true), DB_URL(true), DB_USER, DB_PASSWORD,
+    DB_GENERATE_DDL, DB_POOL_MIN_CONNECTIONS, DB_POOL_MAX_CONNECTIONS, DB_POOL_WAIT_TIMEOUT_MILLIS,
+    DB_POOL_MAX_INACTIVE_SECS, DB_POOL_HEARTBEAT_SQL, DB_POOL_LEAK_TIME_MINUTES, DB_POOL_CAPTURE_STACK_TRACE,
+    DB_PSTMT_CACHE_SIZE, DB_CONNECTION_PROPERTIES, DB_PROFILER, DB_SLOW_QUERY_MILLIS, GOOGLE_OAUTH_KEY(true),
+    GOOGLE_OAUTH_SECRET(true), ASYNC_TRANSPORT, CLUSTER_BRIDGE, CLUSTER_NAME, CLUSTER_NODE, CLUSTER_URL, CLUSTER_HOST,
+    CLUSTER_PORT, CLUSTER_PEERS, CLUSTER_BATCH_MILLIS, CLUSTER_AFFINITY, PAGE_STORE, PAGE_STORE_SIZE_MB,
+    PAGE_STORE_SESSION_KB, PAGE_STORE_CACHE_SIZE, PAGE_STORE_COMPRESS, RESOURCE_CACHE, PARTICIPANTS_BATCH_SIZE,
+    PARTICIPANTS_FLUSH_MILLIS, CHAT_BATCH_SIZE, CHAT_FLUSH_MILLIS, CHAT_HISTORY_SIZE, BROADCASTER_CACHE_SIZE,
+    DISPATCH_THREADS, ASYNC_MESSAGE_THREADS, ASYNC_WRITE_THREADS, PRESENCE_HEARTBEAT_SECONDS, PRESENCE_TIMEOUT_SECONDS,
+    PRESENCE_FLUSH_MILLIS, BROADCASTER_IDLE_SECONDS, CHAT_RATE_LIMIT, CHAT_RATE_BURST, CHAT_MAX_LENGTH, REQUEST_MAX_KB,
+    WEBSOCKET_DEFLATE_BYTES, SETTINGS_RELOAD_SECONDS, RETENTION_DAYS, RETENTION_BATCH_SIZE, RETENTION_PAUSE_MILLIS,
+    RETENTION_PERIOD_MINUTES;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Settings.class);
-
-    private static Map<Settings, String> settings = Maps.newEnumMap(Settings.class);
+    private static final Set<Settings> REPORTED = Collections.synchronizedSet(EnumSet.noneOf(Settings.class));
+    private static volatile List<Value> snapshot = snapshot(ImmutableMap.<String, String>of());
 
     private final String key;
+    private final boolean required;
 
     /**
-     * Initialises settings container with values taken from a {string -> string} map.
+     * Initialises settings container with values taken from a {string -> string} map. All the values are replaced at
+     * once, a concurrent reader gets either previous or new ones. A missing value is reported once, as a warning if
+     * the setting has no default value.
      * 
      * @param config <code>Map</code> instance that holds settings values
      */
     public static void init(Map<String, String> config) {
-        settings.clear();
         for (Settings setting : Settings.values()) {
-            String value = config.get(setting.key);
-            if (value == null) {
-                LOGGER.warn("A value of a {} param is missing", setting);
-            } else {
-                settings.put(setting, value);
+            if (config.get(setting.key) == null && REPORTED.add(setting)) {
+                if (setting.required) {
+                    LOGGER.warn("A value of a {} param is missing", setting);
+                } else {
+                    LOGGER.debug("A value of a {} param is missing, the default is used", setting);
+                }
             }
         }
+        snapshot = snapshot(config);
     }
 
     /**
@@ -69,7 +90,7 @@ public enum Settings {
      * @return the value of the setting
      */
     public Optional<Integer> asInt() {
-        return Optional.fromNullable(Ints.tryParse(asString().or("")));
+        return snapshot.get(ordinal()).asInt;
     }
 
     /**
@@ -79,7 +100,7 @@ public enum Settings {
      * @return the value of the setting
      */
     public Optional<Long> asLong() {
-        return Optional.fromNullable(Longs.tryParse(asString().or("")));
+        return snapshot.get(ordinal()).asLong;
     }
 
     /**
@@ -89,7 +110,7 @@ public enum Settings {
      * @return the value of the setting
      */
     public Optional<Double> asDouble() {
-        return Optional.fromNullable(Doubles.tryParse(asString().or("")));
+        return snapshot.get(ordinal()).asDouble;
     }
 
     /**
@@ -99,7 +120,7 @@ public enum Settings {
      * @return the value of the setting
      */
     public Optional<Float> asFloat() {
-        return Optional.fromNullable(Floats.tryParse(asString().or("")));
+        return snapshot.get(ordinal()).asFloat;
     }
 
     /**
@@ -109,8 +130,7 @@ public enum Settings {
      * @return the value of the setting
      */
     public Optional<Boolean> asBool() {
-        Optional<String> value = asString();
-        return value.isPresent() ? Optional.of(Boolean.valueOf(value.get())) : Optional.<Boolean>absent();
+        return snapshot.get(ordinal()).asBool;
     }
 
     /**
@@ -120,15 +140,53 @@ public enum Settings {
      * @return the value of the setting
      */
     public Optional<String> asString() {
-        return Optional.fromNullable(settings.get(this));
+        return snapshot.get(ordinal()).asString;
+    }
+
+    private static List<Value> snapshot(Map<String, String> config) {
+        ImmutableList.Builder<Value> values = ImmutableList.builder();
+        for (Settings setting : Settings.values()) {
+            values.add(new Value(config.get(setting.key)));
+        }
+        return values.build();
     }
 
     private Settings(String key) {
         this.key = key;
+        required = false;
     }
 
-    private Settings() {
+    private Settings(boolean required) {
         key = Joiner.on('.').join(Splitter.on('_').split(name().toLowerCase()));
+        this.required = required;
+    }
+
+    private Settings() {
+        this(false);
+    }
+
+    /**
+     * A value of a setting parsed to all the supported types.
+     */
+    private static final class Value {
+
+        final Optional<String> asString;
+        final Optional<Integer> asInt;
+        final Optional<Long> asLong;
+        final Optional<Double> asDouble;
+        final Optional<Float> asFloat;
+        final Optional<Boolean> asBool;
+
+        Value(String value) {
+            String string = value == null ? "" : value;
+            asString = Optional.fromNullable(value);
+            asInt = Optional.fromNullable(Ints.tryParse(string));
+            asLong = Optional.fromNullable(Longs.tryParse(string));
+            asDouble = Optional.fromNullable(Doubles.tryParse(string));
+            asFloat = Optional.fromNullable(Floats.tryParse(string));
+            asBool = value == null ? Optional.<Boolean>absent() : Optional.of(Boolean.valueOf(value));
+        }
+
     }
 
 }
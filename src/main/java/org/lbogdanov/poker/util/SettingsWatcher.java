@@ -0,0 +1,138 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.Resources;
+
+
+/**
+ * Loads {@link Settings} from a properties file, system properties override the file's values, and reloads them
+ * whenever the file changes. The file is checked for modifications periodically on a daemon thread, a file packaged in
+ * an archive can't change and isn't watched.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class SettingsWatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SettingsWatcher.class);
+
+    private final URL resource;
+    private final File file;
+    private volatile long lastModified;
+    private ScheduledExecutorService watcher;
+
+    /**
+     * Creates a new instance of the <code>SettingsWatcher</code> class.
+     * 
+     * @param resource the URL of the properties file
+     */
+    public SettingsWatcher(URL resource) {
+        this.resource = resource;
+        File file = null;
+        if ("file".equals(resource.getProtocol())) {
+            try {
+                file = new File(resource.toURI());
+            } catch (URISyntaxException e) {
+                LOG.warn("Settings file {} can't be watched", resource);
+            }
+        }
+        this.file = file;
+    }
+
+    /**
+     * Loads the settings.
+     * 
+     * @throws IOException if the properties file can't be read
+     */
+    public void load() throws IOException {
+        long modified = file == null ? 0 : file.lastModified();
+        InputStream input = Resources.newInputStreamSupplier(resource).getInput();
+        Properties props = new Properties();
+        try {
+            props.load(input);
+        } finally {
+            input.close();
+        }
+        Map<String, String> config = Maps.newHashMap(Maps.fromProperties(props));
+        config.putAll(Maps.fromProperties(System.getProperties())); // system properties override the file
+        Settings.init(config);
+        lastModified = modified;
+    }
+
+    /**
+     * Starts checking the properties file for modifications, a modified file is loaded again.
+     * 
+     * @param period the interval between checks
+     * @param unit the time unit of the <code>period</code> argument
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (file == null || watcher != null) {
+            return;
+        }
+        watcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "settings-watcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+
+        });
+        watcher.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                if (file.lastModified() != lastModified) {
+                    try {
+                        load();
+                        LOG.info("Settings reloaded from {}", file);
+                    } catch (Exception e) { // e.g. a malformed escape in a file being edited
+                        LOG.warn("Couldn't reload settings from " + file, e);
+                    }
+                }
+            }
+
+        }, period, period, unit);
+    }
+
+    /**
+     * Stops checking the properties file for modifications.
+     */
+    public synchronized void stop() {
+        if (watcher != null) {
+            watcher.shutdownNow();
+            watcher = null;
+        }
+    }
+
+}
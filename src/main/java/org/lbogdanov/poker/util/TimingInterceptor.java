@@ -0,0 +1,121 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.util;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentMap;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Maps;
+import com.google.inject.matcher.AbstractMatcher;
+import com.google.inject.matcher.Matcher;
+
+
+/**
+ * Measures invocations of intercepted methods with a {@link Timer} and counts failed invocations with a {@link Meter},
+ * both named after an interface which declares the method.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class TimingInterceptor implements MethodInterceptor {
+
+    private final MetricRegistry registry;
+    private final Class<?>[] services;
+    private final ConcurrentMap<Method, Timer> timers = Maps.newConcurrentMap();
+    private final ConcurrentMap<Method, Meter> failures = Maps.newConcurrentMap();
+
+    /**
+     * Creates a new instance of <code>TimingInterceptor</code>.
+     * 
+     * @param registry the registry to create metrics in
+     * @param services the service interfaces whose methods to measure
+     */
+    public TimingInterceptor(MetricRegistry registry, Class<?>... services) {
+        this.registry = registry;
+        this.services = services.clone();
+    }
+
+    /**
+     * Returns a method matcher which accepts methods declared by the measured service interfaces.
+     * 
+     * @return the method <code>Matcher</code>
+     */
+    public Matcher<Method> methods() {
+        return new AbstractMatcher<Method>() {
+
+            @Override
+            public boolean matches(Method method) {
+                return !method.isSynthetic() && service(method) != null;
+            }
+
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Method method = invocation.getMethod();
+        Timer.Context context = timer(method).time();
+        try {
+            return invocation.proceed();
+        } catch (Throwable t) {
+            failure(method).mark();
+            throw t;
+        } finally {
+            context.stop();
+        }
+    }
+
+    private Timer timer(Method method) {
+        Timer timer = timers.get(method);
+        if (timer == null) {
+            timer = registry.timer(name(service(method), method.getName()));
+            timers.putIfAbsent(method, timer);
+        }
+        return timer;
+    }
+
+    private Meter failure(Method method) {
+        Meter meter = failures.get(method);
+        if (meter == null) {
+            meter = registry.meter(name(service(method), method.getName(), "failures"));
+            failures.putIfAbsent(method, meter);
+        }
+        return meter;
+    }
+
+    private Class<?> service(Method method) {
+        for (Class<?> service : services) {
+            try {
+                service.getMethod(method.getName(), method.getParameterTypes());
+                return service;
+            } catch (NoSuchMethodException e) {
+                // try the next one
+            }
+        }
+        return null;
+    }
+
+}
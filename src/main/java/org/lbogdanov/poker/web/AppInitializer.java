@@ -15,13 +15,16 @@
  */
 package org.lbogdanov.poker.web;
 
+import static com.codahale.metrics.MetricRegistry.name;
 import static org.lbogdanov.poker.util.Settings.*;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.Properties;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Singleton;
+import javax.sql.DataSource;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 
@@ -33,17 +36,30 @@ import org.apache.wicket.atmosphere.TrackMessageSizeFilter;
 import org.apache.wicket.guice.GuiceWebApplicationFactory;
 import org.apache.wicket.protocol.http.WebApplication;
 import org.apache.wicket.protocol.http.WicketFilter;
-import org.atmosphere.cache.UUIDBroadcasterCache;
 import org.atmosphere.cpr.ApplicationConfig;
 import org.atmosphere.cpr.MeteorServlet;
 import org.lbogdanov.poker.core.*;
+import org.lbogdanov.poker.core.impl.SessionIndex;
 import org.lbogdanov.poker.core.impl.SessionServiceImpl;
 import org.lbogdanov.poker.core.impl.UserServiceImpl;
-import org.lbogdanov.poker.util.Settings;
+import org.lbogdanov.poker.util.InstrumentedDataSource;
+import org.lbogdanov.poker.util.KeyedRateLimiter;
+import org.lbogdanov.poker.util.QueryProfiler;
+import org.lbogdanov.poker.util.SettingsWatcher;
+import org.lbogdanov.poker.util.TimingInterceptor;
+import org.lbogdanov.poker.web.cluster.ClusterBridge;
+import org.lbogdanov.poker.web.cluster.InJvmClusterBridge;
+import org.lbogdanov.poker.web.cluster.RoomRoutingFilter;
+import org.lbogdanov.poker.web.cluster.TcpClusterBridge;
 import org.lbogdanov.poker.web.oauth.CallbackUrlSetterFilter;
 import org.lbogdanov.poker.web.oauth.InjectableOAuthFilter;
 import org.lbogdanov.poker.web.oauth.InjectableOAuthRealm;
 import org.lbogdanov.poker.web.oauth.InjectableOAuthUserFilter;
+import org.lbogdanov.poker.web.util.DeferredSessionFilter;
+import org.lbogdanov.poker.web.util.DeflateWebSocketSupport;
+import org.lbogdanov.poker.web.util.RequestSizeFilter;
+import org.lbogdanov.poker.web.util.RingBroadcasterCache;
+import org.lbogdanov.poker.web.util.SessionArchiveServlet;
 import org.lbogdanov.poker.web.util.UserSerializer;
 import org.scribe.up.provider.OAuthProvider;
 import org.scribe.up.provider.impl.Google2Provider;
@@ -54,14 +70,24 @@ import com.avaje.ebean.EbeanServer;
 import com.avaje.ebean.EbeanServerFactory;
 import com.avaje.ebean.config.DataSourceConfig;
 import com.avaje.ebean.config.ServerConfig;
+import com.avaje.ebeaninternal.server.core.JndiDataSourceLookup;
+import com.avaje.ebeaninternal.server.lib.sql.DataSourcePool;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.servlets.MetricsServlet;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import com.google.common.io.Resources;
+import com.google.common.net.HostAndPort;
 import com.google.inject.*;
+import com.google.inject.matcher.Matchers;
 import com.google.inject.name.Names;
 import com.google.inject.servlet.GuiceServletContextListener;
 import com.google.inject.servlet.ServletModule;
@@ -75,6 +101,9 @@ import com.google.inject.servlet.ServletModule;
 public class AppInitializer extends GuiceServletContextListener {
 
     private ServletContext servletContext;
+    private JmxReporter jmxReporter;
+    private DataSourcePool dataSourcePool;
+    private SettingsWatcher settingsWatcher;
 
     /**
      * {@inheritDoc}
@@ -85,6 +114,23 @@ public class AppInitializer extends GuiceServletContextListener {
         super.contextInitialized(servletContextEvent);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void contextDestroyed(ServletContextEvent servletContextEvent) {
+        super.contextDestroyed(servletContextEvent);
+        if (settingsWatcher != null) {
+            settingsWatcher.stop();
+        }
+        if (jmxReporter != null) {
+            jmxReporter.stop();
+        }
+        if (dataSourcePool != null) {
+            dataSourcePool.shutdown();
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -92,29 +138,36 @@ public class AppInitializer extends GuiceServletContextListener {
     protected Injector getInjector() {
         SLF4JBridgeHandler.removeHandlersForRootLogger();
         SLF4JBridgeHandler.install();
+        settingsWatcher = new SettingsWatcher(Resources.getResource("settings.properties"));
         try {
-            InputStream settings = Resources.newInputStreamSupplier(Resources.getResource("settings.properties")).getInput();
-            Properties props = new Properties();
-            try {
-                props.load(settings);
-            } finally {
-                settings.close();
-            }
-            Settings.init(Maps.fromProperties(props));
+            settingsWatcher.load();
         } catch (IOException ioe) {
             throw Throwables.propagate(ioe);
         }
+        long reload = SETTINGS_RELOAD_SECONDS.asLong().or((long) Constants.DEFAULT_SETTINGS_RELOAD_SECONDS);
+        if (reload > 0) {
+            settingsWatcher.start(reload, TimeUnit.SECONDS);
+        }
         final boolean isDevel = DEVELOPMENT_MODE.asBool().or(false);
+        final MetricRegistry metrics = new MetricRegistry();
+        jmxReporter = JmxReporter.forRegistry(metrics).inDomain("org.lbogdanov.poker").build();
+        jmxReporter.start();
+        final QueryProfiler profiler = DB_PROFILER.asBool().or(false)
+                ? new QueryProfiler(DB_SLOW_QUERY_MILLIS.asLong().or((long) Constants.DEFAULT_SLOW_QUERY_MILLIS),
+                                    Constants.SLOW_QUERY_CAPACITY)
+                : new QueryProfiler();
         Module shiroModule = new ShiroWebModule(servletContext) {
 
             @Override
             @SuppressWarnings("unchecked")
             protected void configureShiroWeb() {
                 bind(String.class).annotatedWith(Names.named(InjectableOAuthFilter.FAILURE_URL_PARAM)).toInstance("/");
+                bindConstant().annotatedWith(Names.named("shiro.loginUrl")).to("/");
                 // TODO simple ini-based realm for development
                 bindRealm().toInstance(new IniRealm(IniFactorySupport.loadDefaultClassPathIni()));
                 bindRealm().to(InjectableOAuthRealm.class).in(Singleton.class);
 
+                addFilterChain("/" + Constants.ADMIN_URL + "/**", config(ROLES, Constants.ADMIN_ROLE));
                 addFilterChain("/" + Constants.OAUTH_CLBK_FILTER_URL, Key.get(InjectableOAuthFilter.class));
                 addFilterChain("/" + Constants.OAUTH_FILTER_URL,
                                config(CallbackUrlSetterFilter.class, Constants.OAUTH_CLBK_FILTER_URL),
@@ -137,6 +190,7 @@ public class AppInitializer extends GuiceServletContextListener {
             @Override
             protected void configureServlets() {
                 ServerConfig dbConfig = new ServerConfig();
+                DataSource dataSource;
                 String jndiDataSource = DB_DATA_SOURCE.asString().orNull();
                 if (Strings.isNullOrEmpty(jndiDataSource)) { // use direct JDBC connection
                     DataSourceConfig dsConfig = new DataSourceConfig();
@@ -144,18 +198,60 @@ public class AppInitializer extends GuiceServletContextListener {
                     dsConfig.setUrl(DB_URL.asString().get());
                     dsConfig.setUsername(DB_USER.asString().orNull());
                     dsConfig.setPassword(DB_PASSWORD.asString().orNull());
-                    dbConfig.setDataSourceConfig(dsConfig);
+                    // pool tuning, Ebean defaults are used for missing settings
+                    dsConfig.setMinConnections(DB_POOL_MIN_CONNECTIONS.asInt().or(dsConfig.getMinConnections()));
+                    dsConfig.setMaxConnections(DB_POOL_MAX_CONNECTIONS.asInt().or(dsConfig.getMaxConnections()));
+                    dsConfig.setWaitTimeoutMillis(DB_POOL_WAIT_TIMEOUT_MILLIS.asInt().or(dsConfig.getWaitTimeoutMillis()));
+                    dsConfig.setMaxInactiveTimeSecs(DB_POOL_MAX_INACTIVE_SECS.asInt().or(dsConfig.getMaxInactiveTimeSecs()));
+                    dsConfig.setHeartbeatSql(DB_POOL_HEARTBEAT_SQL.asString().orNull());
+                    dsConfig.setLeakTimeMinutes(DB_POOL_LEAK_TIME_MINUTES.asInt().or(dsConfig.getLeakTimeMinutes()));
+                    dsConfig.setCaptureStackTrace(DB_POOL_CAPTURE_STACK_TRACE.asBool().or(dsConfig.isCaptureStackTrace()));
+                    dsConfig.setPstmtCacheSize(DB_PSTMT_CACHE_SIZE.asInt().or(dsConfig.getPstmtCacheSize()));
+                    String connectionProps = DB_CONNECTION_PROPERTIES.asString().orNull();
+                    if (!Strings.isNullOrEmpty(connectionProps)) { // driver specific, e.g. statement caching
+                        dsConfig.setCustomProperties(Maps.newHashMap(Splitter.on(';').omitEmptyStrings().trimResults()
+                                                                             .withKeyValueSeparator('=')
+                                                                             .split(connectionProps)));
+                    }
+                    dataSource = dataSourcePool = new DataSourcePool(null, "PlanningPoker", dsConfig);
+                    registerPoolGauges(dataSourcePool, metrics);
                 } else {
-                    dbConfig.setDataSourceJndiName(jndiDataSource);
+                    dataSource = new JndiDataSourceLookup().lookup(jndiDataSource);
                 }
+                dbConfig.setDataSource(InstrumentedDataSource.wrap(dataSource, metrics,
+                                                                   profiler.isEnabled() ? profiler : null));
+                boolean generateDdl = DB_GENERATE_DDL.asBool().or(false);
+                dbConfig.setDdlGenerate(generateDdl);
+                dbConfig.setDdlRun(generateDdl);
                 dbConfig.setName("PlanningPoker");
                 dbConfig.setDefaultServer(true);
                 dbConfig.addClass(Session.class);
                 dbConfig.addClass(User.class);
+                dbConfig.addClass(Participant.class);
+                dbConfig.addClass(ChatEntry.class);
 
                 bind(EbeanServer.class).toInstance(EbeanServerFactory.create(dbConfig));
                 bind(SessionService.class).to(SessionServiceImpl.class);
+                bind(SessionIndex.class).asEagerSingleton(); // loaded at startup rather than on the first search
                 bind(UserService.class).to(UserServiceImpl.class);
+                TimingInterceptor interceptor = new TimingInterceptor(metrics, SessionService.class, UserService.class);
+                bindInterceptor(Matchers.subclassesOf(SessionService.class).or(Matchers.subclassesOf(UserService.class)),
+                                interceptor.methods(), interceptor);
+                bind(MetricRegistry.class).toInstance(metrics);
+                bind(QueryProfiler.class).toInstance(profiler);
+                bind(ClusterBridge.class).toInstance(newClusterBridge());
+                bind(KeyedRateLimiter.class).toProvider(new Provider<KeyedRateLimiter>() {
+
+                    private final KeyedRateLimiter limiter = new KeyedRateLimiter(chatRate(), chatBurst());
+
+                    @Override
+                    public KeyedRateLimiter get() {
+                        // follows reloaded settings, the buckets are kept
+                        limiter.setLimits(chatRate(), chatBurst());
+                        return limiter;
+                    }
+
+                });
                 bind(WebApplication.class).to(PokerWebApplication.class);
                 bind(MeteorServlet.class).in(Singleton.class);
                 bind(ObjectMapper.class).toProvider(new Provider<ObjectMapper>() {
@@ -169,16 +265,36 @@ public class AppInitializer extends GuiceServletContextListener {
                 }).in(Singleton.class);
                 String wicketConfig = (isDevel ? RuntimeConfigurationType.DEVELOPMENT
                                                : RuntimeConfigurationType.DEPLOYMENT).toString();
+                int requestMaxBytes = REQUEST_MAX_KB.asInt().or(Constants.DEFAULT_REQUEST_MAX_KB) * 1024;
                 ImmutableMap.Builder<String, String> params = ImmutableMap.builder();
+                if (WEBSOCKET_DEFLATE_BYTES.asInt().or(Constants.DEFAULT_WEBSOCKET_DEFLATE_BYTES) > 0) {
+                    params.put(ApplicationConfig.PROPERTY_COMET_SUPPORT, DeflateWebSocketSupport.class.getName());
+                }
                 params.put(ApplicationConfig.FILTER_CLASS, WicketFilter.class.getName())
                       .put(ApplicationConfig.PROPERTY_SESSION_SUPPORT, Boolean.TRUE.toString())
                       .put(ApplicationConfig.BROADCAST_FILTER_CLASSES, TrackMessageSizeFilter.class.getName())
-                      .put(ApplicationConfig.BROADCASTER_CACHE, UUIDBroadcasterCache.class.getName())
+                      .put(ApplicationConfig.BROADCASTER_CACHE, RingBroadcasterCache.class.getName())
                       .put(ApplicationConfig.SHOW_SUPPORT_MESSAGE, Boolean.FALSE.toString())
+                      // suspend with Servlet 3.0 async rather than Jetty continuations, and run broadcasts on
+                      // bounded pools shared by all Broadcasters instead of a pair of pools per session room
+                      .put(ApplicationConfig.WEBSOCKET_SUPPORT_SERVLET3, Boolean.TRUE.toString())
+                      .put(ApplicationConfig.BROADCASTER_SHARABLE_THREAD_POOLS, Boolean.TRUE.toString())
+                      .put(ApplicationConfig.BROADCASTER_MESSAGE_PROCESSING_THREADPOOL_MAXSIZE,
+                           String.valueOf(ASYNC_MESSAGE_THREADS.asInt().or(Constants.DEFAULT_ASYNC_MESSAGE_THREADS)))
+                      .put(ApplicationConfig.BROADCASTER_ASYNC_WRITE_THREADPOOL_MAXSIZE,
+                           String.valueOf(ASYNC_WRITE_THREADS.asInt().or(Constants.DEFAULT_ASYNC_WRITE_THREADS)))
+                      .put(ApplicationConfig.WEBSOCKET_MAXTEXTSIZE, String.valueOf(requestMaxBytes))
                       .put(WicketFilter.FILTER_MAPPING_PARAM, "/*")
                       .put(WebApplication.CONFIGURATION, wicketConfig)
                       .put(WicketFilter.APP_FACT_PARAM, GuiceWebApplicationFactory.class.getName())
                       .put("injectorContextAttribute", Injector.class.getName()).build();
+                String archiveUrl = "/" + Constants.ADMIN_URL + "/archive";
+                // before anything reads a request body, imported archives are expected to be large though
+                filterRegex("^(?!" + archiveUrl + "$).*").through(RequestSizeFilter.class);
+                filter("/session/*").through(RoomRoutingFilter.class);
+                filter("/*").through(DeferredSessionFilter.class);
+                serve("/" + Constants.ADMIN_URL + "/metrics").with(new MetricsServlet(metrics));
+                serve(archiveUrl).with(SessionArchiveServlet.class);
                 serve("/*").with(MeteorServlet.class, params.build());
             }
 
@@ -187,4 +303,84 @@ public class AppInitializer extends GuiceServletContextListener {
         return Guice.createInjector(stage, ShiroWebModule.guiceFilterModule(), shiroModule, appModule);
     }
 
+    private static ClusterBridge newClusterBridge() {
+        String node = CLUSTER_NODE.asString().orNull();
+        String url = CLUSTER_URL.asString().orNull();
+        long batchMillis = CLUSTER_BATCH_MILLIS.asLong().or((long) Constants.DEFAULT_CLUSTER_BATCH_MILLIS);
+        boolean affinity = CLUSTER_AFFINITY.asBool().or(false);
+        if ("tcp".equalsIgnoreCase(CLUSTER_BRIDGE.asString().or(""))) {
+            Map<String, InetSocketAddress> peers = Maps.newLinkedHashMap();
+            for (String peer : Splitter.on(',').omitEmptyStrings().trimResults().split(CLUSTER_PEERS.asString().or(""))) {
+                // node@host:port, the node identifier is required to send messages to session owners only
+                int at = peer.indexOf('@');
+                HostAndPort address = HostAndPort.fromString(peer.substring(at + 1));
+                peers.put(at < 0 ? peer : peer.substring(0, at),
+                          new InetSocketAddress(address.getHostText(), address.getPort()));
+            }
+            return new TcpClusterBridge(node, url, batchMillis, affinity, CLUSTER_HOST.asString().orNull(),
+                                        CLUSTER_PORT.asInt().get(), peers);
+        }
+        return new InJvmClusterBridge(CLUSTER_NAME.asString().or(Constants.DEFAULT_CLUSTER_NAME), node, url,
+                                      batchMillis, affinity);
+    }
+
+    private static double chatRate() {
+        return CHAT_RATE_LIMIT.asInt().or(Constants.DEFAULT_CHAT_RATE_LIMIT) / 60d;
+    }
+
+    private static int chatBurst() {
+        return CHAT_RATE_BURST.asInt().or(Constants.DEFAULT_CHAT_RATE_BURST);
+    }
+
+    private static void registerPoolGauges(final DataSourcePool pool, MetricRegistry metrics) {
+        metrics.register(name("jdbc", "pool", "busy"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return pool.getStatus(false).getBusy();
+            }
+
+        });
+        metrics.register(name("jdbc", "pool", "free"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return pool.getStatus(false).getFree();
+            }
+
+        });
+        metrics.register(name("jdbc", "pool", "waiting"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return pool.getStatus(false).getWaiting();
+            }
+
+        });
+        metrics.register(name("jdbc", "pool", "highWaterMark"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return pool.getStatus(false).getHighWaterMark();
+            }
+
+        });
+        metrics.register(name("jdbc", "pool", "waitCount"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return pool.getStatus(false).getWaitCount();
+            }
+
+        });
+        metrics.register(name("jdbc", "pool", "utilization"), new RatioGauge() {
+
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(pool.getStatus(false).getBusy(), pool.getMaxSize());
+            }
+
+        });
+    }
+
 }
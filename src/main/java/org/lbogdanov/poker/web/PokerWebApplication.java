@@ -15,31 +15,77 @@
  */
 package org.lbogdanov.poker.web;
 
+import static org.lbogdanov.poker.core.Constants.ADMIN_URL;
 import static org.lbogdanov.poker.core.Constants.DEFAULT_ASYNC_TRANSPORT;
-import static org.lbogdanov.poker.util.Settings.ASYNC_TRANSPORT;
+import static org.lbogdanov.poker.core.Constants.DEFAULT_DISPATCH_THREADS;
+import static org.lbogdanov.poker.core.Constants.DEFAULT_PAGE_STORE_SIZE_MB;
+import static org.lbogdanov.poker.util.Settings.*;
 
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import org.apache.shiro.SecurityUtils;
 import org.apache.wicket.ConverterLocator;
+import org.apache.wicket.DefaultPageManagerProvider;
 import org.apache.wicket.IConverterLocator;
 import org.apache.wicket.Page;
 import org.apache.wicket.Session;
 import org.apache.wicket.atmosphere.EventBus;
 import org.apache.wicket.atmosphere.config.AtmosphereTransport;
+import org.apache.wicket.pageStore.IDataStore;
 import org.apache.wicket.protocol.http.WebApplication;
 import org.apache.wicket.protocol.http.WebSession;
 import org.apache.wicket.request.Request;
 import org.apache.wicket.request.Response;
 import org.apache.wicket.request.resource.PackageResourceReference;
+import org.apache.wicket.request.resource.ResourceReference;
+import org.apache.wicket.request.resource.ResourceReference.Key;
+import org.apache.wicket.request.resource.ResourceReferenceRegistry;
+import org.apache.wicket.resource.IPropertiesChangeListener;
+import org.apache.wicket.serialize.ISerializer;
+import org.apache.wicket.serialize.java.DeflatedJavaSerializer;
 import org.apache.wicket.settings.IApplicationSettings;
+import org.apache.wicket.settings.IStoreSettings;
+import org.apache.wicket.util.lang.Bytes;
+import org.atmosphere.cpr.Broadcaster;
+import org.atmosphere.cpr.BroadcasterCache;
+import org.atmosphere.cpr.BroadcasterFactory;
 import org.lbogdanov.poker.core.User;
+import org.lbogdanov.poker.core.impl.ChatWriter;
+import org.lbogdanov.poker.core.impl.ParticipantWriter;
+import org.lbogdanov.poker.core.impl.SessionRetention;
+import org.lbogdanov.poker.util.QueryProfiler;
+import org.lbogdanov.poker.web.cluster.ClusterBridge;
 import org.lbogdanov.poker.web.page.*;
+import org.lbogdanov.poker.web.page.SessionPage.Dispatcher;
 import org.lbogdanov.poker.web.page.SessionPage.Subscriber;
+import org.lbogdanov.poker.web.util.BroadcasterLifecycle;
+import org.lbogdanov.poker.web.util.ChatReplay;
+import org.lbogdanov.poker.web.util.MappedDataStore;
+import org.lbogdanov.poker.web.util.MappedResourceCache;
+import org.lbogdanov.poker.web.util.MappedResourceMapper;
+import org.lbogdanov.poker.web.util.Presence;
+import org.lbogdanov.poker.web.util.RequestTimingListener;
+import org.lbogdanov.poker.web.util.RingBroadcasterCache;
+import org.lbogdanov.poker.web.util.StripedExecutor;
 import org.lbogdanov.poker.web.util.UserSerializer;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
 import fiftyfive.wicket.shiro.ShiroWicketPlugin;
 
 
@@ -51,6 +97,27 @@ import fiftyfive.wicket.shiro.ShiroWicketPlugin;
 @Singleton
 public class PokerWebApplication extends WebApplication {
 
+    @Inject
+    private MetricRegistry metrics;
+    @Inject
+    private QueryProfiler profiler;
+    @Inject
+    private ClusterBridge bridge;
+    @Inject
+    private ParticipantWriter participants;
+    @Inject
+    private ChatWriter chat;
+    @Inject
+    private ChatReplay replay;
+    @Inject
+    private Presence presence;
+    @Inject
+    private BroadcasterLifecycle lifecycle;
+    @Inject
+    private SessionRetention retention;
+    private MappedResourceCache resourceCache;
+    private StripedExecutor dispatcher;
+
     /**
      * {@inheritDoc}
      */
@@ -94,7 +161,20 @@ public class PokerWebApplication extends WebApplication {
         String asyncTransport = ASYNC_TRANSPORT.asString().or(DEFAULT_ASYNC_TRANSPORT);
         EventBus eventBus = new EventBus(this);
         eventBus.getParameters().setTransport(AtmosphereTransport.valueOf(asyncTransport.toUpperCase(Locale.ENGLISH)));
-        eventBus.addRegistrationListener(Subscriber.get());
+        eventBus.addRegistrationListener(new Subscriber(presence, lifecycle));
+        getRequestCycleListeners().add(new RequestTimingListener(metrics, profiler));
+        registerBroadcasterGauges();
+        configurePageStore();
+        dispatcher = new StripedExecutor("dispatcher", DISPATCH_THREADS.asInt().or(DEFAULT_DISPATCH_THREADS));
+        metrics.register(name(Dispatcher.class, "pending"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return dispatcher.getPending();
+            }
+
+        });
+        bridge.start(new Dispatcher(this, metrics, replay, dispatcher));
         new ShiroWicketPlugin() {
 
             @Override
@@ -116,6 +196,217 @@ public class PokerWebApplication extends WebApplication {
         mountPage("/session/${code}", SessionPage.class);
         mountPage("/profile/", ProfilePage.class);
         mountPage("/sessions/", MySessionsPage.class);
+        mountPage("/" + ADMIN_URL + "/diagnostics", DiagnosticsPage.class);
+        configureResources(); // decorates the root mapper, so goes after mounts
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onDestroy() {
+        retention.stop();
+        presence.stop();
+        lifecycle.stop();
+        bridge.stop();
+        dispatcher.shutdown(10, TimeUnit.SECONDS);
+        participants.stop();
+        chat.stop();
+        if (resourceCache != null) {
+            resourceCache.destroy();
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected ResourceReferenceRegistry newResourceReferenceRegistry() {
+        return new ResourceReferenceRegistry() {
+
+            @Override
+            protected ResourceReference createDefaultResourceReference(Key key) {
+                // dictionaries are generated, so there is no file to fall back to
+                return I18nResourceReference.isDictionary(key) ? I18nResourceReference.get(key.getLocale())
+                                                               : super.createDefaultResourceReference(key);
+            }
+
+        };
+    }
+
+    private void configurePageStore() {
+        final IStoreSettings storeSettings = getStoreSettings();
+        storeSettings.setInmemoryCacheSize(PAGE_STORE_CACHE_SIZE.asInt().or(storeSettings.getInmemoryCacheSize()));
+        if (PAGE_STORE_SESSION_KB.asLong().isPresent()) {
+            storeSettings.setMaxSizePerSession(Bytes.kilobytes(PAGE_STORE_SESSION_KB.asLong().get()));
+        }
+        final ISerializer serializer = PAGE_STORE_COMPRESS.asBool().or(false)
+                ? new DeflatedJavaSerializer(getApplicationKey())
+                : getFrameworkSettings().getSerializer();
+        final Histogram pageSize = metrics.histogram(name(ISerializer.class, "bytes"));
+        getFrameworkSettings().setSerializer(new ISerializer() {
+
+            @Override
+            public byte[] serialize(Object object) {
+                byte[] data = serializer.serialize(object);
+                if (data != null) {
+                    pageSize.update(data.length);
+                }
+                return data;
+            }
+
+            @Override
+            public Object deserialize(byte[] data) {
+                return serializer.deserialize(data);
+            }
+
+        });
+        if ("mapped".equalsIgnoreCase(PAGE_STORE.asString().or(""))) {
+            setPageManagerProvider(new DefaultPageManagerProvider(this) {
+
+                @Override
+                protected IDataStore newDataStore() {
+                    File file = new File(storeSettings.getFileStoreFolder(), getName() + "-pages.map");
+                    long capacity = Bytes.megabytes(PAGE_STORE_SIZE_MB.asLong().or(DEFAULT_PAGE_STORE_SIZE_MB)).bytes();
+                    MappedDataStore store = new MappedDataStore(file, (int) Math.min(capacity, Integer.MAX_VALUE),
+                                                                storeSettings.getMaxSizePerSession().bytes());
+                    registerPageStoreGauges(store);
+                    return store;
+                }
+
+            });
+        }
+    }
+
+    private void configureResources() {
+        SessionPage.addBundles(getResourceBundles());
+        getResourceSettings().getPropertiesFactory().addListener(new IPropertiesChangeListener() {
+
+            @Override
+            public void propertiesChanged(String key) {
+                I18nResourceReference.clear();
+            }
+
+        });
+        // resources don't change at runtime in the deployment mode only
+        if (RESOURCE_CACHE.asBool().or(usesDeploymentConfig())) {
+            File file = new File(getStoreSettings().getFileStoreFolder(), getName() + "-resources.map");
+            resourceCache = new MappedResourceCache(file);
+            setRootRequestMapper(new MappedResourceMapper(getRootRequestMapper(), resourceCache, metrics));
+            metrics.register(name(MappedResourceCache.class, "resources"), new Gauge<Long>() {
+
+                @Override
+                public Long getValue() {
+                    return resourceCache.getCount();
+                }
+
+            });
+            metrics.register(name(MappedResourceCache.class, "bytes"), new Gauge<Long>() {
+
+                @Override
+                public Long getValue() {
+                    return resourceCache.getSize();
+                }
+
+            });
+        }
+    }
+
+    private void registerPageStoreGauges(final MappedDataStore store) {
+        metrics.register(name(IDataStore.class, "sessions"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return store.getSessionCount();
+            }
+
+        });
+        metrics.register(name(IDataStore.class, "bytes"), new Gauge<Long>() {
+
+            @Override
+            public Long getValue() {
+                return store.getSize();
+            }
+
+        });
+        metrics.register(name(IDataStore.class, "bytesPerSession"), new RatioGauge() {
+
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(store.getSize(), store.getSessionCount());
+            }
+
+        });
+        metrics.register(name(IDataStore.class, "utilization"), new RatioGauge() {
+
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(store.getSize(), store.getCapacity());
+            }
+
+        });
+    }
+
+    private void registerBroadcasterGauges() {
+        metrics.register(name(Broadcaster.class, "resources"), new Gauge<Map<String, Integer>>() {
+
+            @Override
+            public Map<String, Integer> getValue() {
+                Map<String, Integer> resources = Maps.newTreeMap();
+                for (Broadcaster broadcaster : getBroadcasters()) {
+                    resources.put(broadcaster.getID(), broadcaster.getAtmosphereResources().size());
+                }
+                return resources;
+            }
+
+        });
+        metrics.register(name(Broadcaster.class, "resources", "total"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                int total = 0;
+                for (Broadcaster broadcaster : getBroadcasters()) {
+                    total += broadcaster.getAtmosphereResources().size();
+                }
+                return total;
+            }
+
+        });
+        metrics.register(name(Broadcaster.class, "count"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return getBroadcasters().size();
+            }
+
+        });
+        metrics.register(name(RingBroadcasterCache.class, "totals"), new Gauge<Map<String, Long>>() {
+
+            @Override
+            public Map<String, Long> getValue() {
+                long messages = 0, clients = 0, bytes = 0, replayed = 0, replayNanos = 0;
+                for (Broadcaster broadcaster : getBroadcasters()) {
+                    BroadcasterCache cache = broadcaster.getBroadcasterConfig().getBroadcasterCache();
+                    if (cache instanceof RingBroadcasterCache) {
+                        RingBroadcasterCache ring = (RingBroadcasterCache) cache;
+                        messages += ring.getSize();
+                        clients += ring.getClients();
+                        bytes += ring.getBytes();
+                        replayed += ring.getReplayed();
+                        replayNanos += ring.getReplayNanos();
+                    }
+                }
+                return ImmutableMap.of("messages", messages, "clients", clients, "bytes", bytes,
+                                       "replayed", replayed, "replayMicros", TimeUnit.NANOSECONDS.toMicros(replayNanos));
+            }
+
+        });
+    }
+
+    private static Collection<Broadcaster> getBroadcasters() {
+        BroadcasterFactory factory = BroadcasterFactory.getDefault();
+        return factory == null ? Collections.<Broadcaster>emptyList() : factory.lookupAll();
     }
 
 }
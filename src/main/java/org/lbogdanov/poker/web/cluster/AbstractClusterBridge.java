@@ -0,0 +1,516 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.cluster;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.lbogdanov.poker.web.util.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+
+
+/**
+ * A base class for {@link ClusterBridge} implementations. Messages are delivered to the local node right away, while
+ * remote nodes receive them in per channel batches which are flushed either periodically or once they grow large
+ * enough. Every message carries the identifier of the node it was published on and a sequence number, so redelivered
+ * or looped back messages are dropped on receipt.
+ * <p>
+ * Nodes announce themselves with periodic heartbeats. If room affinity is enabled, live nodes form a
+ * {@link ConsistentHashRing} which assigns every channel an owner node, messages are then sent to the owner only and
+ * the owner relays them to the nodes which still have subscribers of the channel, e.g. connected before the ring
+ * changed. Otherwise messages are sent to every node.
+ * 
+ * @author Leonid Bogdanov
+ */
+public abstract class AbstractClusterBridge implements ClusterBridge {
+
+    /**
+     * A message in flight along with its origin node and sequence number.
+     */
+    protected static final class Envelope implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        public final String node;
+        public final long seq;
+        public final Message<?> message;
+
+        Envelope(String node, long seq, Message<?> message) {
+            this.node = node;
+            this.seq = seq;
+            this.message = message;
+        }
+
+    }
+
+    /**
+     * A group of messages published to the same channel which are transferred between nodes together.
+     */
+    protected static final class Batch implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        public final String channel;
+        public final List<Envelope> envelopes;
+
+        Batch(String channel, List<Envelope> envelopes) {
+            this.channel = channel;
+            this.envelopes = envelopes;
+        }
+
+    }
+
+    /**
+     * Messages of a channel waiting to be sent to other nodes. Messages published on the local node are numbered and
+     * queued in one step under the outbox's lock, so their sequence numbers never go out of order within the channel.
+     * An empty outbox which stays idle for a while is retired and refuses further messages, so it can be dropped and
+     * the channel gets a new one on the next message.
+     */
+    private static final class Outbox {
+
+        final BlockingQueue<Envelope> envelopes = new LinkedBlockingQueue<Envelope>();
+        private long seq;
+        private long lastUsed = System.nanoTime();
+        private boolean retired;
+
+        Outbox(long seq) {
+            this.seq = seq;
+        }
+
+        synchronized boolean offer(String node, Message<?> message) {
+            return !retired && offer(new Envelope(node, ++seq, message));
+        }
+
+        synchronized boolean offer(Envelope envelope) {
+            if (retired) {
+                return false;
+            }
+            envelopes.add(envelope);
+            lastUsed = System.nanoTime();
+            return true;
+        }
+
+        synchronized boolean retire(long now, long idleNanos) {
+            if (envelopes.isEmpty() && now - lastUsed >= idleNanos) {
+                retired = true;
+            }
+            return retired;
+        }
+
+        synchronized long getSeq() {
+            return seq;
+        }
+
+    }
+
+    /**
+     * A heartbeat which tells other nodes that a node is alive, where its clients should be sent to and which
+     * channels it has subscribers of while not owning them.
+     */
+    protected static final class Heartbeat implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        public final String node;
+        public final String url;
+        public final Set<String> channels;
+        public final boolean leaving;
+
+        Heartbeat(String node, String url, Set<String> channels, boolean leaving) {
+            this.node = node;
+            this.url = url;
+            this.channels = channels;
+            this.leaving = leaving;
+        }
+
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(AbstractClusterBridge.class);
+    private static final int MAX_BATCH_SIZE = 100;
+    private static final int VIRTUAL_NODES = 128;
+    private static final long HEARTBEAT_MILLIS = 1000;
+    private static final long NODE_TIMEOUT_MILLIS = 3 * HEARTBEAT_MILLIS;
+    private static final long OUTBOX_IDLE_MILLIS = 60000;
+
+    private final String nodeId;
+    private final String url;
+    private final long batchMillis;
+    private final boolean affinity;
+    // the highest sequence number of the retired outboxes, a channel's new outbox continues above it
+    private final AtomicLong retiredSeq = new AtomicLong();
+    private final ConcurrentMap<String, Outbox> pending = new ConcurrentHashMap<String, Outbox>();
+    private final Cache<String, AtomicLong> received =
+            CacheBuilder.newBuilder().expireAfterAccess(1, TimeUnit.HOURS).build();
+    private final ConcurrentMap<String, Heartbeat> members = new ConcurrentHashMap<String, Heartbeat>();
+    private final ConcurrentMap<String, Long> lastSeen = new ConcurrentHashMap<String, Long>();
+    private final ConsistentHashRing ring = new ConsistentHashRing(VIRTUAL_NODES);
+    private volatile Receiver receiver;
+    private ScheduledExecutorService flusher;
+    private volatile long outboxIdleMillis = OUTBOX_IDLE_MILLIS;
+
+    /**
+     * Creates a new instance of the <code>AbstractClusterBridge</code> class.
+     * 
+     * @param nodeId the local node identifier, if empty a random one is generated
+     * @param url the base URL clients use to reach the local node directly, may be <code>null</code>
+     * @param batchMillis the maximum time, in milliseconds, messages are held before sent to other nodes, if not
+     *        positive messages are sent one by one without any delay
+     * @param affinity whether channels should be pinned to owner nodes
+     */
+    protected AbstractClusterBridge(String nodeId, String url, long batchMillis, boolean affinity) {
+        this.nodeId = Strings.isNullOrEmpty(nodeId) ? UUID.randomUUID().toString() : nodeId;
+        this.url = Strings.emptyToNull(url);
+        this.batchMillis = batchMillis;
+        this.affinity = affinity;
+        ring.add(this.nodeId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getOwner(String channel) {
+        return affinity ? ring.getOwner(channel) : nodeId;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getUrl(String node) {
+        if (nodeId.equals(node)) {
+            return url;
+        }
+        Heartbeat member = members.get(node);
+        return member == null ? null : member.url;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<String> getNodes() {
+        return ring.getNodes();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void start(Receiver receiver) {
+        if (this.receiver != null) {
+            throw new IllegalStateException("Cluster bridge is already started");
+        }
+        this.receiver = receiver;
+        flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "cluster-flusher-" + nodeId);
+                thread.setDaemon(true);
+                return thread;
+            }
+
+        });
+        if (batchMillis > 0) {
+            flusher.scheduleWithFixedDelay(new Runnable() {
+
+                @Override
+                public void run() {
+                    flush();
+                }
+
+            }, batchMillis, batchMillis, TimeUnit.MILLISECONDS);
+        }
+        open();
+        flusher.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                heartbeat();
+            }
+
+        }, 0, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void publish(String channel, Message<?> message) {
+        Receiver local = receiver;
+        if (local == null) {
+            throw new IllegalStateException("Cluster bridge is not started");
+        }
+        local.receive(channel, message);
+        Outbox outbox = outbox(channel);
+        while (!outbox.offer(nodeId, message)) { // retired by a flush meanwhile
+            outbox = outbox(channel);
+        }
+        flushIfFull(outbox);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void stop() {
+        if (receiver == null) {
+            return;
+        }
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(batchMillis + 1000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        send(null, new Heartbeat(nodeId, url, Collections.<String>emptySet(), true));
+        close();
+        receiver = null;
+    }
+
+    /**
+     * Handles a batch or a heartbeat received from another node. Messages are delivered to the local node unless
+     * they have already been seen, and relayed further if the local node owns their channel.
+     * 
+     * @param packet the batch or the heartbeat
+     */
+    protected void receive(Object packet) {
+        if (packet instanceof Heartbeat) {
+            heartbeat((Heartbeat) packet);
+            return;
+        }
+        Receiver local = receiver;
+        if (local == null) {
+            return;
+        }
+        Batch batch = (Batch) packet;
+        boolean relay = affinity && nodeId.equals(ring.getOwner(batch.channel));
+        for (Envelope envelope : batch.envelopes) {
+            if (!nodeId.equals(envelope.node) && isNew(batch.channel, envelope)) {
+                try {
+                    local.receive(batch.channel, envelope.message);
+                } catch (RuntimeException e) {
+                    LOG.warn("Failed to deliver a message to {}", batch.channel, e);
+                }
+                if (relay) {
+                    enqueue(batch.channel, envelope);
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts the transport, called once the bridge is ready to receive packets.
+     */
+    protected abstract void open();
+
+    /**
+     * Sends a batch or a heartbeat to other nodes of the cluster.
+     * 
+     * @param nodes the identifiers of the nodes to send the packet to, <code>null</code> means all nodes
+     * @param packet the packet
+     */
+    protected abstract void send(Set<String> nodes, Serializable packet);
+
+    /**
+     * Stops the transport and releases its resources.
+     */
+    protected abstract void close();
+
+    /**
+     * Sets the time an empty outbox of a channel is kept after its last message.
+     * 
+     * @param millis the time in milliseconds
+     */
+    void setOutboxIdleMillis(long millis) {
+        outboxIdleMillis = millis;
+    }
+
+    /**
+     * Returns the number of channels which currently have an outbox.
+     * 
+     * @return the number of outboxes
+     */
+    int getOutboxCount() {
+        return pending.size();
+    }
+
+    private Outbox outbox(String channel) {
+        Outbox outbox = pending.get(channel);
+        if (outbox == null) {
+            // a restarted node keeps its identifier, so sequence numbers also start above the ones it used before
+            Outbox newOutbox = new Outbox(Math.max(System.currentTimeMillis() * 1000, retiredSeq.get()));
+            outbox = pending.putIfAbsent(channel, newOutbox);
+            if (outbox == null) {
+                outbox = newOutbox;
+            }
+        }
+        return outbox;
+    }
+
+    private void enqueue(String channel, Envelope envelope) {
+        Outbox outbox = outbox(channel);
+        while (!outbox.offer(envelope)) {
+            outbox = outbox(channel);
+        }
+        flushIfFull(outbox);
+    }
+
+    private void flushIfFull(Outbox outbox) {
+        if (batchMillis <= 0 || outbox.envelopes.size() >= MAX_BATCH_SIZE) {
+            flusher.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    flush();
+                }
+
+            });
+        }
+    }
+
+    private void flush() {
+        long idleNanos = TimeUnit.MILLISECONDS.toNanos(outboxIdleMillis);
+        synchronized (pending) {
+            for (Map.Entry<String, Outbox> entry : pending.entrySet()) {
+                Outbox outbox = entry.getValue();
+                if (outbox.retire(System.nanoTime(), idleNanos)) {
+                    // the flushes are serialized, so nothing else updates the high-water mark meanwhile
+                    retiredSeq.set(Math.max(retiredSeq.get(), outbox.getSeq()));
+                    pending.remove(entry.getKey(), outbox);
+                    continue;
+                }
+                BlockingQueue<Envelope> queue = outbox.envelopes;
+                Set<String> targets = null;
+                // only send what's already there, so a busy channel can't hold the others back
+                for (int remaining = queue.size(); remaining > 0; remaining -= MAX_BATCH_SIZE) {
+                    List<Envelope> envelopes = new ArrayList<Envelope>(Math.min(remaining, MAX_BATCH_SIZE));
+                    queue.drainTo(envelopes, Math.min(remaining, MAX_BATCH_SIZE));
+                    if (affinity && targets == null) {
+                        targets = getTargets(entry.getKey());
+                    }
+                    if (targets == null || !targets.isEmpty()) {
+                        try {
+                            send(targets, new Batch(entry.getKey(), Collections.unmodifiableList(envelopes)));
+                        } catch (RuntimeException e) {
+                            LOG.warn("Failed to send {} message(s) to {}", envelopes.size(), entry.getKey(), e);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private Set<String> getTargets(String channel) {
+        String owner = ring.getOwner(channel);
+        if (!nodeId.equals(owner)) {
+            return ImmutableSet.of(owner);
+        }
+        ImmutableSet.Builder<String> targets = ImmutableSet.builder();
+        for (Heartbeat member : members.values()) {
+            if (member.channels.contains(channel)) {
+                targets.add(member.node);
+            }
+        }
+        return targets.build();
+    }
+
+    private void heartbeat() {
+        long now = System.nanoTime();
+        for (Map.Entry<String, Long> entry : lastSeen.entrySet()) {
+            if (now - entry.getValue() > TimeUnit.MILLISECONDS.toNanos(NODE_TIMEOUT_MILLIS)
+                    && lastSeen.remove(entry.getKey(), entry.getValue())) {
+                leave(entry.getKey());
+            }
+        }
+        Set<String> channels = Collections.emptySet();
+        Receiver local = receiver;
+        if (affinity && local != null) {
+            channels = new HashSet<String>();
+            for (String channel : local.getChannels()) {
+                if (!nodeId.equals(ring.getOwner(channel))) {
+                    channels.add(channel);
+                }
+            }
+        }
+        try {
+            send(null, new Heartbeat(nodeId, url, channels, false));
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to send a heartbeat", e);
+        }
+    }
+
+    private void heartbeat(Heartbeat heartbeat) {
+        if (nodeId.equals(heartbeat.node)) {
+            return;
+        }
+        if (heartbeat.leaving) {
+            lastSeen.remove(heartbeat.node);
+            leave(heartbeat.node);
+        } else {
+            members.put(heartbeat.node, heartbeat);
+            lastSeen.put(heartbeat.node, System.nanoTime());
+            if (ring.add(heartbeat.node)) {
+                LOG.info("Node {} joined the cluster, {} node(s) total", heartbeat.node, ring.getNodes().size());
+            }
+        }
+    }
+
+    private void leave(String node) {
+        members.remove(node);
+        if (ring.remove(node)) {
+            LOG.info("Node {} left the cluster, {} node(s) total", node, ring.getNodes().size());
+        }
+    }
+
+    private boolean isNew(String channel, Envelope envelope) {
+        // messages of a channel are numbered and queued atomically and its batches are sent in order, so per origin
+        // node and channel sequence numbers only grow
+        String key = envelope.node + '\n' + channel;
+        AtomicLong fresh = new AtomicLong();
+        AtomicLong last = received.asMap().putIfAbsent(key, fresh);
+        if (last == null) {
+            last = fresh;
+        }
+        long seq;
+        do {
+            seq = last.get();
+            if (envelope.seq <= seq) {
+                return false;
+            }
+        } while (!last.compareAndSet(seq, envelope.seq));
+        return true;
+    }
+
+}
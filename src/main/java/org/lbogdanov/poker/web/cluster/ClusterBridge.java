@@ -0,0 +1,104 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.cluster;
+
+import java.util.Collection;
+import java.util.Set;
+
+import org.lbogdanov.poker.web.util.Message;
+
+
+/**
+ * Delivers messages published to a channel (a Planning Poker session code) to all cluster nodes, so participants of
+ * a session can talk to each other regardless of which node they are connected to.
+ * 
+ * @author Leonid Bogdanov
+ */
+public interface ClusterBridge {
+
+    /**
+     * Receives messages which should be delivered to the clients connected to the local node.
+     */
+    public interface Receiver {
+
+        /**
+         * Delivers a message to the local subscribers of a channel.
+         * 
+         * @param channel the channel
+         * @param message the message
+         */
+        void receive(String channel, Message<?> message);
+
+        /**
+         * Returns the channels which have subscribers connected to the local node.
+         * 
+         * @return the channels
+         */
+        Collection<String> getChannels();
+
+    }
+
+    /**
+     * Returns an identifier of the local node which is unique within the cluster.
+     * 
+     * @return the node identifier
+     */
+    String getNodeId();
+
+    /**
+     * Returns the node which owns a channel, i.e. the node its subscribers should be connected to.
+     * 
+     * @param channel the channel
+     * @return the owner node identifier, the local one if channels aren't pinned to nodes
+     */
+    String getOwner(String channel);
+
+    /**
+     * Returns the base URL clients use to reach a node directly.
+     * 
+     * @param node the node identifier
+     * @return the URL, or <code>null</code> if it's unknown
+     */
+    String getUrl(String node);
+
+    /**
+     * Returns the live nodes of the cluster, the local node included.
+     * 
+     * @return the node identifiers
+     */
+    Set<String> getNodes();
+
+    /**
+     * Joins the cluster.
+     * 
+     * @param receiver the receiver of messages for the local node
+     */
+    void start(Receiver receiver);
+
+    /**
+     * Publishes a message to a channel on every node of the cluster, the local node included.
+     * 
+     * @param channel the channel
+     * @param message the message
+     */
+    void publish(String channel, Message<?> message);
+
+    /**
+     * Leaves the cluster and releases all resources.
+     */
+    void stop();
+
+}
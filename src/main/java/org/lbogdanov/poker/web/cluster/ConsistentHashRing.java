@@ -0,0 +1,129 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.cluster;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+
+/**
+ * A consistent hash ring which assigns keys, e.g. Planning Poker session codes, to cluster nodes. Every node is placed
+ * on the ring many times (virtual nodes) to spread keys evenly, so when a node joins or leaves only about
+ * <code>1/N</code> of the keys change their owner. Lookups don't lock, membership changes rebuild the ring.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class ConsistentHashRing {
+
+    private static final HashFunction HASH = Hashing.murmur3_32();
+
+    private final int virtualNodes;
+    // never modified once built, so can be read without locking
+    private volatile NavigableMap<Integer, String> ring = new TreeMap<Integer, String>();
+    private volatile Set<String> nodes = ImmutableSet.of();
+
+    /**
+     * Creates a new instance of the <code>ConsistentHashRing</code> class.
+     * 
+     * @param virtualNodes how many times every node is placed on the ring
+     */
+    public ConsistentHashRing(int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("At least one virtual node is required");
+        }
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * Adds a node to the ring.
+     * 
+     * @param node the node identifier
+     * @return <code>true</code> if the node wasn't on the ring
+     */
+    public synchronized boolean add(String node) {
+        if (nodes.contains(node)) {
+            return false;
+        }
+        rebuild(ImmutableSet.<String>builder().addAll(nodes).add(node).build());
+        return true;
+    }
+
+    /**
+     * Removes a node from the ring.
+     * 
+     * @param node the node identifier
+     * @return <code>true</code> if the node was on the ring
+     */
+    public synchronized boolean remove(String node) {
+        if (!nodes.contains(node)) {
+            return false;
+        }
+        rebuild(ImmutableSet.copyOf(Sets.difference(nodes, ImmutableSet.of(node))));
+        return true;
+    }
+
+    /**
+     * Returns the node which owns a key.
+     * 
+     * @param key the key
+     * @return the owner node identifier, or <code>null</code> if the ring is empty
+     */
+    public String getOwner(String key) {
+        NavigableMap<Integer, String> current = ring;
+        if (current.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Integer, String> entry = current.ceilingEntry(hash(key));
+        return (entry == null ? current.firstEntry() : entry).getValue();
+    }
+
+    /**
+     * Returns all nodes on the ring.
+     * 
+     * @return the node identifiers
+     */
+    public Set<String> getNodes() {
+        return nodes;
+    }
+
+    private void rebuild(Set<String> newNodes) {
+        NavigableMap<Integer, String> newRing = new TreeMap<Integer, String>();
+        for (String node : newNodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                int hash = hash(node + '#' + i);
+                String existing = newRing.get(hash);
+                if (existing == null || existing.compareTo(node) > 0) { // resolve rare collisions the same way everywhere
+                    newRing.put(hash, node);
+                }
+            }
+        }
+        ring = newRing;
+        nodes = newNodes;
+    }
+
+    private static int hash(String key) {
+        return HASH.hashString(key, Charsets.UTF_8).asInt();
+    }
+
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.cluster;
+
+import java.io.Serializable;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * A {@link ClusterBridge} which connects nodes running in the same JVM, e.g., several embedded Jetty servers. Nodes
+ * join a cluster by its name, a single node cluster simply delivers all messages locally.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class InJvmClusterBridge extends AbstractClusterBridge {
+
+    private static final ConcurrentMap<String, ConcurrentMap<String, InJvmClusterBridge>> CLUSTERS =
+            new ConcurrentHashMap<String, ConcurrentMap<String, InJvmClusterBridge>>();
+
+    private final ConcurrentMap<String, InJvmClusterBridge> members;
+
+    /**
+     * Creates a new instance of the <code>InJvmClusterBridge</code> class.
+     * 
+     * @param cluster the cluster name
+     * @param nodeId the local node identifier, if empty a random one is generated
+     * @param url the base URL clients use to reach the local node directly, may be <code>null</code>
+     * @param batchMillis the maximum time, in milliseconds, messages are held before sent to other nodes
+     * @param affinity whether channels should be pinned to owner nodes
+     */
+    public InJvmClusterBridge(String cluster, String nodeId, String url, long batchMillis, boolean affinity) {
+        super(nodeId, url, batchMillis, affinity);
+        ConcurrentMap<String, InJvmClusterBridge> newMembers = new ConcurrentHashMap<String, InJvmClusterBridge>();
+        ConcurrentMap<String, InJvmClusterBridge> existing = CLUSTERS.putIfAbsent(cluster, newMembers);
+        members = existing == null ? newMembers : existing;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void open() {
+        if (members.putIfAbsent(getNodeId(), this) != null) {
+            throw new IllegalStateException("Node " + getNodeId() + " is already in the cluster");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void send(Set<String> nodes, Serializable packet) {
+        for (InJvmClusterBridge member : members.values()) {
+            if (member != this && (nodes == null || nodes.contains(member.getNodeId()))) {
+                member.receive(packet);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void close() {
+        members.remove(getNodeId(), this);
+    }
+
+}
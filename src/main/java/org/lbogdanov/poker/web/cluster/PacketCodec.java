@@ -0,0 +1,227 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.cluster;
+
+import java.io.*;
+import java.util.*;
+
+import org.lbogdanov.poker.core.User;
+import org.lbogdanov.poker.web.cluster.AbstractClusterBridge.Batch;
+import org.lbogdanov.poker.web.cluster.AbstractClusterBridge.Envelope;
+import org.lbogdanov.poker.web.cluster.AbstractClusterBridge.Heartbeat;
+import org.lbogdanov.poker.web.util.ChatMessage;
+import org.lbogdanov.poker.web.util.Message;
+import org.lbogdanov.poker.web.util.PresenceMessage;
+
+
+/**
+ * Encodes cluster packets in a fixed binary format. Unlike Java serialization, decoding never instantiates classes
+ * named by the stream, only heartbeats, batches of chat and presence messages and their authors can be read, so a
+ * malformed or hostile packet is rejected with an <code>IOException</code>.
+ *
+ * @author Leonid Bogdanov
+ */
+final class PacketCodec {
+
+    private static final byte HEARTBEAT = 1;
+    private static final byte BATCH = 2;
+    private static final byte CHAT = 1;
+    private static final byte PRESENCE = 2;
+    private static final int MAX_COUNT = 100000;
+
+    /**
+     * Encodes a packet.
+     *
+     * @param packet the packet, either a {@link Heartbeat} or a {@link Batch}
+     * @return the encoded packet
+     * @throws IllegalArgumentException if the packet or one of its messages can't be encoded
+     */
+    static byte[] encode(Serializable packet) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            if (packet instanceof Heartbeat) {
+                Heartbeat heartbeat = (Heartbeat) packet;
+                out.writeByte(HEARTBEAT);
+                out.writeUTF(heartbeat.node);
+                writeString(out, heartbeat.url);
+                out.writeInt(heartbeat.channels.size());
+                for (String channel : heartbeat.channels) {
+                    out.writeUTF(channel);
+                }
+                out.writeBoolean(heartbeat.leaving);
+            } else if (packet instanceof Batch) {
+                Batch batch = (Batch) packet;
+                out.writeByte(BATCH);
+                out.writeUTF(batch.channel);
+                out.writeInt(batch.envelopes.size());
+                for (Envelope envelope : batch.envelopes) {
+                    out.writeUTF(envelope.node);
+                    out.writeLong(envelope.seq);
+                    writeMessage(out, envelope.message);
+                }
+            } else {
+                throw new IllegalArgumentException("Unsupported packet " + packet);
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to encode " + packet, e); // can't happen in memory
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes the next packet from a stream.
+     *
+     * @param in the stream
+     * @return the packet, either a {@link Heartbeat} or a {@link Batch}
+     * @throws EOFException if the stream has ended
+     * @throws IOException if the packet is malformed or couldn't be read
+     */
+    static Serializable decode(DataInput in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case HEARTBEAT:
+                String node = in.readUTF();
+                String url = readString(in);
+                int count = readCount(in);
+                Set<String> channels = new HashSet<String>(count * 2);
+                for (int i = 0; i < count; i++) {
+                    channels.add(in.readUTF());
+                }
+                return new Heartbeat(node, url, channels, in.readBoolean());
+            case BATCH:
+                String channel = in.readUTF();
+                int size = readCount(in);
+                List<Envelope> envelopes = new ArrayList<Envelope>(size);
+                for (int i = 0; i < size; i++) {
+                    envelopes.add(new Envelope(in.readUTF(), in.readLong(), readMessage(in)));
+                }
+                return new Batch(channel, Collections.unmodifiableList(envelopes));
+            default:
+                throw new StreamCorruptedException("Unknown packet type " + type);
+        }
+    }
+
+    private static void writeMessage(DataOutput out, Message<?> message) throws IOException {
+        if (message instanceof ChatMessage) {
+            ChatMessage chat = (ChatMessage) message;
+            out.writeByte(CHAT);
+            writeString(out, chat.origin == null ? null : chat.origin.toString());
+            writeUser(out, chat.author);
+            writeString(out, chat.message);
+        } else if (message instanceof PresenceMessage) {
+            PresenceMessage presence = (PresenceMessage) message;
+            out.writeByte(PRESENCE);
+            writeString(out, presence.origin == null ? null : presence.origin.toString());
+            writeUsers(out, presence.message);
+            writeUsers(out, presence.left);
+        } else {
+            throw new IllegalArgumentException("Unsupported message " + message);
+        }
+    }
+
+    private static Message<?> readMessage(DataInput in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case CHAT:
+                String origin = readString(in);
+                User author = readUser(in);
+                return new ChatMessage(origin, author, readString(in));
+            case PRESENCE:
+                String presenceOrigin = readString(in);
+                List<User> joined = readUsers(in);
+                return new PresenceMessage(presenceOrigin, joined, readUsers(in));
+            default:
+                throw new StreamCorruptedException("Unknown message type " + type);
+        }
+    }
+
+    private static void writeUsers(DataOutput out, List<User> users) throws IOException {
+        out.writeInt(users == null ? -1 : users.size());
+        if (users != null) {
+            for (User user : users) {
+                writeUser(out, user);
+            }
+        }
+    }
+
+    private static List<User> readUsers(DataInput in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            return null;
+        }
+        List<User> users = new ArrayList<User>(checkCount(count));
+        for (int i = 0; i < count; i++) {
+            users.add(readUser(in));
+        }
+        return Collections.unmodifiableList(users);
+    }
+
+    private static void writeUser(DataOutput out, User user) throws IOException {
+        out.writeBoolean(user != null);
+        if (user != null) {
+            out.writeBoolean(user.getId() != null);
+            if (user.getId() != null) {
+                out.writeLong(user.getId());
+            }
+            writeString(out, user.getFirstName());
+            writeString(out, user.getLastName());
+            writeString(out, user.getEmail());
+            writeString(out, user.getExternalId());
+        }
+    }
+
+    private static User readUser(DataInput in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        User user = new User();
+        if (in.readBoolean()) {
+            user.setId(in.readLong());
+        }
+        user.setFirstName(readString(in));
+        user.setLastName(readString(in));
+        user.setEmail(readString(in));
+        user.setExternalId(readString(in));
+        return user;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static int readCount(DataInput in) throws IOException {
+        return checkCount(in.readInt());
+    }
+
+    private static int checkCount(int count) throws IOException {
+        if (count < 0 || count > MAX_COUNT) {
+            throw new StreamCorruptedException("Invalid element count " + count);
+        }
+        return count;
+    }
+
+    private PacketCodec() {}
+
+}
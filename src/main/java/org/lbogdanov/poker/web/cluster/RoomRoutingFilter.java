@@ -0,0 +1,115 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.cluster;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Strings;
+
+
+/**
+ * Sends clients joining a Planning Poker session to the node which owns it according to {@link ClusterBridge}, so
+ * participants of a session end up connected to the same node. Only plain page requests are redirected, Ajax and
+ * Atmosphere requests of pages rendered before the owner changed are served in place.
+ * 
+ * @author Leonid Bogdanov
+ */
+@Singleton
+public class RoomRoutingFilter implements Filter {
+
+    private static final Pattern SESSION_PATH = Pattern.compile("^/session/([^/;?]+)");
+    private static final Pattern PAGE_QUERY = Pattern.compile("^\\d*$");
+
+    private final ClusterBridge bridge;
+    private final Meter redirects;
+
+    /**
+     * Creates a new instance of the <code>RoomRoutingFilter</code> class.
+     * 
+     * @param bridge the cluster bridge which knows session owners
+     * @param metrics the registry to report redirects to
+     */
+    @Inject
+    public RoomRoutingFilter(ClusterBridge bridge, MetricRegistry metrics) {
+        this.bridge = bridge;
+        redirects = metrics.meter(name(RoomRoutingFilter.class, "redirects"));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {}
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        String url = isJoin(httpRequest) ? getOwnerUrl(httpRequest) : null;
+        if (url == null) {
+            chain.doFilter(request, response);
+        } else {
+            redirects.mark();
+            ((HttpServletResponse) response).sendRedirect(url);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy() {}
+
+    private String getOwnerUrl(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        Matcher matcher = SESSION_PATH.matcher(path);
+        if (!matcher.find()) {
+            return null;
+        }
+        String owner = bridge.getOwner(matcher.group(1));
+        String base = bridge.getUrl(owner);
+        if (owner == null || owner.equals(bridge.getNodeId()) || Strings.isNullOrEmpty(base)) {
+            return null;
+        }
+        StringBuilder url = new StringBuilder(base.replaceFirst("/+$", "")).append(path);
+        if (!Strings.isNullOrEmpty(request.getQueryString())) {
+            url.append('?').append(request.getQueryString());
+        }
+        return url.toString();
+    }
+
+    private static boolean isJoin(HttpServletRequest request) {
+        // listener and Atmosphere requests always carry more than just a page id in the query
+        return "GET".equals(request.getMethod()) && request.getHeader("Wicket-Ajax") == null
+               && PAGE_QUERY.matcher(Strings.nullToEmpty(request.getQueryString())).matches();
+    }
+
+}
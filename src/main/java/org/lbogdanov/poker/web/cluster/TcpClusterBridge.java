@@ -0,0 +1,313 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.cluster;
+
+import java.io.*;
+import java.net.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+
+
+/**
+ * A {@link ClusterBridge} which exchanges batches of messages with other nodes over TCP. Every node listens on a port
+ * and keeps an outbound connection to each of its peers, a broken connection is reestablished on the next send.
+ * Packets are queued per peer and written by a dedicated thread, so a slow or unreachable peer delays neither the
+ * others nor the heartbeats. Packets which can't be sent to a peer are dropped. Packets are encoded by
+ * {@link PacketCodec} rather than Java serialization, still they aren't authenticated, so the node should listen on an
+ * interface facing the other nodes only and the port must be firewalled from everything but the cluster nodes.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class TcpClusterBridge extends AbstractClusterBridge {
+
+    /**
+     * An outbound connection to a peer node along with the queue of packets to send to it.
+     */
+    private static final class Peer implements Runnable {
+
+        private final InetSocketAddress address;
+        private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<byte[]>(MAX_QUEUED_PACKETS);
+        private volatile Thread sender;
+        private Socket socket;
+        private OutputStream out;
+        private boolean reachable; // unknown until connected, peers are often started later
+        private boolean overflow;
+
+        Peer(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        void start(String name) {
+            queue.clear();
+            sender = daemon(name, this);
+        }
+
+        void send(byte[] packet) {
+            if (queue.offer(packet)) {
+                overflow = false;
+            } else if (!overflow) { // racy, but only used to avoid flooding the log
+                LOG.warn("Too many packets queued for {}, the packets will be dropped", address);
+                overflow = true;
+            }
+        }
+
+        @Override
+        public void run() {
+            List<byte[]> packets = new ArrayList<byte[]>();
+            try {
+                while (sender == Thread.currentThread() || !queue.isEmpty()) {
+                    byte[] packet = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (packet != null) {
+                        packets.add(packet);
+                        queue.drainTo(packets);
+                        write(packets);
+                        packets.clear();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            } finally {
+                disconnect();
+            }
+        }
+
+        void close() {
+            Thread thread = sender;
+            sender = null; // the thread sends the packets still queued, e.g. a leaving heartbeat, and exits
+            if (thread != null) {
+                try {
+                    thread.join(CONNECT_TIMEOUT + POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                thread.interrupt();
+            }
+        }
+
+        private void write(List<byte[]> packets) {
+            try {
+                if (out == null) {
+                    socket = new Socket();
+                    socket.setTcpNoDelay(true);
+                    socket.connect(address, CONNECT_TIMEOUT);
+                    out = new BufferedOutputStream(socket.getOutputStream());
+                }
+                for (byte[] packet : packets) {
+                    out.write(packet);
+                }
+                out.flush();
+                if (!reachable) {
+                    LOG.info("Connected to {}", address);
+                    reachable = true;
+                }
+            } catch (IOException e) {
+                disconnect();
+                if (reachable) { // the peer may be down for a while, so only report the first failure
+                    LOG.warn("Failed to send to {}, the packets will be dropped until it's back", address, e);
+                    reachable = false;
+                }
+            }
+        }
+
+        private void disconnect() {
+            closeQuietly(socket);
+            socket = null;
+            out = null;
+        }
+
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(TcpClusterBridge.class);
+    private static final int CONNECT_TIMEOUT = 1000;
+    private static final int POLL_MILLIS = 100;
+    private static final int MAX_QUEUED_PACKETS = 10000;
+
+    private final String host;
+    private final int port;
+    private final Map<String, Peer> peers;
+    private final Set<Socket> inbound = new CopyOnWriteArraySet<Socket>();
+    private volatile ServerSocket server;
+
+    /**
+     * Creates a new instance of the <code>TcpClusterBridge</code> class.
+     * 
+     * @param nodeId the local node identifier, if empty a random one is generated
+     * @param url the base URL clients use to reach the local node directly, may be <code>null</code>
+     * @param batchMillis the maximum time, in milliseconds, messages are held before sent to other nodes
+     * @param affinity whether channels should be pinned to owner nodes
+     * @param host the address of the interface to listen on, if empty the node listens on all interfaces
+     * @param port the port to listen on, <code>0</code> means any free port
+     * @param peers the addresses of the other nodes mapped by their identifiers
+     */
+    public TcpClusterBridge(String nodeId, String url, long batchMillis, boolean affinity, String host, int port,
+                            Map<String, InetSocketAddress> peers) {
+        super(nodeId, url, batchMillis, affinity);
+        this.host = Strings.emptyToNull(host);
+        this.port = port;
+        ImmutableMap.Builder<String, Peer> builder = ImmutableMap.builder();
+        for (Map.Entry<String, InetSocketAddress> peer : peers.entrySet()) {
+            builder.put(peer.getKey(), new Peer(peer.getValue()));
+        }
+        this.peers = builder.build();
+    }
+
+    /**
+     * Returns the port the node listens on.
+     * 
+     * @return the port, or <code>-1</code> if the bridge isn't started
+     */
+    public int getPort() {
+        ServerSocket socket = server;
+        return socket == null ? -1 : socket.getLocalPort();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void open() {
+        try {
+            server = new ServerSocket(port, 0, host == null ? null : InetAddress.getByName(host));
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to listen on " + Strings.nullToEmpty(host) + ":" + port, e);
+        }
+        if (host == null) {
+            LOG.warn("Listening for cluster nodes on all interfaces, port {} must be firewalled", getPort());
+        }
+        daemon("cluster-acceptor-" + getNodeId(), new Runnable() {
+
+            @Override
+            public void run() {
+                accept();
+            }
+
+        });
+        for (Map.Entry<String, Peer> peer : peers.entrySet()) {
+            peer.getValue().start("cluster-sender-" + getNodeId() + "-" + peer.getKey());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void send(Set<String> nodes, Serializable packet) {
+        byte[] bytes = null;
+        for (Map.Entry<String, Peer> peer : peers.entrySet()) {
+            if (nodes == null || nodes.contains(peer.getKey())) {
+                if (bytes == null) {
+                    bytes = PacketCodec.encode(packet);
+                }
+                peer.getValue().send(bytes);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void close() {
+        closeQuietly(server);
+        server = null;
+        for (Socket socket : inbound) {
+            closeQuietly(socket);
+        }
+        for (Peer peer : peers.values()) {
+            peer.close();
+        }
+    }
+
+    private void accept() {
+        ServerSocket socket = server;
+        while (socket != null && !socket.isClosed()) {
+            try {
+                final Socket connection = socket.accept();
+                inbound.add(connection);
+                daemon("cluster-reader-" + connection.getRemoteSocketAddress(), new Runnable() {
+
+                    @Override
+                    public void run() {
+                        read(connection);
+                    }
+
+                });
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    LOG.warn("Failed to accept a cluster connection", e);
+                }
+            }
+        }
+    }
+
+    private void read(Socket connection) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            while (true) {
+                receive(PacketCodec.decode(in));
+            }
+        } catch (EOFException e) {
+            // the peer has closed the connection
+        } catch (Exception e) {
+            if (!connection.isClosed()) {
+                LOG.warn("Failed to read from {}", connection.getRemoteSocketAddress(), e);
+            }
+        } finally {
+            inbound.remove(connection);
+            closeQuietly(connection);
+        }
+    }
+
+    private static Thread daemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static void closeQuietly(ServerSocket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.markup;
+
+import org.apache.wicket.Component;
+import org.apache.wicket.ajax.AjaxChannel;
+import org.apache.wicket.ajax.AjaxRequestTarget;
+import org.apache.wicket.ajax.attributes.AjaxRequestAttributes;
+import org.apache.wicket.ajax.form.AjaxFormSubmitBehavior;
+import org.apache.wicket.ajax.markup.html.form.AjaxFallbackButton;
+import org.apache.wicket.markup.ComponentTag;
+import org.apache.wicket.markup.html.form.Button;
+import org.apache.wicket.markup.html.form.Form;
+import org.apache.wicket.model.IModel;
+
+
+/**
+ * An {@link AjaxFallbackButton} counterpart which doesn't make its page stateful. Ajax behaviors are stateful by
+ * default, so the page they're attached to has to be stored in the session; the behavior of this button reports
+ * itself stateless, thus on a stateless page its callback URL is bookmarkable and the page is simply recreated to
+ * handle the submit.
+ * 
+ * @author Leonid Bogdanov
+ */
+public abstract class StatelessAjaxFallbackButton extends Button {
+
+    private final Form<?> form;
+
+    /**
+     * @see AjaxFallbackButton#AjaxFallbackButton(String, Form)
+     */
+    public StatelessAjaxFallbackButton(String id, Form<?> form) {
+        this(id, null, form);
+    }
+
+    /**
+     * @see AjaxFallbackButton#AjaxFallbackButton(String, IModel, Form)
+     */
+    public StatelessAjaxFallbackButton(String id, IModel<String> model, Form<?> form) {
+        super(id, model);
+        this.form = form;
+        add(new AjaxFormSubmitBehavior(form, "click") {
+
+            @Override
+            protected void onSubmit(AjaxRequestTarget target) {
+                StatelessAjaxFallbackButton.this.onSubmit(target, StatelessAjaxFallbackButton.this.getForm());
+            }
+
+            @Override
+            protected void onAfterSubmit(AjaxRequestTarget target) {
+                StatelessAjaxFallbackButton.this.onAfterSubmit(target, StatelessAjaxFallbackButton.this.getForm());
+            }
+
+            @Override
+            protected void onError(AjaxRequestTarget target) {
+                StatelessAjaxFallbackButton.this.onError(target, StatelessAjaxFallbackButton.this.getForm());
+            }
+
+            @Override
+            protected AjaxChannel getChannel() {
+                return StatelessAjaxFallbackButton.this.getChannel();
+            }
+
+            @Override
+            public boolean getDefaultProcessing() {
+                return StatelessAjaxFallbackButton.this.getDefaultFormProcessing();
+            }
+
+            @Override
+            public boolean getStatelessHint(Component component) {
+                return true;
+            }
+
+            @Override
+            protected void updateAjaxAttributes(AjaxRequestAttributes attributes) {
+                super.updateAjaxAttributes(attributes);
+                StatelessAjaxFallbackButton.this.updateAjaxAttributes(attributes);
+            }
+
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Form<?> getForm() {
+        return form != null ? form : super.getForm();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final void onSubmit() {
+        if (getRequestCycle().find(AjaxRequestTarget.class) == null) {
+            onSubmit(null, getForm());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final void onAfterSubmit() {
+        if (getRequestCycle().find(AjaxRequestTarget.class) == null) {
+            onAfterSubmit(null, getForm());
+        }
+    }
+
+    /**
+     * @see AjaxFallbackButton#onSubmit(AjaxRequestTarget, Form)
+     */
+    protected void onSubmit(AjaxRequestTarget target, Form<?> form) {}
+
+    /**
+     * @see AjaxFallbackButton#onAfterSubmit(AjaxRequestTarget, Form)
+     */
+    protected void onAfterSubmit(AjaxRequestTarget target, Form<?> form) {}
+
+    /**
+     * @see AjaxFallbackButton#onError(AjaxRequestTarget, Form)
+     */
+    protected void onError(AjaxRequestTarget target, Form<?> form) {}
+
+    /**
+     * @see AjaxFallbackButton#updateAjaxAttributes(AjaxRequestAttributes)
+     */
+    protected void updateAjaxAttributes(AjaxRequestAttributes attributes) {}
+
+    /**
+     * @see AjaxFallbackButton#getChannel()
+     */
+    protected AjaxChannel getChannel() {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onComponentTag(ComponentTag tag) {
+        String name = tag.getName();
+        if (!"input".equalsIgnoreCase(name) && !"button".equalsIgnoreCase(name)) {
+            String message = String.format("%s must be used only with <input> or <button> markup elements, "
+                                           + "component path: %s", getClass().getSimpleName(), getClassRelativePath());
+            findMarkupStream().throwMarkupException(message);
+        }
+        super.onComponentTag(tag);
+    }
+
+}
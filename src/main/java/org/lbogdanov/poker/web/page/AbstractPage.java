@@ -15,20 +15,15 @@
  */
 package org.lbogdanov.poker.web.page;
 
-import java.util.Collections;
-
 import org.apache.wicket.bootstrap.Bootstrap;
 import org.apache.wicket.markup.head.CssHeaderItem;
-import org.apache.wicket.markup.head.HeaderItem;
 import org.apache.wicket.markup.head.IHeaderResponse;
 import org.apache.wicket.markup.head.JavaScriptHeaderItem;
 import org.apache.wicket.markup.html.WebPage;
 import org.apache.wicket.model.IModel;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
-import org.apache.wicket.request.resource.JavaScriptResourceReference;
 import org.apache.wicket.request.resource.ResourceReference;
 import org.lbogdanov.poker.web.markup.NavBar;
-import org.lbogdanov.poker.web.plugin.I18nPlugin;
 
 
 /**
@@ -38,16 +33,6 @@ import org.lbogdanov.poker.web.plugin.I18nPlugin;
  */
 abstract class AbstractPage extends WebPage {
 
-    protected final ResourceReference I18N = new JavaScriptResourceReference(AbstractPage.class, "i18n.js",
-                                                                             getLocale(), null, null) {
-
-            @Override
-            public Iterable<? extends HeaderItem> getDependencies() {
-                return Collections.singletonList(JavaScriptHeaderItem.forReference(I18nPlugin.get()));
-            }
-
-    };
-
     private NavBar navBar;
 
     /**
@@ -99,6 +84,15 @@ abstract class AbstractPage extends WebPage {
         return navBar;
     }
 
+    /**
+     * Returns a <code>ResourceReference</code> for client side strings in the page's locale.
+     * 
+     * @return the dictionary resource reference
+     */
+    protected ResourceReference getI18n() {
+        return I18nResourceReference.get(getLocale());
+    }
+
     /**
      * Returns a CSS <code>ResourceReference</code> for this page, can be <b>null</b>.
      * 
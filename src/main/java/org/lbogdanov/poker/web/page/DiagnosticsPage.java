@@ -0,0 +1,140 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.page;
+
+import static org.lbogdanov.poker.core.Constants.ADMIN_ROLE;
+
+import java.text.DateFormat;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+
+import org.apache.shiro.authz.annotation.RequiresRoles;
+import org.apache.wicket.markup.html.WebMarkupContainer;
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.html.link.Link;
+import org.apache.wicket.markup.html.list.ListItem;
+import org.apache.wicket.markup.html.list.ListView;
+import org.apache.wicket.model.LoadableDetachableModel;
+import org.apache.wicket.model.StringResourceModel;
+import org.lbogdanov.poker.util.QueryProfiler;
+import org.lbogdanov.poker.util.QueryProfiler.QueryStats;
+import org.lbogdanov.poker.util.QueryProfiler.ScopeStats;
+import org.lbogdanov.poker.util.QueryProfiler.SlowQuery;
+import org.lbogdanov.poker.web.util.DateFormatter;
+
+
+/**
+ * Represents an administrative page which shows database statistics collected by {@link QueryProfiler}.
+ * 
+ * @author Leonid Bogdanov
+ */
+@RequiresRoles(ADMIN_ROLE)
+public class DiagnosticsPage extends AbstractPage {
+
+    @Inject
+    private Provider<QueryProfiler> profiler; // a concrete class can't be lazily proxied
+
+    /**
+     * Creates a new instance of <code>DiagnosticsPage</code> page.
+     */
+    public DiagnosticsPage() {
+        final QueryProfiler stats = profiler.get();
+        WebMarkupContainer disabled = new WebMarkupContainer("disabled");
+        WebMarkupContainer enabled = new WebMarkupContainer("enabled");
+        enabled.add(new Link<Void>("reset") {
+
+            @Override
+            public void onClick() {
+                profiler.get().reset();
+            }
+
+        });
+
+        ScopeStats transactions = stats.getTransactions();
+        enabled.add(new Label("transactions.count", transactions.getCount()),
+                    new Label("transactions.mean", format(transactions.getMeanStatements())),
+                    new Label("transactions.max", transactions.getMaxStatements()));
+
+        enabled.add(new ListView<ScopeStats>("units", new LoadableDetachableModel<List<ScopeStats>>() {
+
+            @Override
+            protected List<ScopeStats> load() {
+                return profiler.get().getUnits();
+            }
+
+        }) {
+
+            @Override
+            protected void populateItem(ListItem<ScopeStats> item) {
+                ScopeStats unit = item.getModelObject();
+                item.add(new Label("name", unit.getName()), new Label("count", unit.getCount()),
+                         new Label("mean", format(unit.getMeanStatements())), new Label("max", unit.getMaxStatements()));
+            }
+
+        });
+
+        enabled.add(new ListView<QueryStats>("queries", new LoadableDetachableModel<List<QueryStats>>() {
+
+            @Override
+            protected List<QueryStats> load() {
+                return profiler.get().getQueries();
+            }
+
+        }) {
+
+            @Override
+            protected void populateItem(ListItem<QueryStats> item) {
+                QueryStats query = item.getModelObject();
+                item.add(new Label("sql", query.getSql()), new Label("count", query.getCount()),
+                         new Label("rows", query.getRows()), new Label("total", format(query.getTotalMillis())),
+                         new Label("mean", format(query.getMeanMillis())), new Label("max", format(query.getMaxMillis())));
+            }
+
+        });
+
+        enabled.add(new Label("slowThreshold", new StringResourceModel("slow.title", this, null, stats.getSlowQueryMillis())));
+        enabled.add(new ListView<SlowQuery>("slowQueries", new LoadableDetachableModel<List<SlowQuery>>() {
+
+            @Override
+            protected List<SlowQuery> load() {
+                return profiler.get().getSlowQueries();
+            }
+
+        }) {
+
+            @Override
+            protected void populateItem(ListItem<SlowQuery> item) {
+                SlowQuery query = item.getModelObject();
+                String executed = DateFormatter.get().format(query.getExecuted(), DateFormat.SHORT, DateFormat.MEDIUM,
+                                                             getLocale());
+                item.add(new Label("executed", executed),
+                         new Label("millis", format(query.getMillis())),
+                         new Label("rows", query.getRows() < 0 ? "" : String.valueOf(query.getRows())),
+                         new Label("sql", query.getSql()), new Label("binds", query.getBinds()));
+            }
+
+        });
+
+        add(disabled.setVisible(!stats.isEnabled()), enabled.setVisible(stats.isEnabled()));
+    }
+
+    private static String format(double value) {
+        return String.format("%.2f", value);
+    }
+
+}
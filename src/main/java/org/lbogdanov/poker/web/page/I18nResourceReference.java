@@ -0,0 +1,235 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.page;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.wicket.Application;
+import org.apache.wicket.WicketRuntimeException;
+import org.apache.wicket.markup.head.HeaderItem;
+import org.apache.wicket.markup.head.JavaScriptHeaderItem;
+import org.apache.wicket.request.http.WebRequest;
+import org.apache.wicket.request.http.WebResponse;
+import org.apache.wicket.request.resource.AbstractResource;
+import org.apache.wicket.request.resource.IResource;
+import org.apache.wicket.request.resource.ResourceReference;
+import org.apache.wicket.request.resource.caching.IStaticCacheableResource;
+import org.apache.wicket.resource.IPropertiesFactory;
+import org.apache.wicket.resource.Properties;
+import org.apache.wicket.util.lang.Packages;
+import org.apache.wicket.util.resource.IResourceStream;
+import org.apache.wicket.util.resource.StringResourceStream;
+import org.apache.wicket.util.time.Time;
+import org.lbogdanov.poker.web.plugin.I18nPlugin;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+
+
+/**
+ * A <code>ResourceReference</code> for a locale specific dictionary of client side strings. The dictionary is
+ * generated once per locale from <code>i18n.properties</code> files of this package and is served as a static
+ * resource, i.e. with a versioned URL and cache headers.
+ * 
+ * @author Leonid Bogdanov
+ */
+public final class I18nResourceReference extends ResourceReference {
+
+    private static final String NAME = "i18n.js";
+    private static final String PROPERTIES = Packages.absolutePath(AbstractPage.class, "i18n");
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ConcurrentMap<Locale, I18nResourceReference> REFERENCES = Maps.newConcurrentMap();
+
+    private transient volatile I18nResource resource;
+
+    /**
+     * Returns a resource reference for a given locale and registers it in the application, so that it can be
+     * resolved by its URL.
+     * 
+     * @param locale the locale, can be <b>null</b>
+     * @return the resource reference
+     */
+    public static I18nResourceReference get(Locale locale) {
+        I18nResourceReference reference = REFERENCES.get(key(locale));
+        if (reference == null) {
+            reference = new I18nResourceReference(locale);
+            I18nResourceReference existing = REFERENCES.putIfAbsent(key(locale), reference);
+            reference = Objects.firstNonNull(existing, reference);
+        }
+        Application.get().getResourceReferenceRegistry().registerResourceReference(reference);
+        return reference;
+    }
+
+    /**
+     * Checks if a given key identifies a dictionary resource, i.e. can be resolved with {@link #get(Locale)}.
+     * 
+     * @param key the key to check
+     * @return <code>true</code> if the key identifies a dictionary
+     */
+    public static boolean isDictionary(Key key) {
+        return AbstractPage.class.getName().equals(key.getScope()) && NAME.equals(key.getName());
+    }
+
+    /**
+     * Discards all generated dictionaries, e.g. after the properties have been modified.
+     */
+    public static void clear() {
+        for (I18nResourceReference reference : REFERENCES.values()) {
+            reference.resource = null;
+        }
+    }
+
+    private static Locale key(Locale locale) {
+        return locale == null ? Locale.ROOT : locale;
+    }
+
+    private I18nResourceReference(Locale locale) {
+        super(AbstractPage.class, NAME, locale, null, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IResource getResource() {
+        I18nResource current = resource;
+        if (current == null) {
+            current = new I18nResource(getKey(), generate(getLocale()));
+            resource = current;
+        }
+        return current;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterable<? extends HeaderItem> getDependencies() {
+        return Collections.singletonList(JavaScriptHeaderItem.forReference(I18nPlugin.get()));
+    }
+
+    private static String generate(Locale locale) {
+        IPropertiesFactory factory = Application.get().getResourceSettings().getPropertiesFactory();
+        Map<String, Object> dictionary = new TreeMap<String, Object>();
+        for (String path : paths(locale)) {
+            Properties properties = factory.load(AbstractPage.class, path);
+            if (properties != null) {
+                dictionary.putAll(properties.getAll());
+            }
+        }
+        try {
+            return "$.i18n.setDictionary(" + MAPPER.writeValueAsString(dictionary) + ");";
+        } catch (JsonProcessingException e) {
+            throw new WicketRuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the properties paths for a given locale, from the most generic to the most specific one.
+     */
+    private static List<String> paths(Locale locale) {
+        List<String> paths = new ArrayList<String>(4);
+        paths.add(PROPERTIES);
+        if (locale != null) {
+            String path = PROPERTIES;
+            for (String part : Arrays.asList(locale.getLanguage(), locale.getCountry(), locale.getVariant())) {
+                if (part.isEmpty()) {
+                    break;
+                }
+                path += "_" + part;
+                paths.add(path);
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * A pregenerated dictionary script.
+     */
+    private static final class I18nResource extends AbstractResource implements IStaticCacheableResource {
+
+        private static final String CONTENT_TYPE = "text/javascript";
+
+        private final Key key;
+        private final String script;
+        private final byte[] data;
+        private final String etag;
+        private final Time lastModified = Time.now();
+
+        public I18nResource(Key key, String script) {
+            this.key = key;
+            this.script = script;
+            data = script.getBytes(Charsets.UTF_8);
+            etag = '"' + Hashing.md5().hashBytes(data).toString() + '"';
+        }
+
+        @Override
+        public boolean isCachingEnabled() {
+            return true;
+        }
+
+        @Override
+        public Serializable getCacheKey() {
+            return key;
+        }
+
+        @Override
+        public IResourceStream getCacheableResourceStream() {
+            StringResourceStream stream = new StringResourceStream(script, CONTENT_TYPE);
+            stream.setCharset(Charsets.UTF_8);
+            stream.setLastModified(lastModified);
+            return stream;
+        }
+
+        @Override
+        protected ResourceResponse newResourceResponse(Attributes attributes) {
+            ResourceResponse response = new ResourceResponse();
+            response.setContentType(CONTENT_TYPE);
+            response.setTextEncoding(Charsets.UTF_8.name());
+            response.setLastModified(lastModified);
+            if (etag.equals(((WebRequest) attributes.getRequest()).getHeader("If-None-Match"))) {
+                response.setStatusCode(HttpServletResponse.SC_NOT_MODIFIED);
+            } else {
+                response.setContentLength(data.length);
+                response.setWriteCallback(new WriteCallback() {
+
+                    @Override
+                    public void writeData(Attributes attributes) {
+                        attributes.getResponse().write(data);
+                    }
+
+                });
+            }
+            return response;
+        }
+
+        @Override
+        protected void setResponseHeaders(ResourceResponse data, Attributes attributes) {
+            super.setResponseHeaders(data, attributes);
+            ((WebResponse) attributes.getResponse()).setHeader("ETag", etag);
+        }
+
+    }
+
+}
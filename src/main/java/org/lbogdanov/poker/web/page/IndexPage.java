@@ -26,7 +26,6 @@ import javax.inject.Inject;
 
 import org.apache.wicket.MarkupContainer;
 import org.apache.wicket.ajax.AjaxRequestTarget;
-import org.apache.wicket.ajax.markup.html.form.AjaxFallbackButton;
 import org.apache.wicket.markup.html.WebMarkupContainer;
 import org.apache.wicket.markup.html.form.*;
 import org.apache.wicket.model.AbstractReadOnlyModel;
@@ -44,6 +43,7 @@ import org.lbogdanov.poker.core.SessionService;
 import org.lbogdanov.poker.core.UserService;
 import org.lbogdanov.poker.web.markup.BootstrapFeedbackPanel;
 import org.lbogdanov.poker.web.markup.ControlGroup;
+import org.lbogdanov.poker.web.markup.StatelessAjaxFallbackButton;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -87,7 +87,8 @@ public class IndexPage extends AbstractPage {
     private UserService userService;
 
     /**
-     * Creates a new instance of <code>Index</code> page.
+     * Creates a new instance of <code>Index</code> page. The page is kept stateless, so anonymous visitors don't cost a
+     * stored page nor an HTTP session until they log in or join a session.
      */
     @SuppressWarnings("unchecked")
     public IndexPage() {
@@ -109,7 +110,7 @@ public class IndexPage extends AbstractPage {
         internal.add(new BootstrapFeedbackPanel("feedback"),
                      usernameGroup.add(new RequiredTextField<String>("username").setLabel(new ResourceModel("login.internal.username"))),
                      passwordGroup.add(new PasswordTextField("password").setLabel(new ResourceModel("login.internal.password"))),
-                     rememberGroup.add(new CheckBox("rememberme"), new AjaxFallbackButton("submit", internal) {
+                     rememberGroup.add(new CheckBox("rememberme"), new StatelessAjaxFallbackButton("submit", internal) {
 
             @Override
             protected void onSubmit(AjaxRequestTarget target, Form<?> form) {
@@ -154,8 +155,8 @@ public class IndexPage extends AbstractPage {
             }
 
         };
-        Form<?> join = new Form<Game>("join", gameModel);
-        MarkupContainer codeGroup = new ControlGroup("codeGroup").add(new AjaxFallbackButton("submit", join) {
+        Form<?> join = new StatelessForm<Game>("join", gameModel);
+        MarkupContainer codeGroup = new ControlGroup("codeGroup").add(new StatelessAjaxFallbackButton("submit", join) {
 
             @Override
             protected void onSubmit(AjaxRequestTarget target, Form<?> form) {
@@ -189,7 +190,7 @@ public class IndexPage extends AbstractPage {
             }
 
         };
-        Form<?> create = new Form<Game>("create", gameModel);
+        Form<?> create = new StatelessForm<Game>("create", gameModel);
         MarkupContainer nameGroup = new ControlGroup("nameGroup");
         MarkupContainer estimatesGroup = new ControlGroup("estimatesGroup");
         MarkupContainer descriptionGroup = new ControlGroup("descriptionGroup");
@@ -200,7 +201,7 @@ public class IndexPage extends AbstractPage {
                                                                                 .add(maximumLength(SESSION_ESTIMATES_MAX_LENGTH), estimatesValidator)),
                    descriptionGroup.add(new TextArea<String>("description").setLabel(new ResourceModel("session.create.description"))
                                                                            .add(maximumLength(SESSION_DESCRIPTION_MAX_LENGTH))),
-                   new AjaxFallbackButton("submit", create) {
+                   new StatelessAjaxFallbackButton("submit", create) {
 
             @Override
             public void onSubmit(AjaxRequestTarget target, Form<?> form) {
@@ -16,7 +16,9 @@
 package org.lbogdanov.poker.web.page;
 
 import java.text.DateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
@@ -24,12 +26,16 @@ import java.util.List;
 import javax.inject.Inject;
 
 import org.apache.shiro.authz.annotation.RequiresUser;
+import org.apache.wicket.Component;
+import org.apache.wicket.WicketRuntimeException;
 import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.ajax.attributes.AjaxCallListener;
 import org.apache.wicket.ajax.attributes.AjaxRequestAttributes;
 import org.apache.wicket.ajax.attributes.ThrottlingSettings;
 import org.apache.wicket.ajax.form.OnChangeAjaxBehavior;
 import org.apache.wicket.ajax.markup.html.AjaxFallbackLink;
+import org.apache.wicket.ajax.markup.html.form.AjaxFallbackButton;
+import org.apache.wicket.behavior.AbstractAjaxBehavior;
 import org.apache.wicket.extensions.ajax.markup.html.repeater.data.sort.AjaxFallbackOrderByBorder;
 import org.apache.wicket.extensions.ajax.markup.html.repeater.data.table.AjaxFallbackHeadersToolbar;
 import org.apache.wicket.extensions.ajax.markup.html.repeater.data.table.AjaxNavigationToolbar;
@@ -42,8 +48,14 @@ import org.apache.wicket.extensions.markup.html.repeater.data.table.NoRecordsToo
 import org.apache.wicket.extensions.markup.html.repeater.data.table.PropertyColumn;
 import org.apache.wicket.extensions.markup.html.repeater.util.SortParam;
 import org.apache.wicket.extensions.markup.html.repeater.util.SortableDataProvider;
+import org.apache.wicket.markup.head.IHeaderResponse;
+import org.apache.wicket.markup.head.OnDomReadyHeaderItem;
 import org.apache.wicket.markup.html.WebMarkupContainer;
+import org.apache.wicket.markup.html.form.Check;
+import org.apache.wicket.markup.html.form.CheckGroup;
+import org.apache.wicket.markup.html.form.CheckGroupSelector;
 import org.apache.wicket.markup.html.form.DropDownChoice;
+import org.apache.wicket.markup.html.form.Form;
 import org.apache.wicket.markup.html.form.TextField;
 import org.apache.wicket.markup.html.link.BookmarkablePageLink;
 import org.apache.wicket.markup.html.link.Link;
@@ -51,6 +63,8 @@ import org.apache.wicket.markup.html.navigation.paging.PagingNavigator;
 import org.apache.wicket.markup.html.panel.Fragment;
 import org.apache.wicket.markup.repeater.Item;
 import org.apache.wicket.model.*;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.apache.wicket.request.handler.TextRequestHandler;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
 import org.apache.wicket.request.resource.CssResourceReference;
 import org.apache.wicket.request.resource.ResourceReference;
@@ -58,10 +72,14 @@ import org.apache.wicket.util.time.Duration;
 import org.lbogdanov.poker.core.PagingList;
 import org.lbogdanov.poker.core.Session;
 import org.lbogdanov.poker.core.SessionService;
+import org.lbogdanov.poker.core.User;
 import org.lbogdanov.poker.core.UserService;
 import org.lbogdanov.poker.web.markup.BodylessLabel;
 import org.lbogdanov.poker.web.markup.BootstrapPagingNavigator;
+import org.lbogdanov.poker.web.util.DateFormatter;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Iterators;
 
 /**
@@ -74,6 +92,8 @@ public class MySessionsPage extends AbstractPage {
 
     /**
      * A <code>SortableDataProvider</code> of Planning Poker sessions that current user created or participated in.
+     * The pages already fetched aren't serialized along with the provider, so the first page requested after the page
+     * is deserialized, e.g. once it was evicted from the session, is fetched with an offset rather than a keyset.
      */
     private final class SessionsProvider extends SortableDataProvider<Session, String> {
 
@@ -149,11 +169,14 @@ public class MySessionsPage extends AbstractPage {
     private static final ResourceReference CSS = new CssResourceReference(MySessionsPage.class, "mysessions.css");
     private static final ResourceReference JS = new PageScriptResourceReference(MySessionsPage.class, "mysessions.js");
     private static final List<Long> ITEMS_PER_PAGE = Arrays.asList(10L, 50L, 100L);
+    private static final int SUGGESTIONS = 8;
 
     @Inject
     private SessionService sessionService;
     @Inject
     private UserService userService;
+    @Inject
+    private ObjectMapper mapper;
     private DataTable<?, String> sessionsTable;
 
     /**
@@ -163,7 +186,30 @@ public class MySessionsPage extends AbstractPage {
     public MySessionsPage() {
         final SessionsProvider dataProvider =  new SessionsProvider();
         dataProvider.setSort("created", SortOrder.DESCENDING); // default sort: created, desc
+        final CheckGroup<Session> selected = new CheckGroup<Session>("selected", new ArrayList<Session>());
         List<AbstractColumn<Session, String>> columns = Arrays.asList(
+            new AbstractColumn<Session, String>(new Model<String>()) {
+
+                @Override
+                public Component getHeader(String componentId) {
+                    return new Fragment(componentId, "selectAll", MySessionsPage.this)
+                            .add(new CheckGroupSelector("selector"));
+                }
+
+                @Override
+                public void populateItem(Item<ICellPopulator<Session>> item, String compId, IModel<Session> model) {
+                    // the session itself rather than the row model, so submitting a selection doesn't reload rows
+                    Check<Session> check = new Check<Session>("check", Model.of(model.getObject()));
+                    check.setVisible(isAuthor(model.getObject())); // joined sessions can't be deleted
+                    item.add(new Fragment(compId, "select", MySessionsPage.this).add(check));
+                }
+
+                @Override
+                public String getCssClass() {
+                    return "select";
+                }
+
+            },
             new Column("session.name", "name", "name") {
 
                 @Override
@@ -183,9 +229,8 @@ public class MySessionsPage extends AbstractPage {
                 @SuppressWarnings("rawtypes")
                 public IModel<Object> getDataModel(IModel<Session> rowModel) {
                     Date created = (Date) super.getDataModel(rowModel).getObject();
-                    String formatted = DateFormat.getDateTimeInstance(DateFormat.SHORT,
-                                                                      DateFormat.SHORT,
-                                                                      getLocale()).format(created);
+                    String formatted = DateFormatter.get().format(created, DateFormat.SHORT, DateFormat.SHORT,
+                                                                  getLocale());
                     return new Model(formatted);
                 }
 
@@ -215,6 +260,7 @@ public class MySessionsPage extends AbstractPage {
                         }
 
                     };
+                    delete.setVisible(isAuthor(model.getObject())); // only the author may delete a session
                     item.add(new Fragment(compId, "actions", MySessionsPage.this).add(delete));
                 }
 
@@ -283,6 +329,30 @@ public class MySessionsPage extends AbstractPage {
                 attributes.setThrottlingSettings(throttling);
             }
 
+        });
+        sessionName.add(new AbstractAjaxBehavior() {
+
+            @Override
+            public void onRequest() {
+                RequestCycle cycle = RequestCycle.get();
+                String query = cycle.getRequest().getQueryParameters().getParameterValue("q").toString("");
+                List<String> names = sessionService.suggest(userService.getCurrentUser(), query, SUGGESTIONS);
+                try {
+                    cycle.scheduleRequestHandlerAfterCurrent(new TextRequestHandler("application/json", "UTF-8",
+                                                                                    mapper.writeValueAsString(names)));
+                } catch (JsonProcessingException e) {
+                    throw new WicketRuntimeException(e);
+                }
+            }
+
+            @Override
+            public void renderHead(Component component, IHeaderResponse response) {
+                super.renderHead(component, response);
+                response.render(OnDomReadyHeaderItem.forScript(String.format("Poker.typeahead(\"%s\", \"%s\");",
+                                                                             component.getMarkupId(),
+                                                                             getCallbackUrl())));
+            }
+
         });
         DropDownChoice<?> pageSize = new DropDownChoice<Long>("pageSize",
                                                               PropertyModel.<Long>of(sessionsTable, "itemsPerPage"),
@@ -296,7 +366,36 @@ public class MySessionsPage extends AbstractPage {
             }
 
         });
-        add(sessionsTable.setOutputMarkupId(true), sessionName, pageSize);
+        Form<?> form = new Form<Void>("form");
+        form.add(new AjaxFallbackButton("deleteSelected", form) {
+
+            @Override
+            protected void onSubmit(AjaxRequestTarget target, Form<?> form) {
+                Collection<Session> sessions = selected.getModelObject();
+                if (!sessions.isEmpty()) {
+                    sessionService.delete(sessions);
+                    sessions.clear();
+                    dataProvider.invalidate();
+                }
+                if (target != null) {
+                    target.add(sessionsTable, this); // a fresh button asks for confirmation again
+                }
+            }
+
+            @Override
+            protected void onError(AjaxRequestTarget target, Form<?> form) {}
+
+            @Override
+            protected void updateAjaxAttributes(AjaxRequestAttributes attributes) {
+                super.updateAjaxAttributes(attributes);
+                AjaxCallListener listener = new AjaxCallListener();
+                listener.onPrecondition("return Poker.confirm(attrs.c);");
+                attributes.getAjaxCallListeners().add(listener);
+            }
+
+        });
+        form.add(selected.add(sessionsTable.setOutputMarkupId(true)).setOutputMarkupId(true));
+        add(form, sessionName.setOutputMarkupId(true), pageSize);
     }
 
     /**
@@ -315,4 +414,9 @@ public class MySessionsPage extends AbstractPage {
         return JS;
     }
 
+    private boolean isAuthor(Session session) {
+        User author = session.getAuthor();
+        return author != null && author.equals(userService.getCurrentUser());
+    }
+
 }
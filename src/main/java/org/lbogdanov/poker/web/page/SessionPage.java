@@ -15,57 +15,85 @@
  */
 package org.lbogdanov.poker.web.page;
 
+import static com.codahale.metrics.MetricRegistry.name;
 import static org.atmosphere.cpr.FrameworkConfig.ATMOSPHERE_RESOURCE;
+import static org.apache.wicket.validation.validator.StringValidator.maximumLength;
+import static org.lbogdanov.poker.core.Constants.CHAT_MESSAGE_MAX_LENGTH;
+import static org.lbogdanov.poker.core.Constants.DEFAULT_PRESENCE_HEARTBEAT_SECONDS;
 import static org.lbogdanov.poker.core.Constants.LABEL_MAX_LENGTH;
+import static org.lbogdanov.poker.util.Settings.CHAT_MAX_LENGTH;
+import static org.lbogdanov.poker.util.Settings.PRESENCE_HEARTBEAT_SECONDS;
 
-import java.text.DateFormat;
-import java.util.Date;
-import java.util.Locale;
-import java.util.concurrent.TimeUnit;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.inject.Inject;
+import javax.inject.Provider;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.shiro.authz.annotation.RequiresUser;
+import org.apache.wicket.Application;
 import org.apache.wicket.AttributeModifier;
 import org.apache.wicket.Page;
+import org.apache.wicket.ResourceBundles;
+import org.apache.wicket.ajax.AbstractAjaxTimerBehavior;
 import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.ajax.attributes.AjaxCallListener;
 import org.apache.wicket.ajax.attributes.AjaxRequestAttributes;
 import org.apache.wicket.ajax.markup.html.form.AjaxFallbackButton;
+import org.apache.wicket.atmosphere.AtmosphereBehavior;
 import org.apache.wicket.atmosphere.EventBus;
 import org.apache.wicket.atmosphere.ResourceRegistrationListener;
 import org.apache.wicket.atmosphere.Subscribe;
 import org.apache.wicket.markup.head.IHeaderResponse;
 import org.apache.wicket.markup.head.JavaScriptHeaderItem;
+import org.apache.wicket.markup.head.OnDomReadyHeaderItem;
 import org.apache.wicket.markup.html.form.Form;
 import org.apache.wicket.markup.html.form.TextArea;
 import org.apache.wicket.model.Model;
 import org.apache.wicket.request.http.flow.AbortWithHttpErrorCodeException;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
 import org.apache.wicket.request.resource.CssResourceReference;
+import org.apache.wicket.request.resource.JavaScriptResourceReference;
 import org.apache.wicket.request.resource.ResourceReference;
+import org.apache.wicket.util.time.Duration;
 import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.AtmosphereResourceFactory;
 import org.atmosphere.cpr.Broadcaster;
 import org.atmosphere.cpr.BroadcasterFactory;
+import org.lbogdanov.poker.core.ChatEntry;
 import org.lbogdanov.poker.core.Session;
 import org.lbogdanov.poker.core.SessionService;
+import org.lbogdanov.poker.core.User;
 import org.lbogdanov.poker.core.UserService;
+import org.lbogdanov.poker.util.KeyedRateLimiter;
+import org.lbogdanov.poker.web.cluster.ClusterBridge;
 import org.lbogdanov.poker.web.markup.BodylessLabel;
 import org.lbogdanov.poker.web.markup.LimitableLabel;
 import org.lbogdanov.poker.web.plugin.CustomScrollbarPlugin;
+import org.lbogdanov.poker.web.util.BroadcasterLifecycle;
 import org.lbogdanov.poker.web.util.ChatMessage;
+import org.lbogdanov.poker.web.util.ChatReplay;
+import org.lbogdanov.poker.web.util.DateFormatter;
 import org.lbogdanov.poker.web.util.Message;
 import org.lbogdanov.poker.web.util.OriginFilter;
-import org.ocpsoft.prettytime.Duration;
-import org.ocpsoft.prettytime.PrettyTime;
+import org.lbogdanov.poker.web.util.Presence;
+import org.lbogdanov.poker.web.util.PresenceMessage;
+import org.lbogdanov.poker.web.util.StripedExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Strings;
-import com.google.common.collect.Iterables;
+import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
 
 
 /**
@@ -77,19 +105,23 @@ import com.google.common.collect.Iterables;
 public class SessionPage extends AbstractPage {
 
     /**
-     * Subscribes clients to corresponding named {@link Broadcaster}s depending on the current <code>Session</code> code.
+     * Subscribes clients to corresponding named {@link Broadcaster}s depending on the current <code>Session</code> code
+     * and tracks their presence in session rooms.
      */
     public static final class Subscriber implements ResourceRegistrationListener {
 
-        private static final Subscriber INSTANCE = new Subscriber();
+        private final Presence presence;
+        private final BroadcasterLifecycle lifecycle;
 
         /**
-         * Returns a single instance of <code>Subscriber</code>.
+         * Creates a new instance of the <code>Subscriber</code> class.
          * 
-         * @return the <code>Subscriber</code> instance
+         * @param presence the presence of participants in session rooms
+         * @param lifecycle the lifecycle manager of session room Broadcasters
          */
-        public static Subscriber get() {
-            return INSTANCE;
+        public Subscriber(Presence presence, BroadcasterLifecycle lifecycle) {
+            this.presence = presence;
+            this.lifecycle = lifecycle;
         }
 
         /**
@@ -98,16 +130,84 @@ public class SessionPage extends AbstractPage {
         @Override
         public void resourceRegistered(String uuid, Page page) {
             if (page instanceof SessionPage) {
-                String channel = ((SessionPage) page).session.getCode();
+                SessionPage sessionPage = (SessionPage) page;
+                String channel = sessionPage.session.getCode();
                 // quickly get an AtmosphereResource from a current HttpServletRequest
                 HttpServletRequest request = (HttpServletRequest) page.getRequest().getContainerRequest();
                 AtmosphereResource resource = (AtmosphereResource) request.getAttribute(ATMOSPHERE_RESOURCE);
                 if (resource != null) {
-                    Broadcaster broadcaster = BroadcasterFactory.getDefault().lookup(channel, true);
-                    broadcaster.addAtmosphereResource(resource);
+                    lifecycle.subscribe(BroadcasterFactory.getDefault(), channel, resource);
                 } else {
                     LOG.warn("Couldn't get AtmosphereResource for a request");
                 }
+                if (sessionPage.user != null) {
+                    presence.join(channel, uuid, sessionPage.user);
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void resourceUnregistered(String uuid) {
+            presence.leave(uuid);
+        }
+
+    }
+
+    /**
+     * Delivers messages published via {@link ClusterBridge} to the clients connected to the local node. Messages are
+     * delivered on the lanes of a {@link StripedExecutor} rather than the publishing thread, so a poster's request
+     * doesn't hold its page lock while the recipients' pages are locked in turn, and messages of a room keep their
+     * order.
+     */
+    public static final class Dispatcher implements ClusterBridge.Receiver {
+
+        private final Application application;
+        private final MetricRegistry metrics;
+        private final ChatReplay replay;
+        private final StripedExecutor executor;
+
+        /**
+         * Creates a new instance of the <code>Dispatcher</code> class.
+         * 
+         * @param application the application which clients should receive messages
+         * @param metrics the registry to report delivery metrics to
+         * @param replay the recent chat history to append chat messages to
+         * @param executor the executor to deliver messages on, keyed by channel
+         */
+        public Dispatcher(Application application, MetricRegistry metrics, ChatReplay replay,
+                          StripedExecutor executor) {
+            this.application = application;
+            this.metrics = metrics;
+            this.replay = replay;
+            this.executor = executor;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void receive(final String channel, final Message<?> message) {
+            if (message instanceof ChatMessage) {
+                replay.add(channel, (ChatMessage) message); // right away, so that a client joining next gets it
+            }
+            try {
+                executor.execute(channel, new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            deliver(channel, message);
+                        } catch (RuntimeException e) {
+                            LOG.warn("Failed to deliver a message to {}", channel, e);
+                        }
+                    }
+
+                });
+            } catch (RejectedExecutionException e) {
+                LOG.debug("Dropped a message to {}, the application is stopping", channel);
             }
         }
 
@@ -115,23 +215,64 @@ public class SessionPage extends AbstractPage {
          * {@inheritDoc}
          */
         @Override
-        public void resourceUnregistered(String uuid) {}
+        public Collection<String> getChannels() {
+            List<String> channels = Lists.newArrayList();
+            BroadcasterFactory factory = BroadcasterFactory.getDefault();
+            if (factory != null) {
+                for (Broadcaster broadcaster : factory.lookupAll()) {
+                    if (!broadcaster.getAtmosphereResources().isEmpty()) {
+                        channels.add(broadcaster.getID());
+                    }
+                }
+            }
+            return channels;
+        }
 
-        private Subscriber() {}
+        private void deliver(String channel, Message<?> message) {
+            Broadcaster broadcaster = BroadcasterFactory.getDefault().lookup(channel);
+            if (broadcaster == null) {
+                LOG.debug("No active Broadcaster for a channel {}", channel);
+            } else {
+                EventBus eventBus = EventBus.get(application);
+                Timer timer = metrics.timer(name(EventBus.class, "post"));
+                int delivered = 0;
+                for (AtmosphereResource resource : broadcaster.getAtmosphereResources()) {
+                    Timer.Context context = timer.time();
+                    try {
+                        eventBus.post(message, resource);
+                        delivered++;
+                    } finally {
+                        context.stop();
+                    }
+                }
+                metrics.meter(name(SessionPage.class, "messages", "delivered")).mark(delivered);
+            }
+        }
 
     }
 
     private static final Logger LOG = LoggerFactory.getLogger(SessionPage.class);
-    private static final ResourceReference CSS = new CssResourceReference(SessionPage.class, "session.css");
-    private static final ResourceReference JS = new PageScriptResourceReference(SessionPage.class, "session.js");
+    private static final CssResourceReference CSS = new CssResourceReference(SessionPage.class, "session.css");
+    private static final JavaScriptResourceReference JS = new PageScriptResourceReference(SessionPage.class, "session.js");
 
     @Inject
     private SessionService sessionService;
     @Inject
+    private ObjectMapper mapper;
+    @Inject
+    private Provider<MetricRegistry> metrics; // a concrete class can't be lazily proxied
+    @Inject
+    private ClusterBridge bridge;
+    @Inject
+    private Provider<ChatReplay> replay;
+    @Inject
+    private Provider<Presence> presence;
+    @Inject
     private UserService userService;
     @Inject
-    private ObjectMapper mapper;
+    private Provider<KeyedRateLimiter> limiter;
     private Session session;
+    private User user;
 
     /**
      * Creates a new instance of <code>Session</code> page.
@@ -141,16 +282,38 @@ public class SessionPage extends AbstractPage {
         if (session == null) {
             throw new AbortWithHttpErrorCodeException(HttpServletResponse.SC_NOT_FOUND, "Session not found");
         }
+        sessionService.join(session);
+        user = userService.getCurrentUser();
+        setVersioned(false); // all updates arrive via Ajax and Atmosphere, keep a single page instance in the store
 
+        // a message can't be longer than the database column
+        final int chatMax = Math.min(CHAT_MAX_LENGTH.asInt().or(CHAT_MESSAGE_MAX_LENGTH), CHAT_MESSAGE_MAX_LENGTH);
         final TextArea<String> chatMsg = new TextArea<String>("chatMsg", Model.of(""));
+        chatMsg.add(maximumLength(chatMax), AttributeModifier.replace("maxlength", chatMax));
         Form<?> chatForm = new Form<Void>("chatForm");
         chatForm.add(chatMsg, new AjaxFallbackButton("chatSend", chatForm) {
 
             @Override
             protected void onSubmit(AjaxRequestTarget target, Form<?> form) {
-                ChatMessage message = new ChatMessage(getSession().getId(), userService.getCurrentUser(),
-                                                      chatMsg.getModelObject());
-                post(session.getCode(), message);
+                if (limiter.get().tryAcquire(getSession().getId() + '/' + session.getCode()) > 0) {
+                    metrics.get().meter(name(SessionPage.class, "messages", "throttled")).mark();
+                    if (target != null) {
+                        target.appendJavaScript("Poker.rejected('chat.throttled');");
+                    }
+                    return;
+                }
+                ChatEntry entry = sessionService.post(session, chatMsg.getModelObject());
+                ChatMessage message = new ChatMessage(getSession().getId(), entry.getAuthor(), entry.getMessage());
+                metrics.get().meter(name(SessionPage.class, "messages", "posted")).mark();
+                bridge.publish(session.getCode(), message);
+            }
+
+            @Override
+            protected void onError(AjaxRequestTarget target, Form<?> form) {
+                metrics.get().meter(name(SessionPage.class, "messages", "tooLong")).mark();
+                if (target != null) {
+                    target.appendJavaScript(String.format("Poker.rejected('chat.tooLong', %d);", chatMax));
+                }
             }
 
             @Override
@@ -171,10 +334,36 @@ public class SessionPage extends AbstractPage {
                      AttributeModifier.append("title", session.getDescription()));
         }
 
+        int heartbeat = PRESENCE_HEARTBEAT_SECONDS.asInt().or(DEFAULT_PRESENCE_HEARTBEAT_SECONDS);
+        add(new AbstractAjaxTimerBehavior(Duration.seconds(heartbeat)) {
+
+            @Override
+            protected void onTimer(AjaxRequestTarget target) {
+                String uuid = AtmosphereBehavior.getUUID(getPage());
+                if (uuid != null && user != null && !presence.get().heartbeat(uuid)
+                        && AtmosphereResourceFactory.getDefault().find(uuid) != null) {
+                    // timed out while the connection is still open, e.g. the browser was suspended for a while
+                    presence.get().join(session.getCode(), uuid, user);
+                }
+            }
+
+        });
         add(chatForm.setOutputMarkupId(true), name.setMaxLength(LABEL_MAX_LENGTH),
             new BodylessLabel("session.code", session.getCode()).setMaxLength(LABEL_MAX_LENGTH),
             new BodylessLabel("session.author", session.getAuthor()).setMaxLength(LABEL_MAX_LENGTH),
-            new BodylessLabel("session.created", formatDate(session.getCreated())).setMaxLength(LABEL_MAX_LENGTH));
+            new BodylessLabel("session.created", DateFormatter.get().formatRelative(session.getCreated(), getLocale())).setMaxLength(LABEL_MAX_LENGTH));
+    }
+
+    /**
+     * Registers resource bundles of the page: its script and stylesheet are concatenated with the ones of the custom
+     * scrollbar plugin, so the page costs two resource requests instead of five.
+     * 
+     * @param bundles the application resource bundles
+     */
+    public static void addBundles(ResourceBundles bundles) {
+        bundles.addJavaScriptBundle(SessionPage.class, "session-bundle.js", CustomScrollbarPlugin.getMousewheel(),
+                                    CustomScrollbarPlugin.get(), JS);
+        bundles.addCssBundle(SessionPage.class, "session-bundle.css", CustomScrollbarPlugin.getCss(), CSS);
     }
 
     /**
@@ -183,8 +372,37 @@ public class SessionPage extends AbstractPage {
     @Override
     public void renderHead(IHeaderResponse response) {
         super.renderHead(response);
-        response.render(JavaScriptHeaderItem.forReference(I18N));
+        response.render(JavaScriptHeaderItem.forReference(getI18n()));
         response.render(JavaScriptHeaderItem.forReference(CustomScrollbarPlugin.get()));
+        List<ChatMessage> history = replay.get().getRecent(session.getCode(), new Supplier<List<ChatMessage>>() {
+
+            @Override
+            public List<ChatMessage> get() {
+                List<ChatMessage> messages = Lists.newArrayList();
+                for (ChatEntry entry : sessionService.getHistory(session, replay.get().getCapacity())) {
+                    messages.add(new ChatMessage(null, entry.getAuthor(), entry.getMessage()));
+                }
+                return messages;
+            }
+
+        });
+        List<User> participants = presence.get().getUsers(session.getCode());
+        if (!history.isEmpty() || !participants.isEmpty()) {
+            StringBuilder script = new StringBuilder();
+            try {
+                for (ChatMessage message : history) {
+                    script.append(String.format("Poker.dispatch(%s);", mapper.writeValueAsString(message)));
+                }
+                if (!participants.isEmpty()) { // the participant's own connection isn't registered yet
+                    PresenceMessage roster = new PresenceMessage(null, participants, Collections.<User>emptyList());
+                    script.append(String.format("Poker.dispatch(%s);", mapper.writeValueAsString(roster)));
+                }
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+            // the script is rendered inline, a message mustn't close the script element
+            response.render(OnDomReadyHeaderItem.forScript(script.toString().replace("</", "<\\/")));
+        }
     }
 
     /**
@@ -199,7 +417,9 @@ public class SessionPage extends AbstractPage {
         if (target == null) {
             LOG.warn("Couldn't sent async message, target was null");
         } else {
-            target.appendJavaScript(String.format("Poker.dispatch(%s);", mapper.writeValueAsString(msg)));
+            String payload = mapper.writeValueAsString(msg);
+            metrics.get().histogram(name(SessionPage.class, "messages", "bytes")).update(payload.length());
+            target.appendJavaScript(String.format("Poker.dispatch(%s);", payload));
         }
     }
 
@@ -219,28 +439,4 @@ public class SessionPage extends AbstractPage {
         return JS;
     }
 
-    private static void post(Object channel, Message<?> message) {
-        Broadcaster broadcaster = BroadcasterFactory.getDefault().lookup(channel);
-        if (broadcaster == null) {
-            LOG.info("No active Broadcaster for a channel {}", channel);
-        } else {
-            EventBus eventBus = EventBus.get();
-            for (AtmosphereResource resource : broadcaster.getAtmosphereResources()) {
-                eventBus.post(message, resource);
-            }
-        }
-    }
-
-    private String formatDate(Date created) {
-        final long MILLIS_PER_WEEK = TimeUnit.DAYS.toMillis(7);
-        Locale locale = getLocale();
-        PrettyTime prettyTime = new PrettyTime(locale);
-        Duration largest = Iterables.getFirst(prettyTime.calculatePreciseDuration(created), null);
-        if (largest != null && largest.getUnit().getMillisPerUnit() < MILLIS_PER_WEEK) {
-            return prettyTime.format(largest);
-        } else { // fallback to an absolute date string when difference is more than a week
-            return DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT, locale).format(created);
-        }
-    }
-
 }
@@ -22,7 +22,6 @@ import org.apache.wicket.markup.head.HeaderItem;
 import org.apache.wicket.markup.head.JavaScriptHeaderItem;
 import org.apache.wicket.request.resource.CssResourceReference;
 import org.apache.wicket.request.resource.JavaScriptResourceReference;
-import org.apache.wicket.request.resource.ResourceReference;
 import org.apache.wicket.resource.JQueryPluginResourceReference;
 
 import com.google.common.collect.Iterables;
@@ -36,10 +35,10 @@ import com.google.common.collect.Iterables;
 public class CustomScrollbarPlugin extends JQueryPluginResourceReference {
 
     private static final CustomScrollbarPlugin INSTANCE = new CustomScrollbarPlugin();
-    private static final ResourceReference MOUSEWHEEL = new JavaScriptResourceReference(CustomScrollbarPlugin.class,
-                                                                                        "jquery.mousewheel.js");
-    private static final ResourceReference CSS = new CssResourceReference(CustomScrollbarPlugin.class,
-                                                                          "jquery.mCustomScrollbar.css");
+    private static final JavaScriptResourceReference MOUSEWHEEL =
+            new JavaScriptResourceReference(CustomScrollbarPlugin.class, "jquery.mousewheel.js");
+    private static final CssResourceReference CSS = new CssResourceReference(CustomScrollbarPlugin.class,
+                                                                             "jquery.mCustomScrollbar.css");
 
     /**
      * Returns a single instance of jQuery custom scrollbar plugin resource reference.
@@ -50,6 +49,24 @@ public class CustomScrollbarPlugin extends JQueryPluginResourceReference {
             return INSTANCE;
     }
 
+    /**
+     * Returns a resource reference for jQuery mousewheel plugin the custom scrollbar depends on.
+     * 
+     * @return the mousewheel plugin reference
+     */
+    public static JavaScriptResourceReference getMousewheel() {
+        return MOUSEWHEEL;
+    }
+
+    /**
+     * Returns a resource reference for the stylesheet of the custom scrollbar.
+     * 
+     * @return the stylesheet reference
+     */
+    public static CssResourceReference getCss() {
+        return CSS;
+    }
+
     /**
      * {@inheritDoc}
      */
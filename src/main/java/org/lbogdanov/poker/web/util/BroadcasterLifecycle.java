@@ -0,0 +1,225 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.util;
+
+import static org.lbogdanov.poker.core.Constants.BROADCASTER_LOCK_STRIPES;
+import static org.lbogdanov.poker.core.Constants.BROADCASTER_REAP_SECONDS;
+import static org.lbogdanov.poker.core.Constants.DEFAULT_BROADCASTER_IDLE_SECONDS;
+import static org.lbogdanov.poker.util.Settings.BROADCASTER_IDLE_SECONDS;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.Broadcaster;
+import org.atmosphere.cpr.BroadcasterFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Striped;
+
+
+/**
+ * Manages the lifecycle of session room {@link Broadcaster}s. A Broadcaster is created when the first client of a room
+ * subscribes and is destroyed, along with its cache, once it has had no clients for a grace period, so rooms nobody
+ * comes back to don't pile up on long-running nodes. Subscribing and reaping a room are serialized, a client never
+ * ends up in a Broadcaster which is being destroyed.
+ * 
+ * @author Leonid Bogdanov
+ */
+@Singleton
+public class BroadcasterLifecycle {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BroadcasterLifecycle.class);
+
+    private final long idleNanos;
+    private final Striped<Lock> locks = Striped.lock(BROADCASTER_LOCK_STRIPES);
+    private final ConcurrentMap<String, Long> idleSince = new ConcurrentHashMap<String, Long>();
+    private final AtomicInteger live = new AtomicInteger();
+    private final AtomicLong reaped = new AtomicLong();
+    private final ScheduledExecutorService reaper;
+
+    /**
+     * Creates a new instance of the <code>BroadcasterLifecycle</code> class configured by application settings.
+     * 
+     * @param metrics the registry to report Broadcaster counts to
+     */
+    @Inject
+    public BroadcasterLifecycle(MetricRegistry metrics) {
+        this(metrics, TimeUnit.SECONDS.toMillis(BROADCASTER_IDLE_SECONDS.asLong()
+                                                                     .or((long) DEFAULT_BROADCASTER_IDLE_SECONDS)));
+    }
+
+    /**
+     * Creates a new instance of the <code>BroadcasterLifecycle</code> class and starts a background thread which reaps
+     * idle Broadcasters of the default <code>BroadcasterFactory</code>.
+     * 
+     * @param metrics the registry to report Broadcaster counts to
+     * @param idleMillis the time, in milliseconds, a Broadcaster without clients is kept for
+     */
+    public BroadcasterLifecycle(MetricRegistry metrics, long idleMillis) {
+        idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        metrics.register(name(BroadcasterLifecycle.class, "broadcasters"), new Gauge<Map<String, Long>>() {
+
+            @Override
+            public Map<String, Long> getValue() {
+                return ImmutableMap.of("live", (long) live.get(), "idle", (long) idleSince.size(),
+                                       "reaped", reaped.get());
+            }
+
+        });
+        reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "broadcaster-reaper");
+                thread.setDaemon(true);
+                return thread;
+            }
+
+        });
+        long period = Math.min(TimeUnit.MILLISECONDS.toSeconds(idleMillis), BROADCASTER_REAP_SECONDS);
+        reaper.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                BroadcasterFactory factory = BroadcasterFactory.getDefault();
+                if (factory != null) {
+                    try {
+                        reap(factory);
+                    } catch (RuntimeException e) {
+                        LOG.warn("Failed to reap idle Broadcasters", e);
+                    }
+                }
+            }
+
+        }, period, Math.max(period, 1), TimeUnit.SECONDS);
+    }
+
+    /**
+     * Adds a client to the Broadcaster of a room, the Broadcaster is created if there is none.
+     * 
+     * @param factory the factory to look the Broadcaster up in
+     * @param channel the room's channel, i.e. the session code
+     * @param resource the client's resource
+     * @return the Broadcaster
+     */
+    public Broadcaster subscribe(BroadcasterFactory factory, String channel, AtmosphereResource resource) {
+        Lock lock = locks.get(channel);
+        lock.lock();
+        try {
+            Broadcaster broadcaster = factory.lookup(channel, true);
+            broadcaster.addAtmosphereResource(resource);
+            idleSince.remove(channel);
+            return broadcaster;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Destroys Broadcasters which have had no clients for longer than the grace period and starts the grace period of
+     * the ones which have just lost their last client.
+     * 
+     * @param factory the factory which Broadcasters to check
+     * @return the number of destroyed Broadcasters
+     */
+    public int reap(BroadcasterFactory factory) {
+        long now = System.nanoTime();
+        int count = 0, active = 0;
+        for (Broadcaster broadcaster : factory.lookupAll()) {
+            String channel = broadcaster.getID();
+            if (!broadcaster.getAtmosphereResources().isEmpty()) {
+                idleSince.remove(channel);
+                active++;
+                continue;
+            }
+            Long since = idleSince.putIfAbsent(channel, now);
+            if (since != null && now - since >= idleNanos) {
+                Lock lock = locks.get(channel);
+                lock.lock();
+                try {
+                    if (broadcaster.getAtmosphereResources().isEmpty()) { // nobody has subscribed meanwhile
+                        broadcaster.destroy();
+                        count++;
+                    } else {
+                        active++;
+                    }
+                    idleSince.remove(channel);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+        for (String channel : idleSince.keySet()) { // destroyed by somebody else
+            if (factory.lookup(channel) == null) {
+                idleSince.remove(channel);
+            }
+        }
+        live.set(active);
+        reaped.addAndGet(count);
+        if (count > 0) {
+            LOG.debug("Reaped {} idle Broadcaster(s)", count);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of Broadcasters which had clients during the last check.
+     * 
+     * @return the number of live Broadcasters
+     */
+    public int getLive() {
+        return live.get();
+    }
+
+    /**
+     * Returns the number of Broadcasters without clients which wait for their grace period to end.
+     * 
+     * @return the number of idle Broadcasters
+     */
+    public int getIdle() {
+        return idleSince.size();
+    }
+
+    /**
+     * Returns the total number of destroyed Broadcasters.
+     * 
+     * @return the number of reaped Broadcasters
+     */
+    public long getReaped() {
+        return reaped.get();
+    }
+
+    /**
+     * Stops the background thread.
+     */
+    public void stop() {
+        reaper.shutdownNow();
+    }
+
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.util;
+
+import static org.lbogdanov.poker.core.Constants.CHAT_HISTORY_ROOMS;
+import static org.lbogdanov.poker.core.Constants.DEFAULT_CHAT_HISTORY_SIZE;
+import static org.lbogdanov.poker.util.Settings.CHAT_HISTORY_SIZE;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Singleton;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+
+/**
+ * Keeps the most recent chat messages of every active session in a fixed-size ring buffer, so that clients joining
+ * a session get its recent history without a database query. A ring of a session is seeded from the persisted history
+ * when the first client joins the session on the local node and is then filled by the messages delivered to the node.
+ * Messages of sessions without a ring are skipped, the history read later includes them.
+ * 
+ * @author Leonid Bogdanov
+ */
+@Singleton
+public class ChatReplay {
+
+    /**
+     * A fixed-size ring buffer of messages, the oldest messages are overwritten.
+     */
+    private static final class Ring {
+
+        private final ChatMessage[] messages;
+        private int next;
+        private int size;
+
+        public Ring(int capacity) {
+            messages = new ChatMessage[capacity];
+        }
+
+        public synchronized void add(ChatMessage message) {
+            messages[next] = message;
+            next = (next + 1) % messages.length;
+            size = Math.min(size + 1, messages.length);
+        }
+
+        public synchronized List<ChatMessage> snapshot() {
+            ChatMessage[] snapshot = new ChatMessage[size];
+            int first = (next - size + messages.length) % messages.length;
+            for (int i = 0; i < size; i++) {
+                snapshot[i] = messages[(first + i) % messages.length];
+            }
+            return Arrays.asList(snapshot);
+        }
+
+    }
+
+    private final int capacity = CHAT_HISTORY_SIZE.asInt().or(DEFAULT_CHAT_HISTORY_SIZE);
+    private final Cache<String, Ring> rings = CacheBuilder.newBuilder()
+                                                          .maximumSize(CHAT_HISTORY_ROOMS)
+                                                          .expireAfterAccess(1, TimeUnit.DAYS)
+                                                          .build();
+
+    /**
+     * Appends a message to the recent history of a channel (a Planning Poker session code), if the history of the
+     * channel has been seeded already.
+     * 
+     * @param channel the channel
+     * @param message the message
+     */
+    public void add(String channel, ChatMessage message) {
+        Ring ring = rings.getIfPresent(channel);
+        if (ring != null) { // an unseeded ring would hide the persisted history, e.g. after a restart
+            ring.add(message);
+        }
+    }
+
+    /**
+     * Returns the recent messages of a channel, the oldest first.
+     * 
+     * @param channel the channel
+     * @param history supplies the persisted history of the channel to seed its ring with
+     * @return the messages
+     */
+    public List<ChatMessage> getRecent(String channel, Supplier<? extends Collection<ChatMessage>> history) {
+        return capacity > 0 ? ring(channel, history).snapshot() : Arrays.<ChatMessage>asList();
+    }
+
+    /**
+     * Returns the max number of messages kept per channel, <code>0</code> if the history is disabled.
+     * 
+     * @return the capacity of a ring
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private Ring ring(String channel, final Supplier<? extends Collection<ChatMessage>> history) {
+        try {
+            return rings.get(channel, new Callable<Ring>() {
+
+                @Override
+                public Ring call() {
+                    Ring ring = new Ring(capacity);
+                    for (ChatMessage message : history.get()) {
+                        ring.add(message);
+                    }
+                    return ring;
+                }
+
+            });
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.util;
+
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.time.FastDateFormat;
+import org.ocpsoft.prettytime.Duration;
+import org.ocpsoft.prettytime.PrettyTime;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+
+
+/**
+ * Formats dates for display. Formatters are created once per locale and shared by all threads, relative dates are
+ * memoized for {@value #RELATIVE_TTL_SECONDS} seconds.
+ * 
+ * @author Leonid Bogdanov
+ */
+public final class DateFormatter {
+
+    /**
+     * For how long, in seconds, a relative date string is reused.
+     */
+    public static final long RELATIVE_TTL_SECONDS = 30;
+
+    private static final long MILLIS_PER_WEEK = TimeUnit.DAYS.toMillis(7);
+    private static final DateFormatter INSTANCE = new DateFormatter();
+
+    private final LoadingCache<Locale, PrettyTime> prettyTimes = CacheBuilder.newBuilder().build(
+            new CacheLoader<Locale, PrettyTime>() {
+
+                @Override
+                public PrettyTime load(Locale locale) {
+                    PrettyTime prettyTime = new PrettyTime(locale);
+                    prettyTime.getUnits(); // units are initialized lazily, the instance is read only afterwards
+                    return prettyTime;
+                }
+
+            });
+    private final Cache<Map.Entry<Locale, Long>, String> relatives = CacheBuilder.newBuilder()
+                                                                                 .maximumSize(10000)
+                                                                                 .expireAfterWrite(RELATIVE_TTL_SECONDS,
+                                                                                                   TimeUnit.SECONDS)
+                                                                                 .build();
+
+    /**
+     * Returns a single instance of <code>DateFormatter</code>.
+     * 
+     * @return the <code>DateFormatter</code> instance
+     */
+    public static DateFormatter get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Formats a date and time using given <code>DateFormat</code> styles.
+     * 
+     * @param date the date to format
+     * @param dateStyle the date style, e.g. <code>DateFormat.SHORT</code>
+     * @param timeStyle the time style, e.g. <code>DateFormat.SHORT</code>
+     * @param locale the locale
+     * @return the formatted date
+     */
+    public String format(Date date, int dateStyle, int timeStyle, Locale locale) {
+        return FastDateFormat.getDateTimeInstance(dateStyle, timeStyle, locale).format(date);
+    }
+
+    /**
+     * Formats a date relative to the current time, e.g. "5 minutes ago", falls back to a short date and time if the
+     * difference is more than a week.
+     * 
+     * @param date the date to format
+     * @param locale the locale
+     * @return the formatted date
+     */
+    public String formatRelative(final Date date, final Locale locale) {
+        try {
+            return relatives.get(Maps.immutableEntry(locale, date.getTime()), new Callable<String>() {
+
+                @Override
+                public String call() {
+                    PrettyTime prettyTime = prettyTimes.getUnchecked(locale);
+                    Duration largest = Iterables.getFirst(prettyTime.calculatePreciseDuration(date), null);
+                    if (largest != null && largest.getUnit().getMillisPerUnit() < MILLIS_PER_WEEK) {
+                        return prettyTime.format(largest);
+                    } else {
+                        return format(date, FastDateFormat.SHORT, FastDateFormat.SHORT, locale);
+                    }
+                }
+
+            });
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private DateFormatter() {}
+
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.util;
+
+import java.io.IOException;
+
+import javax.inject.Singleton;
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpSession;
+
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.atmosphere.cpr.HeaderConfig;
+
+import com.google.common.base.Strings;
+
+
+/**
+ * Keeps plain page requests from getting an HTTP session before the application needs one. With session support
+ * enabled Atmosphere creates a session for every request it handles, Atmosphere and regular ones alike, so even a
+ * stateless page rendered for an anonymous visitor would cost a session. For requests which aren't Atmosphere
+ * requests this filter ignores <code>getSession(true)</code> until Wicket processes the request, that is when a
+ * stateful page or a login actually binds a session.
+ * 
+ * @author Leonid Bogdanov
+ */
+@Singleton
+public class DeferredSessionFilter implements Filter {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {}
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        if (isAtmosphere(httpRequest)) {
+            chain.doFilter(request, response);
+        } else {
+            // getSession() is left as is, it must never return null
+            chain.doFilter(new HttpServletRequestWrapper(httpRequest) {
+
+                @Override
+                public HttpSession getSession(boolean create) {
+                    // Wicket binds sessions within a request cycle, anything creating a session before that doesn't need it
+                    return super.getSession(create && RequestCycle.get() != null);
+                }
+
+            }, response);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy() {}
+
+    private static boolean isAtmosphere(HttpServletRequest request) {
+        // the query string is checked rather than parameters not to parse request bodies here
+        return Strings.nullToEmpty(request.getQueryString()).contains(HeaderConfig.X_ATMOSPHERE_TRANSPORT)
+               || request.getHeader(HeaderConfig.X_ATMOSPHERE_TRANSPORT) != null
+               || "websocket".equalsIgnoreCase(request.getHeader("Upgrade"));
+    }
+
+}
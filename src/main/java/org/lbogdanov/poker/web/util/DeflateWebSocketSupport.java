@@ -0,0 +1,110 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.util;
+
+import static org.lbogdanov.poker.core.Constants.DEFAULT_WEBSOCKET_DEFLATE_BYTES;
+import static org.lbogdanov.poker.util.Settings.WEBSOCKET_DEFLATE_BYTES;
+
+import java.io.IOException;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+
+import org.atmosphere.container.JettyWebSocketUtil;
+import org.atmosphere.container.Servlet30CometSupport;
+import org.atmosphere.cpr.Action;
+import org.atmosphere.cpr.AtmosphereConfig;
+import org.atmosphere.cpr.AtmosphereRequest;
+import org.atmosphere.cpr.AtmosphereResponse;
+import org.atmosphere.cpr.WebSocketProcessorFactory;
+import org.eclipse.jetty.websocket.DeflateFrameExtension;
+import org.eclipse.jetty.websocket.WebSocketFactory;
+
+import com.google.common.collect.Maps;
+
+
+/**
+ * Atmosphere support for Jetty 8 with Servlet 3.0 async and WebSocket, like Atmosphere's own
+ * <code>JettyServlet30AsyncSupportWithWebSocket</code>, which compresses large WebSocket frames. Clients negotiating
+ * the <code>x-deflate-frame</code> extension get frames of at least <code>websocket.deflate.bytes</code> deflated,
+ * smaller frames aren't worth the CPU and are sent as is.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class DeflateWebSocketSupport extends Servlet30CometSupport {
+
+    private final WebSocketFactory factory;
+
+    /**
+     * Creates a new instance of the <code>DeflateWebSocketSupport</code> class.
+     * 
+     * @param config the Atmosphere configuration
+     */
+    public DeflateWebSocketSupport(AtmosphereConfig config) {
+        super(config);
+        factory = JettyWebSocketUtil.getFactory(config,
+                                                WebSocketProcessorFactory.getDefault()
+                                                                         .getWebSocketProcessor(config.framework()));
+        factory.getExtensionClassesMap().put("x-deflate-frame", LargeFrameDeflateExtension.class);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Action service(AtmosphereRequest req, AtmosphereResponse res) throws IOException, ServletException {
+        Action action = JettyWebSocketUtil.doService(this, req, res, factory);
+        return action == null ? super.service(req, res) : action;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getContainerName() {
+        return config.getServletConfig().getServletContext().getServerInfo() + " with WebSocket enabled.";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean supportWebSocket() {
+        return true;
+    }
+
+    /**
+     * The <code>x-deflate-frame</code> extension with the min length of compressed frames set by the server unless a
+     * client asks for another one. Jetty instantiates extensions by their classes, hence the class is public.
+     */
+    public static class LargeFrameDeflateExtension extends DeflateFrameExtension {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean init(Map<String, String> parameters) {
+            Map<String, String> withMinLength = Maps.newHashMap(parameters);
+            if (!withMinLength.containsKey("minLength")) {
+                int minLength = WEBSOCKET_DEFLATE_BYTES.asInt().or(DEFAULT_WEBSOCKET_DEFLATE_BYTES);
+                withMinLength.put("minLength", String.valueOf(minLength));
+            }
+            return super.init(withMinLength);
+        }
+
+    }
+
+}
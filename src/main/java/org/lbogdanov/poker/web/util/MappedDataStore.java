@@ -0,0 +1,286 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.wicket.pageStore.IDataStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+
+
+/**
+ * An <code>IDataStore</code> which keeps serialized pages in a memory-mapped file of a fixed size, so they neither
+ * occupy the heap nor cost a file write per page like <code>DiskDataStore</code>. The file is used as a ring: new pages
+ * are appended and overwrite the oldest ones once the end of the file is reached. Besides that every session keeps no
+ * more than a configured amount of bytes, the oldest pages of a session are dropped first.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class MappedDataStore implements IDataStore {
+
+    /**
+     * A position of a page in the file.
+     */
+    private static final class Location {
+
+        private final int offset;
+        private final int length;
+        private final long cycle;
+
+        Location(int offset, int length, long cycle) {
+            this.offset = offset;
+            this.length = length;
+            this.cycle = cycle;
+        }
+
+    }
+
+    /**
+     * Pages of a session in the order they were stored.
+     */
+    private static final class SessionEntry {
+
+        private final LinkedHashMap<Integer, Location> pages = new LinkedHashMap<Integer, Location>();
+        private long size;
+
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedDataStore.class);
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final long maxSizePerSession;
+    private final ConcurrentMap<String, SessionEntry> sessions = new ConcurrentHashMap<String, SessionEntry>();
+    private final AtomicLong size = new AtomicLong();
+    private int position; // guarded by buffer
+    private long cycle; // guarded by buffer
+
+    /**
+     * Creates a new instance of the <code>MappedDataStore</code> class.
+     * 
+     * @param file the file to map, it's overwritten if exists
+     * @param capacity the size of the file in bytes
+     * @param maxSizePerSession the maximum number of bytes a single session can occupy
+     */
+    public MappedDataStore(File file, int capacity, long maxSizePerSession) {
+        this.file = file;
+        this.capacity = capacity;
+        this.maxSizePerSession = maxSizePerSession;
+        try {
+            file.getParentFile().mkdirs();
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(capacity);
+            buffer = raf.getChannel().map(MapMode.READ_WRITE, 0, capacity);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] getData(String sessionId, int id) {
+        SessionEntry entry = sessions.get(sessionId);
+        if (entry == null) {
+            return null;
+        }
+        Location location;
+        synchronized (entry) {
+            location = entry.pages.get(id);
+        }
+        if (location == null) {
+            return null;
+        }
+        byte[] data = new byte[location.length];
+        synchronized (buffer) {
+            if (isOverwritten(location)) {
+                data = null;
+            } else {
+                ByteBuffer view = buffer.duplicate();
+                view.position(location.offset);
+                view.get(data);
+            }
+        }
+        if (data == null) { // forget the page unless a newer version has just been stored
+            synchronized (entry) {
+                if (entry.pages.get(id) == location) {
+                    entry.pages.remove(id);
+                    entry.size -= location.length;
+                    size.addAndGet(-location.length);
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeData(String sessionId, int id) {
+        SessionEntry entry = sessions.get(sessionId);
+        if (entry != null) {
+            synchronized (entry) {
+                Location location = entry.pages.remove(id);
+                if (location != null) {
+                    entry.size -= location.length;
+                    size.addAndGet(-location.length);
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeData(String sessionId) {
+        SessionEntry entry = sessions.remove(sessionId);
+        if (entry != null) {
+            synchronized (entry) {
+                size.addAndGet(-entry.size);
+                entry.pages.clear();
+                entry.size = 0;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void storeData(String sessionId, int id, byte[] data) {
+        if (data.length > capacity || data.length > maxSizePerSession) {
+            LOG.warn("Page {} of {} bytes doesn't fit into the store", id, data.length);
+            return;
+        }
+        Location location;
+        synchronized (buffer) {
+            if (position + data.length > capacity) {
+                position = 0;
+                cycle++;
+            }
+            ByteBuffer view = buffer.duplicate();
+            view.position(position);
+            view.put(data);
+            location = new Location(position, data.length, cycle);
+            position += data.length;
+        }
+        SessionEntry entry = sessions.get(sessionId);
+        if (entry == null) {
+            SessionEntry newEntry = new SessionEntry();
+            entry = sessions.putIfAbsent(sessionId, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+            }
+        }
+        synchronized (entry) {
+            Location previous = entry.pages.remove(id);
+            long delta = data.length - (previous == null ? 0 : previous.length);
+            entry.pages.put(id, location);
+            for (Iterator<Location> i = entry.pages.values().iterator(); entry.size + delta > maxSizePerSession;) {
+                Location oldest = i.next();
+                i.remove();
+                delta -= oldest.length;
+            }
+            entry.size += delta;
+            size.addAndGet(delta);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy() {
+        sessions.clear();
+        size.set(0);
+        try {
+            raf.close();
+        } catch (IOException e) {
+            LOG.warn("Failed to close {}", file, e);
+        }
+        if (!file.delete()) { // the mapping may outlive the channel until garbage collected
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isReplicated() {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean canBeAsynchronous() {
+        return true;
+    }
+
+    /**
+     * Returns the number of sessions which have pages in the store.
+     * 
+     * @return the number of sessions
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Returns the total size of pages in the store, including pages which have been overwritten already, but not
+     * requested since then.
+     * 
+     * @return the size in bytes
+     */
+    public long getSize() {
+        return size.get();
+    }
+
+    /**
+     * Returns the size of the file.
+     * 
+     * @return the size in bytes
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private boolean isOverwritten(Location location) {
+        // the ring has either passed the page completely or already reached it on the next cycle
+        return cycle > location.cycle + 1 || cycle == location.cycle + 1 && position > location.offset;
+    }
+
+}
@@ -0,0 +1,305 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.wicket.Application;
+import org.apache.wicket.request.resource.CssPackageResource;
+import org.apache.wicket.request.resource.JavaScriptPackageResource;
+import org.apache.wicket.request.resource.PackageResource;
+import org.apache.wicket.request.resource.caching.IStaticCacheableResource;
+import org.apache.wicket.resource.ITextResourceCompressor;
+import org.apache.wicket.settings.IResourceSettings;
+import org.apache.wicket.util.resource.IResourceStream;
+import org.apache.wicket.util.time.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+
+/**
+ * Keeps the content of static resources, as is and gzipped, in a memory-mapped file, so serving a resource neither
+ * reads it from the class path nor compresses it again. Every resource is prepared once, the first time it's
+ * requested, and stays cached until the application stops: that's safe as long as resources don't change at runtime,
+ * i.e. in the deployment mode.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class MappedResourceCache {
+
+    /**
+     * The cached content of a resource.
+     */
+    public static final class Entry {
+
+        private final String contentType;
+        private final Time lastModified;
+        private final String digest;
+        private final ByteBuffer identity;
+        private final ByteBuffer gzip;
+
+        Entry(String contentType, Time lastModified, String digest, ByteBuffer identity, ByteBuffer gzip) {
+            this.contentType = contentType;
+            this.lastModified = lastModified;
+            this.digest = digest;
+            this.identity = identity;
+            this.gzip = gzip;
+        }
+
+        /**
+         * Returns the content type of the resource, can be <b>null</b>.
+         * 
+         * @return the content type
+         */
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * Returns the last modification time of the resource, can be <b>null</b>.
+         * 
+         * @return the last modification time
+         */
+        public Time getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Returns an entity tag of the resource content in the specified encoding.
+         * 
+         * @param gzipped whether the tag of the gzipped content is requested
+         * @return the quoted entity tag
+         */
+        public String getETag(boolean gzipped) {
+            return '"' + digest + (gzipped ? "-gzip\"" : "\"");
+        }
+
+        /**
+         * Checks if the resource has a gzipped variant: only textual resources which shrink are compressed.
+         * 
+         * @return <code>true</code> if the gzipped content is available
+         */
+        public boolean isCompressed() {
+            return gzip != null;
+        }
+
+        /**
+         * Checks if the resource is of a type worth compressing, whether or not it actually shrank.
+         * 
+         * @return <code>true</code> if the content type of the resource is textual
+         */
+        public boolean isCompressible() {
+            return MappedResourceCache.isCompressible(contentType);
+        }
+
+        /**
+         * Returns the content of the resource in the specified encoding, the returned buffer is read only and
+         * independent of buffers returned to other callers.
+         * 
+         * @param gzipped whether the gzipped content is requested
+         * @return the content
+         */
+        public ByteBuffer getContent(boolean gzipped) {
+            return (gzipped && gzip != null ? gzip : identity).duplicate();
+        }
+
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedResourceCache.class);
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final Cache<Serializable, Entry> entries = CacheBuilder.newBuilder().build();
+    private long size; // guarded by channel
+
+    /**
+     * Creates a new instance of the <code>MappedResourceCache</code> class.
+     * 
+     * @param file the file to keep resources in, it's overwritten if exists
+     */
+    public MappedResourceCache(File file) {
+        this.file = file;
+        try {
+            file.getParentFile().mkdirs();
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(0);
+            channel = raf.getChannel();
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Returns the cached content of a resource, the resource is read and compressed if it isn't cached yet.
+     * 
+     * @param resource the resource, its cache key identifies the entry
+     * @return the cached entry
+     * @throws IOException if the resource can't be read or cached
+     */
+    public Entry get(final IStaticCacheableResource resource) throws IOException {
+        try {
+            return entries.get(resource.getCacheKey(), new Callable<Entry>() {
+
+                @Override
+                public Entry call() throws Exception {
+                    return load(resource);
+                }
+
+            });
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Returns the number of cached resources.
+     * 
+     * @return the number of resources
+     */
+    public long getCount() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the size of the cache file in bytes.
+     * 
+     * @return the size of the file
+     */
+    public long getSize() {
+        synchronized (channel) {
+            return size;
+        }
+    }
+
+    /**
+     * Drops all cached resources and removes the cache file.
+     */
+    public void destroy() {
+        entries.invalidateAll();
+        try {
+            raf.close();
+        } catch (IOException e) {
+            LOG.warn("Failed to close {}", file, e);
+        }
+        if (!file.delete()) { // the mapping may outlive the channel until garbage collected
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Checks if resources of the specified content type are worth compressing.
+     * 
+     * @param contentType the content type, can be <b>null</b>
+     * @return <code>true</code> if the content type is textual
+     */
+    static boolean isCompressible(String contentType) {
+        return contentType != null && (contentType.startsWith("text/") || contentType.contains("javascript")
+                                       || contentType.contains("json") || contentType.contains("xml"));
+    }
+
+    private Entry load(IStaticCacheableResource resource) throws IOException {
+        IResourceStream stream = resource.getCacheableResourceStream();
+        if (stream == null) {
+            throw new IOException("No resource stream for " + resource.getCacheKey());
+        }
+        String contentType = stream.getContentType();
+        Time lastModified = stream.lastModifiedTime();
+        byte[] data;
+        try {
+            InputStream in = stream.getInputStream();
+            try {
+                data = ByteStreams.toByteArray(in);
+            } finally {
+                in.close();
+            }
+            data = minify(resource, data);
+        } catch (Exception e) {
+            Throwables.propagateIfInstanceOf(e, IOException.class);
+            throw new IOException("Failed to read " + resource.getCacheKey(), e);
+        } finally {
+            stream.close();
+        }
+        byte[] gzipped = isCompressible(contentType) ? gzip(data) : null;
+        synchronized (channel) {
+            ByteBuffer identity = append(data);
+            ByteBuffer gzip = gzipped != null && gzipped.length < data.length ? append(gzipped) : null;
+            return new Entry(contentType, lastModified, Hashing.md5().hashBytes(data).toString(),
+                             identity, gzip);
+        }
+    }
+
+    // guarded by channel
+    private ByteBuffer append(byte[] data) throws IOException {
+        ByteBuffer src = ByteBuffer.wrap(data);
+        while (src.hasRemaining()) {
+            channel.write(src, size + src.position());
+        }
+        ByteBuffer buffer = channel.map(MapMode.READ_ONLY, size, data.length);
+        size += data.length;
+        return buffer;
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 2);
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Applies the compressor Wicket would apply serving the resource itself, the cacheable stream of a resource
+     * is the raw one.
+     */
+    private static byte[] minify(IStaticCacheableResource resource, byte[] data) {
+        if (!(resource instanceof PackageResource) || !((PackageResource) resource).getCompress()
+                || !Application.exists()) {
+            return data;
+        }
+        IResourceSettings settings = Application.get().getResourceSettings();
+        ITextResourceCompressor compressor = null;
+        if (resource instanceof JavaScriptPackageResource) {
+            compressor = settings.getJavaScriptCompressor();
+        } else if (resource instanceof CssPackageResource) {
+            compressor = settings.getCssCompressor();
+        }
+        return compressor == null ? data : compressor.compress(new String(data, Charsets.UTF_8)).getBytes(Charsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.util;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.wicket.request.IRequestCycle;
+import org.apache.wicket.request.IRequestHandler;
+import org.apache.wicket.request.IRequestMapper;
+import org.apache.wicket.request.Request;
+import org.apache.wicket.request.Url;
+import org.apache.wicket.request.handler.resource.ResourceReferenceRequestHandler;
+import org.apache.wicket.request.handler.resource.ResourceRequestHandler;
+import org.apache.wicket.request.http.WebRequest;
+import org.apache.wicket.request.resource.AbstractResource;
+import org.apache.wicket.request.resource.IResource;
+import org.apache.wicket.request.resource.caching.IStaticCacheableResource;
+import org.apache.wicket.util.resource.IResourceStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+
+
+/**
+ * An <code>IRequestMapper</code> decorator which serves static resources, package resources and resource bundles,
+ * from a {@link MappedResourceCache}. Clients accepting gzip get the compressed variant, every response carries an
+ * entity tag of its variant and <code>Vary: Accept-Encoding</code> for compressible resources, so conditional requests
+ * are answered with <code>304 Not Modified</code>. Caching headers are still set by the application's resource caching
+ * strategy, versioned URLs are cached for a year.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class MappedResourceMapper implements IRequestMapper {
+
+    /**
+     * A resource served from the cache, delegates caching related methods to the original resource so the caching
+     * strategy treats it the same way.
+     */
+    private final class CachedResource extends AbstractResource implements IStaticCacheableResource {
+
+        private final IStaticCacheableResource resource;
+
+        CachedResource(IStaticCacheableResource resource) {
+            this.resource = resource;
+        }
+
+        @Override
+        public boolean isCachingEnabled() {
+            return resource.isCachingEnabled();
+        }
+
+        @Override
+        public Serializable getCacheKey() {
+            return resource.getCacheKey();
+        }
+
+        @Override
+        public IResourceStream getCacheableResourceStream() {
+            return resource.getCacheableResourceStream();
+        }
+
+        @Override
+        protected ResourceResponse newResourceResponse(Attributes attributes) {
+            ResourceResponse response = new ResourceResponse();
+            final MappedResourceCache.Entry entry;
+            try {
+                entry = cache.get(resource);
+            } catch (IOException e) {
+                LOG.warn("Failed to cache resource {}", resource.getCacheKey(), e);
+                response.setError(HttpServletResponse.SC_NOT_FOUND);
+                return response;
+            }
+            WebRequest request = (WebRequest) attributes.getRequest();
+            final boolean gzipped = entry.isCompressed() && acceptsGzip(request);
+            String etag = entry.getETag(gzipped);
+            response.setContentType(entry.getContentType());
+            response.setLastModified(entry.getLastModified());
+            response.getHeaders().addHeader("ETag", etag);
+            if (entry.isCompressible()) {
+                response.getHeaders().addHeader("Vary", "Accept-Encoding");
+            }
+            if (matches(request.getHeader("If-None-Match"), etag)) {
+                response.setStatusCode(HttpServletResponse.SC_NOT_MODIFIED);
+                return response;
+            }
+            if (gzipped) {
+                response.getHeaders().addHeader("Content-Encoding", "gzip");
+                compressed.mark();
+            }
+            ByteBuffer content = entry.getContent(gzipped);
+            response.setContentLength(content.remaining());
+            response.setWriteCallback(new WriteCallback() {
+
+                @Override
+                public void writeData(Attributes attributes) throws IOException {
+                    ByteBuffer content = entry.getContent(gzipped);
+                    OutputStream out = attributes.getResponse().getOutputStream();
+                    byte[] chunk = new byte[Math.min(CHUNK_SIZE, content.remaining())];
+                    while (content.hasRemaining()) {
+                        int length = Math.min(chunk.length, content.remaining());
+                        content.get(chunk, 0, length);
+                        out.write(chunk, 0, length);
+                    }
+                }
+
+            });
+            return response;
+        }
+
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedResourceMapper.class);
+    private static final Pattern GZIP_REJECTED = Pattern.compile("^gzip\\s*;\\s*q\\s*=\\s*0(\\.0*)?$");
+    private static final int CHUNK_SIZE = 8192;
+
+    private final IRequestMapper delegate;
+    private final MappedResourceCache cache;
+    private final Meter compressed;
+
+    /**
+     * Creates a new instance of the <code>MappedResourceMapper</code> class.
+     * 
+     * @param delegate the mapper to decorate
+     * @param cache the cache to serve resources from
+     * @param metrics the registry to report compressed responses to
+     */
+    public MappedResourceMapper(IRequestMapper delegate, MappedResourceCache cache, MetricRegistry metrics) {
+        this.delegate = delegate;
+        this.cache = cache;
+        compressed = metrics.meter(name(MappedResourceCache.class, "gzipped"));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IRequestHandler mapRequest(Request request) {
+        IRequestHandler handler = delegate.mapRequest(request);
+        if (!(handler instanceof ResourceReferenceRequestHandler)) {
+            return handler;
+        }
+        IResource resource = ((ResourceReferenceRequestHandler) handler).getResource();
+        if (!(resource instanceof IStaticCacheableResource)) {
+            return handler;
+        }
+        final IStaticCacheableResource cacheable = (IStaticCacheableResource) resource;
+        if (!cacheable.isCachingEnabled() || cacheable.getCacheKey() == null) {
+            return handler;
+        }
+        return new ResourceReferenceRequestHandler(((ResourceReferenceRequestHandler) handler).getResourceReference(),
+                                                   ((ResourceReferenceRequestHandler) handler).getPageParameters()) {
+
+            @Override
+            public void respond(IRequestCycle requestCycle) {
+                new ResourceRequestHandler(new CachedResource(cacheable), getPageParameters()).respond(requestCycle);
+            }
+
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getCompatibilityScore(Request request) {
+        return delegate.getCompatibilityScore(request);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Url mapHandler(IRequestHandler requestHandler) {
+        return delegate.mapHandler(requestHandler);
+    }
+
+    private static boolean acceptsGzip(WebRequest request) {
+        for (String coding : Splitter.on(',').trimResults().split(Strings.nullToEmpty(request.getHeader("Accept-Encoding")))) {
+            if (coding.startsWith("gzip") || coding.startsWith("*")) {
+                return !GZIP_REJECTED.matcher(coding.replaceFirst("^\\*", "gzip")).matches();
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        for (String tag : Splitter.on(',').trimResults().omitEmptyStrings().split(Strings.nullToEmpty(ifNoneMatch))) {
+            if ("*".equals(tag) || etag.equals(tag.replaceFirst("^W/", ""))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,328 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.util;
+
+import static org.lbogdanov.poker.core.Constants.DEFAULT_PRESENCE_FLUSH_MILLIS;
+import static org.lbogdanov.poker.core.Constants.DEFAULT_PRESENCE_TIMEOUT_SECONDS;
+import static org.lbogdanov.poker.core.Constants.PRESENCE_TICK_MILLIS;
+import static org.lbogdanov.poker.core.Constants.PRESENCE_WHEEL_SIZE;
+import static org.lbogdanov.poker.util.Settings.PRESENCE_FLUSH_MILLIS;
+import static org.lbogdanov.poker.util.Settings.PRESENCE_TIMEOUT_SECONDS;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.lbogdanov.poker.core.User;
+import org.lbogdanov.poker.util.HashedWheelTimer;
+import org.lbogdanov.poker.web.cluster.ClusterBridge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.LinkedHashMultiset;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
+
+
+/**
+ * Tracks who is connected to every session room of the local node. A connection joins a room when its Atmosphere
+ * resource is registered, proves it's alive with heartbeats and leaves when the resource is unregistered or no
+ * heartbeat arrives within the timeout. Timeouts are driven by a single {@link HashedWheelTimer}: a heartbeat only
+ * moves the connection's deadline forward, and an expired timeout is re-armed for the rest of the deadline if it has
+ * moved meanwhile.
+ * <p>
+ * Participants join a room with their first connection and leave it with the last one. Joins and leaves are collected
+ * per room and published via {@link ClusterBridge} as {@link PresenceMessage}s once per flush interval, a participant
+ * who leaves and joins again within an interval, e.g. reconnecting, isn't reported at all.
+ * 
+ * @author Leonid Bogdanov
+ */
+@Singleton
+public class Presence {
+
+    /**
+     * A single connection of a participant.
+     */
+    private static final class Member {
+
+        private final String channel;
+        private final String uuid;
+        private final User user;
+        private volatile long deadline;
+        private volatile HashedWheelTimer.Timeout timeout;
+
+        public Member(String channel, String uuid, User user, long deadline) {
+            this.channel = channel;
+            this.uuid = uuid;
+            this.user = user;
+            this.deadline = deadline;
+        }
+
+    }
+
+    /**
+     * Joins and leaves of a room not published yet.
+     */
+    private static final class Delta {
+
+        private final Set<User> joined = Sets.newLinkedHashSet();
+        private final Set<User> left = Sets.newLinkedHashSet();
+
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(Presence.class);
+
+    private final ClusterBridge bridge;
+    private final long timeoutNanos;
+    private final long flushMillis;
+    private final HashedWheelTimer timer;
+    private final ConcurrentMap<String, Member> members = new ConcurrentHashMap<String, Member>();
+    private final Map<String, Multiset<User>> rooms = Maps.newHashMap(); // guarded by itself, as well as deltas
+    private Map<String, Delta> deltas = Maps.newHashMap();
+    private final Meter joins;
+    private final Meter leaves;
+    private final Meter expired;
+
+    /**
+     * Creates a new instance of the <code>Presence</code> class configured by application settings.
+     * 
+     * @param bridge the bridge to publish presence messages to
+     * @param metrics the registry to report presence metrics to
+     */
+    @Inject
+    public Presence(ClusterBridge bridge, MetricRegistry metrics) {
+        this(bridge, metrics,
+             TimeUnit.SECONDS.toMillis(PRESENCE_TIMEOUT_SECONDS.asLong().or((long) DEFAULT_PRESENCE_TIMEOUT_SECONDS)),
+             PRESENCE_FLUSH_MILLIS.asLong().or((long) DEFAULT_PRESENCE_FLUSH_MILLIS));
+    }
+
+    /**
+     * Creates a new instance of the <code>Presence</code> class and starts its timer.
+     * 
+     * @param bridge the bridge to publish presence messages to
+     * @param metrics the registry to report presence metrics to
+     * @param timeoutMillis the time, in milliseconds, a connection stays in a room without heartbeats
+     * @param flushMillis the interval, in milliseconds, joins and leaves are published at
+     */
+    public Presence(ClusterBridge bridge, MetricRegistry metrics, long timeoutMillis, long flushMillis) {
+        this.bridge = bridge;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.flushMillis = flushMillis;
+        timer = new HashedWheelTimer("presence-timer", PRESENCE_TICK_MILLIS, TimeUnit.MILLISECONDS, PRESENCE_WHEEL_SIZE);
+        joins = metrics.meter(name(Presence.class, "joins"));
+        leaves = metrics.meter(name(Presence.class, "leaves"));
+        expired = metrics.meter(name(Presence.class, "expired"));
+        metrics.register(name(Presence.class, "connections"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return members.size();
+            }
+
+        });
+        scheduleFlush();
+    }
+
+    /**
+     * Adds a connection to a room, or just counts a heartbeat of an already known connection.
+     * 
+     * @param channel the room's channel, i.e. the session code
+     * @param uuid the connection's Atmosphere resource identifier
+     * @param user the participant
+     */
+    public void join(String channel, String uuid, User user) {
+        if (heartbeat(uuid)) {
+            return;
+        }
+        Member member = new Member(channel, uuid, user, System.nanoTime() + timeoutNanos);
+        if (members.putIfAbsent(uuid, member) == null) {
+            arm(member, timeoutNanos);
+            enter(channel, user);
+        } else {
+            heartbeat(uuid);
+        }
+    }
+
+    /**
+     * Extends the deadline of a connection.
+     * 
+     * @param uuid the connection's Atmosphere resource identifier
+     * @return <code>true</code> if the connection is known, <code>false</code> if it has already left or timed out
+     */
+    public boolean heartbeat(String uuid) {
+        Member member = members.get(uuid);
+        if (member == null) {
+            return false;
+        }
+        member.deadline = System.nanoTime() + timeoutNanos;
+        return true;
+    }
+
+    /**
+     * Removes a connection from its room.
+     * 
+     * @param uuid the connection's Atmosphere resource identifier
+     */
+    public void leave(String uuid) {
+        Member member = members.remove(uuid);
+        if (member != null) {
+            HashedWheelTimer.Timeout timeout = member.timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            exit(member.channel, member.user);
+        }
+    }
+
+    /**
+     * Returns the participants connected to a room of the local node.
+     * 
+     * @param channel the room's channel, i.e. the session code
+     * @return the participants in the order they joined
+     */
+    public List<User> getUsers(String channel) {
+        synchronized (rooms) {
+            Multiset<User> room = rooms.get(channel);
+            return room == null ? ImmutableList.<User>of() : ImmutableList.copyOf(room.elementSet());
+        }
+    }
+
+    /**
+     * Publishes the pending joins and leaves and stops the timer.
+     */
+    public void stop() {
+        timer.stop();
+        flush();
+    }
+
+    /**
+     * Publishes joins and leaves collected since the previous flush, a message per room.
+     */
+    void flush() {
+        Map<String, Delta> batch;
+        synchronized (rooms) {
+            if (deltas.isEmpty()) {
+                return;
+            }
+            batch = deltas;
+            deltas = Maps.newHashMap();
+        }
+        for (Map.Entry<String, Delta> entry : batch.entrySet()) {
+            Delta delta = entry.getValue();
+            if (!delta.joined.isEmpty() || !delta.left.isEmpty()) {
+                try {
+                    bridge.publish(entry.getKey(), new PresenceMessage(null, ImmutableList.copyOf(delta.joined),
+                                                                       ImmutableList.copyOf(delta.left)));
+                } catch (RuntimeException e) {
+                    LOG.warn("Failed to publish presence of {}", entry.getKey(), e);
+                }
+            }
+        }
+    }
+
+    private void arm(final Member member, long delayNanos) {
+        member.timeout = timer.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                if (members.get(member.uuid) != member) {
+                    return; // has already left
+                }
+                long remaining = member.deadline - System.nanoTime();
+                if (remaining > 0) {
+                    arm(member, remaining);
+                } else if (members.remove(member.uuid, member)) {
+                    expired.mark();
+                    exit(member.channel, member.user);
+                }
+            }
+
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void enter(String channel, User user) {
+        synchronized (rooms) {
+            Multiset<User> room = rooms.get(channel);
+            if (room == null) {
+                room = LinkedHashMultiset.create();
+                rooms.put(channel, room);
+            }
+            if (room.add(user) && room.count(user) == 1) { // the first connection of the participant
+                joins.mark();
+                Delta delta = getDelta(channel);
+                if (!delta.left.remove(user)) {
+                    delta.joined.add(user);
+                }
+            }
+        }
+    }
+
+    private void exit(String channel, User user) {
+        synchronized (rooms) {
+            Multiset<User> room = rooms.get(channel);
+            if (room != null && room.remove(user) && !room.contains(user)) { // the last connection of the participant
+                leaves.mark();
+                Delta delta = getDelta(channel);
+                if (!delta.joined.remove(user)) {
+                    delta.left.add(user);
+                }
+                if (room.isEmpty()) {
+                    rooms.remove(channel);
+                }
+            }
+        }
+    }
+
+    private Delta getDelta(String channel) {
+        Delta delta = deltas.get(channel);
+        if (delta == null) {
+            delta = new Delta();
+            deltas.put(channel, delta);
+        }
+        return delta;
+    }
+
+    private void scheduleFlush() {
+        try {
+            timer.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        flush();
+                    } finally {
+                        scheduleFlush();
+                    }
+                }
+
+            }, flushMillis, TimeUnit.MILLISECONDS);
+        } catch (IllegalStateException e) {
+            LOG.debug("Presence timer is stopped");
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.util;
+
+import java.util.List;
+
+import org.lbogdanov.poker.core.User;
+
+import com.fasterxml.jackson.annotation.JsonTypeName;
+
+
+/**
+ * Tells clients which participants have joined and which have left a session since the previous presence message,
+ * the message payload is the list of joined participants.
+ * 
+ * @author Leonid Bogdanov
+ */
+@JsonTypeName("presence")
+public final class PresenceMessage extends Message<List<User>> {
+
+    public final List<User> left;
+
+    /**
+     * Creates a new instance of the <code>PresenceMessage</code> class.
+     * 
+     * @param origin the message origin identifier
+     * @param joined the participants who joined
+     * @param left the participants who left
+     */
+    public PresenceMessage(Object origin, List<User> joined, List<User> left) {
+        super(origin, joined);
+        this.left = left;
+    }
+
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.util;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.lbogdanov.poker.core.Constants.DEFAULT_REQUEST_MAX_KB;
+import static org.lbogdanov.poker.util.Settings.REQUEST_MAX_KB;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Objects;
+import com.google.common.io.ByteStreams;
+
+
+/**
+ * Rejects requests with bodies larger than <code>request.max.kb</code> before the container parses them into
+ * parameters and Wicket populates form models from those, so a huge paste into the chat costs neither memory nor a
+ * broadcast. A request which declares its length is answered with <code>413 Request Entity Too Large</code> right
+ * away, the body of a request of unknown length, e.g. a chunked one, can't be read through the request past the limit
+ * (the container limits form bodies it parses itself). Sizes of request bodies are exported as a histogram.
+ * 
+ * @author Leonid Bogdanov
+ */
+@Singleton
+public class RequestSizeFilter implements Filter {
+
+    private final long maxBytes;
+    private final Histogram sizes;
+    private final Meter rejected;
+
+    /**
+     * Creates a new instance of the <code>RequestSizeFilter</code> class.
+     * 
+     * @param metrics the registry to report request sizes to
+     */
+    @Inject
+    public RequestSizeFilter(MetricRegistry metrics) {
+        this(metrics, REQUEST_MAX_KB.asLong().or((long) DEFAULT_REQUEST_MAX_KB) * 1024);
+    }
+
+    /**
+     * Creates a new instance of the <code>RequestSizeFilter</code> class with a custom size limit.
+     * 
+     * @param metrics the registry to report request sizes to
+     * @param maxBytes the max size of a request body in bytes
+     */
+    public RequestSizeFilter(MetricRegistry metrics, long maxBytes) {
+        this.maxBytes = maxBytes;
+        sizes = metrics.histogram(name(RequestSizeFilter.class, "bytes"));
+        rejected = metrics.meter(name(RequestSizeFilter.class, "rejected"));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {}
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        long length = request.getContentLength();
+        if (length > maxBytes) {
+            rejected.mark();
+            ((HttpServletResponse) response).sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+        } else if (length >= 0) {
+            if (length > 0) {
+                sizes.update(length);
+            }
+            chain.doFilter(request, response);
+        } else {
+            chain.doFilter(new LimitedRequest((HttpServletRequest) request), response);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy() {}
+
+    /**
+     * A request of unknown length which body can't be read past the limit.
+     */
+    private class LimitedRequest extends HttpServletRequestWrapper {
+
+        private ServletInputStream input;
+        private BufferedReader reader;
+
+        public LimitedRequest(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (input == null) {
+                final InputStream limited = ByteStreams.limit(super.getInputStream(), maxBytes + 1);
+                input = new ServletInputStream() {
+
+                    private long read;
+
+                    @Override
+                    public int read() throws IOException {
+                        int b = limited.read();
+                        count(b < 0 ? -1 : 1);
+                        return b;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        int n = limited.read(b, off, len);
+                        count(n);
+                        return n;
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        limited.close();
+                    }
+
+                    private void count(int n) throws IOException {
+                        if (n < 0) {
+                            sizes.update(read);
+                        } else if ((read += n) > maxBytes) {
+                            rejected.mark();
+                            throw new IOException("Request body is larger than " + maxBytes + " bytes");
+                        }
+                    }
+
+                };
+            }
+            return input;
+        }
+
+        @Override
+        public BufferedReader getReader() throws IOException {
+            if (reader == null) {
+                String encoding = Objects.firstNonNull(getCharacterEncoding(), "ISO-8859-1");
+                reader = new BufferedReader(new InputStreamReader(getInputStream(), encoding));
+            }
+            return reader;
+        }
+
+    }
+
+}
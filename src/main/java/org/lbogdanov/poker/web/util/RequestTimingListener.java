@@ -0,0 +1,109 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.util;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.wicket.IResourceListener;
+import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.core.request.handler.IPageClassRequestHandler;
+import org.apache.wicket.core.request.handler.ListenerInterfaceRequestHandler;
+import org.apache.wicket.request.IRequestHandler;
+import org.apache.wicket.request.cycle.AbstractRequestCycleListener;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.lbogdanov.poker.util.QueryProfiler;
+
+import com.codahale.metrics.MetricRegistry;
+
+
+/**
+ * Measures a duration of Wicket requests per a page class which handled them. If a {@link QueryProfiler} is enabled,
+ * JDBC statements executed by a request are counted per the page class as well. Long-lived Atmosphere connections
+ * (which are served by an {@link IResourceListener}) are not measured.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class RequestTimingListener extends AbstractRequestCycleListener {
+
+    private static final MetaDataKey<Long> STARTED = new MetaDataKey<Long>() {};
+    private static final MetaDataKey<Class<?>> PAGE = new MetaDataKey<Class<?>>() {};
+
+    private final MetricRegistry registry;
+    private final QueryProfiler profiler;
+
+    /**
+     * Creates a new instance of <code>RequestTimingListener</code>.
+     * 
+     * @param registry the registry to create metrics in
+     * @param profiler the profiler to count statements in
+     */
+    public RequestTimingListener(MetricRegistry registry, QueryProfiler profiler) {
+        this.registry = registry;
+        this.profiler = profiler;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onBeginRequest(RequestCycle cycle) {
+        cycle.setMetaData(STARTED, System.nanoTime());
+        if (profiler.isEnabled()) {
+            profiler.beginUnit();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onRequestHandlerResolved(RequestCycle cycle, IRequestHandler handler) {
+        if (cycle.getMetaData(PAGE) == null && handler instanceof IPageClassRequestHandler && !isAtmosphere(handler)) {
+            cycle.setMetaData(PAGE, ((IPageClassRequestHandler) handler).getPageClass());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onEndRequest(RequestCycle cycle) {
+        Long started = cycle.getMetaData(STARTED);
+        Class<?> page = cycle.getMetaData(PAGE);
+        if (started != null && page != null) {
+            registry.timer(name(page, "requests")).update(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onDetach(RequestCycle cycle) {
+        if (profiler.isEnabled()) {
+            Class<?> page = cycle.getMetaData(PAGE);
+            profiler.endUnit(page == null ? null : page.getSimpleName());
+        }
+    }
+
+    private static boolean isAtmosphere(IRequestHandler handler) {
+        return handler instanceof ListenerInterfaceRequestHandler
+               && ((ListenerInterfaceRequestHandler) handler).getListenerInterface() == IResourceListener.INTERFACE;
+    }
+
+}
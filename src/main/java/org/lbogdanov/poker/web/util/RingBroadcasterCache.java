@@ -0,0 +1,256 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.util;
+
+import static org.lbogdanov.poker.core.Constants.BROADCASTER_CACHE_DEDUPE_WINDOW;
+import static org.lbogdanov.poker.core.Constants.DEFAULT_BROADCASTER_CACHE_SIZE;
+import static org.lbogdanov.poker.util.Settings.BROADCASTER_CACHE_SIZE;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.BroadcasterCache;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+
+/**
+ * A {@link BroadcasterCache} which keeps messages a {@link org.atmosphere.cpr.Broadcaster Broadcaster} couldn't write,
+ * e.g. while a long-polling client was reconnecting, in a ring buffer of a fixed size. Every message is stored once
+ * with a sequence number and the tracking IDs of the clients which missed it, equal messages missed by several clients
+ * share an entry unless that would change the order of the messages a client gets. A reconnecting client gets the
+ * tail of the ring starting at the first message it missed, the oldest messages are overwritten once the ring is full.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class RingBroadcasterCache implements BroadcasterCache {
+
+    /**
+     * A cached message along with the clients which haven't received it yet.
+     */
+    private static final class Entry {
+
+        private final long seq;
+        private final Object message;
+        private final Set<String> recipients = Sets.newHashSetWithExpectedSize(1);
+
+        public Entry(long seq, Object message) {
+            this.seq = seq;
+            this.message = message;
+        }
+
+    }
+
+    /**
+     * The first and the last missed messages of a client and the number of cached messages it has missed.
+     */
+    private static final class Cursor {
+
+        private long seq;
+        private long last;
+        private int pending;
+
+        public Cursor(long seq) {
+            this.seq = seq;
+        }
+
+    }
+
+    private final Entry[] ring;
+    private final Map<String, Cursor> cursors = Maps.newHashMap();
+    private long nextSeq;
+    private long bytes;
+    private long replayed;
+    private long replayNanos;
+
+    /**
+     * Creates a new instance of <code>RingBroadcasterCache</code>, the capacity is read from the settings.
+     */
+    public RingBroadcasterCache() {
+        this(BROADCASTER_CACHE_SIZE.asInt().or(DEFAULT_BROADCASTER_CACHE_SIZE));
+    }
+
+    /**
+     * Creates a new instance of <code>RingBroadcasterCache</code>.
+     * 
+     * @param capacity the max number of cached messages
+     */
+    public RingBroadcasterCache(int capacity) {
+        ring = new Entry[capacity];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void start() {}
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void stop() {
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = null;
+        }
+        cursors.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Caches a message for a client which missed it. Messages broadcast while no clients were connected aren't cached,
+     * joining clients get the recent chat history instead.
+     * 
+     * @param broadcasterId the ID of the <code>Broadcaster</code>
+     * @param resource the client which missed the message, can be <code>null</code>
+     * @param message the message
+     */
+    @Override
+    public synchronized void addToCache(String broadcasterId, AtmosphereResource resource, Object message) {
+        if (resource == null || message == null || ring.length == 0) {
+            return;
+        }
+        String uuid = resource.uuid();
+        Cursor cursor = cursors.get(uuid);
+        Entry entry = findRecent(message, cursor == null ? -1 : cursor.last);
+        if (entry == null) {
+            entry = append(message);
+            cursor = cursors.get(uuid); // the evicted entry may have been the last one the client missed
+        }
+        entry.recipients.add(uuid);
+        if (cursor == null) {
+            cursor = new Cursor(entry.seq);
+            cursors.put(uuid, cursor);
+        }
+        cursor.seq = Math.min(cursor.seq, entry.seq);
+        cursor.last = entry.seq;
+        cursor.pending++;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized List<Object> retrieveFromCache(String broadcasterId, AtmosphereResource resource) {
+        String uuid = resource.uuid();
+        Cursor cursor = cursors.remove(uuid);
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+        long start = System.nanoTime();
+        List<Object> messages = Lists.newArrayListWithCapacity(cursor.pending);
+        for (long seq = Math.max(cursor.seq, nextSeq - ring.length); seq < nextSeq && cursor.pending > 0; seq++) {
+            Entry entry = ring[index(seq)];
+            if (entry.recipients.remove(uuid)) {
+                messages.add(entry.message);
+                cursor.pending--;
+            }
+        }
+        replayed += messages.size();
+        replayNanos += System.nanoTime() - start;
+        return messages;
+    }
+
+    /**
+     * Returns the number of cached messages.
+     * 
+     * @return the number of messages in the ring
+     */
+    public synchronized int getSize() {
+        return (int) Math.min(nextSeq, ring.length);
+    }
+
+    /**
+     * Returns the number of clients which have missed some of the cached messages.
+     * 
+     * @return the number of clients
+     */
+    public synchronized int getClients() {
+        return cursors.size();
+    }
+
+    /**
+     * Returns an estimated size of cached messages, only strings are taken into account.
+     * 
+     * @return the size in bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the total number of messages replayed to reconnecting clients.
+     * 
+     * @return the number of messages
+     */
+    public synchronized long getReplayed() {
+        return replayed;
+    }
+
+    /**
+     * Returns the total time spent collecting messages for reconnecting clients.
+     * 
+     * @return the time in nanoseconds
+     */
+    public synchronized long getReplayNanos() {
+        return replayNanos;
+    }
+
+    private Entry findRecent(Object message, long last) {
+        // a message is usually missed by several clients in a row, an entry is shared only if it comes after the last
+        // message the client missed, so equal messages the client missed in a row are kept apart and in order
+        long oldest = Math.max(last + 1, Math.max(nextSeq - ring.length, nextSeq - BROADCASTER_CACHE_DEDUPE_WINDOW));
+        for (long seq = nextSeq - 1; seq >= Math.max(0, oldest); seq--) {
+            Entry entry = ring[index(seq)];
+            if (entry.message.equals(message)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private Entry append(Object message) {
+        int index = index(nextSeq);
+        Entry evicted = ring[index];
+        if (evicted != null) {
+            for (String uuid : evicted.recipients) { // the client won't get it, forget the client if nothing is left
+                Cursor cursor = cursors.get(uuid);
+                if (cursor != null && --cursor.pending == 0) {
+                    cursors.remove(uuid);
+                }
+            }
+            bytes -= sizeOf(evicted.message);
+        }
+        Entry entry = new Entry(nextSeq++, message);
+        ring[index] = entry;
+        bytes += sizeOf(message);
+        return entry;
+    }
+
+    private int index(long seq) {
+        return (int) (seq % ring.length);
+    }
+
+    private static long sizeOf(Object message) {
+        return message instanceof String ? 2L * ((String) message).length() : 0;
+    }
+
+}
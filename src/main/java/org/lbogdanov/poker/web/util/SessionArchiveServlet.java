@@ -0,0 +1,106 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.lbogdanov.poker.core.impl.SessionArchive;
+
+import com.google.common.base.Strings;
+
+
+/**
+ * An administrative endpoint of {@link SessionArchive}. <code>GET</code> streams sessions as newline-delimited JSON,
+ * optionally only those created before a <code>before</code> date in the <code>yyyy-MM-dd</code> format,
+ * <code>POST</code> imports a request body in the same format, e.g.
+ * <code>curl -T sessions.json http://.../admin/archive</code>. Import requests aren't subject to the
+ * <code>request.max.kb</code> limit.
+ *
+ * @author Leonid Bogdanov
+ */
+@Singleton
+public class SessionArchiveServlet extends HttpServlet {
+
+    private final SessionArchive archive;
+
+    /**
+     * Creates a new instance of the <code>SessionArchiveServlet</code> class.
+     *
+     * @param archive the <code>SessionArchive</code> instance
+     */
+    @Inject
+    public SessionArchiveServlet(SessionArchive archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        Date before = null;
+        String date = req.getParameter("before");
+        if (!Strings.isNullOrEmpty(date)) {
+            try {
+                before = new SimpleDateFormat("yyyy-MM-dd").parse(date);
+            } catch (ParseException e) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Malformed date: " + date);
+                return;
+            }
+        }
+        resp.setContentType("application/x-ndjson");
+        resp.setCharacterEncoding("UTF-8");
+        resp.setHeader("Content-Disposition", "attachment; filename=\"sessions.json\"");
+        archive.exportTo(resp.getOutputStream(), before);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        InputStream in = req.getInputStream();
+        long rows;
+        try {
+            rows = archive.importFrom(in);
+        } finally {
+            in.close();
+        }
+        resp.setContentType("text/plain");
+        resp.setCharacterEncoding("UTF-8");
+        resp.getWriter().println("Imported " + rows + " rows");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doPut(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        doPost(req, resp);
+    }
+
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.web.util;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+
+/**
+ * Runs tasks on a fixed number of single-threaded lanes, tasks submitted with the same key always go to the same lane
+ * and so run one after another in submission order. Used to deliver room messages off request threads: a poster's
+ * request doesn't wait for the recipients' pages, and a delivery never holds more than one page lock at a time.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class StripedExecutor {
+
+    private final List<ThreadPoolExecutor> lanes;
+
+    /**
+     * Creates a new instance of the <code>StripedExecutor</code> class.
+     * 
+     * @param name the name prefix of lane threads
+     * @param threads the number of lanes
+     */
+    public StripedExecutor(final String name, int threads) {
+        Preconditions.checkArgument(threads > 0, "Number of threads must be positive");
+        final AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+
+        };
+        lanes = Lists.newArrayListWithCapacity(threads);
+        for (int i = 0; i < threads; i++) {
+            lanes.add(new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                                             factory));
+        }
+    }
+
+    /**
+     * Runs a task on the lane of a key.
+     * 
+     * @param key the key, e.g. a channel name
+     * @param task the task
+     * @throws RejectedExecutionException if the executor is shut down
+     */
+    public void execute(Object key, Runnable task) {
+        int hash = key.hashCode();
+        lanes.get(((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % lanes.size()).execute(task);
+    }
+
+    /**
+     * Returns the number of tasks which wait for their lanes.
+     * 
+     * @return the number of queued tasks
+     */
+    public int getPending() {
+        int pending = 0;
+        for (ThreadPoolExecutor lane : lanes) {
+            pending += lane.getQueue().size();
+        }
+        return pending;
+    }
+
+    /**
+     * Stops accepting new tasks and waits for the queued ones to complete.
+     * 
+     * @param timeout the maximum time to wait
+     * @param unit the time unit of the <code>timeout</code> argument
+     * @return <code>true</code> if all the queued tasks completed, <code>false</code> if the timeout elapsed
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        try {
+            for (ThreadPoolExecutor lane : lanes) {
+                if (!lane.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    return false;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+}
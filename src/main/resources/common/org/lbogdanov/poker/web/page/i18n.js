@@ -1,7 +0,0 @@
-(function() {
-    var dict = {
-        "chat.me": "Me",
-        "chat.sendError": "Error sending message: %s"
-    };
-    $.i18n.setDictionary(dict);
-})();
@@ -15,6 +15,16 @@ var Poker = (function() {
                 return false;
             }
             return true;
+        },
+        typeahead: function(field, url) {
+            $("#" + field).attr("autocomplete", "off").typeahead({
+                source: function(query, process) {
+                    $.getJSON(url, {q: query}, process);
+                },
+                matcher: function() {
+                    return true; // names are matched on the server, descriptions are taken into account too
+                }
+            });
         }
     };
 })();
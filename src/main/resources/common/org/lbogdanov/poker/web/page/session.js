@@ -1,6 +1,7 @@
 var Poker = (function() {
 
     var msgTpl = "[%s]: %s",
+        rejection = null,
         appendMsg = function(msg) {
             var chatLog = $("#chatLog");
             if (typeof msg === "string") { // otherwise msg is an Element
@@ -9,6 +10,21 @@ var Poker = (function() {
             $(".mCSB_container", chatLog).append(msg);
             chatLog.mCustomScrollbar("update");
             chatLog.mCustomScrollbar("scrollTo", "last");
+        },
+        participants = [],
+        updatePresence = function(joined, left) {
+            $.each(left, function(i, name) {
+                var idx = $.inArray(name, participants);
+                if (idx >= 0) {
+                    participants.splice(idx, 1);
+                }
+            });
+            $.each(joined, function(i, name) {
+                if ($.inArray(name, participants) < 0) {
+                    participants.push(name);
+                }
+            });
+            $("#participants").text(participants.join(", "));
         };
 
     $(function() {
@@ -38,7 +54,10 @@ var Poker = (function() {
         msgSent: function(xhr) {
             var msg,
                 chatMsg = $("#chatMsg");
-            if (xhr.status === 200) {
+            if (rejection) {
+                msg = $("<div>").addClass("error").text($.i18n._(rejection.key, rejection.args));
+                rejection = null;
+            } else if (xhr.status === 200) {
                 msg = $.i18n.printf(msgTpl, [$.i18n._("chat.me"), chatMsg.val()]);
                 chatMsg.val("");
             } else {
@@ -47,6 +66,9 @@ var Poker = (function() {
             }
             appendMsg(msg);
         },
+        rejected: function(key, arg) {
+            rejection = {key: key, args: [arg]};
+        },
         toggleForm: function(form, disabled) {
             $($.i18n.printf("#%s :input", [form])).prop("disabled", disabled);
         },
@@ -55,6 +77,9 @@ var Poker = (function() {
                 case "chatMsg":
                     appendMsg($.i18n.printf(msgTpl, [msg.author, msg.message]));
                     break;
+                case "presence":
+                    updatePresence(msg.message, msg.left);
+                    break;
             }
         }
     };
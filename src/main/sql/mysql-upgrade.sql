@@ -0,0 +1,44 @@
+-- Upgrades a database created by an earlier version of mysql.sql, can be run more than once
+USE `POKER`;
+
+CREATE TABLE IF NOT EXISTS `PARTICIPANTS` (
+    `ID` BIGINT PRIMARY KEY AUTO_INCREMENT,
+    `USER_ID` BIGINT NOT NULL,
+    `SESSION_ID` BIGINT NOT NULL,
+    `JOINED` TIMESTAMP NOT NULL,
+    UNIQUE KEY (`USER_ID`, `SESSION_ID`),
+    FOREIGN KEY (`USER_ID`)
+        REFERENCES `USERS` (`ID`)
+        ON UPDATE CASCADE ON DELETE CASCADE,
+    FOREIGN KEY (`SESSION_ID`)
+        REFERENCES `SESSIONS` (`ID`)
+        ON UPDATE CASCADE ON DELETE CASCADE
+);
+
+-- authors are participants of their sessions, sessions created before the table existed are listed by My sessions
+-- only once their authors are recorded
+INSERT IGNORE INTO `PARTICIPANTS` (`USER_ID`, `SESSION_ID`, `JOINED`)
+    SELECT `AUTHOR_ID`, `ID`, `CREATED` FROM `SESSIONS`;
+
+CREATE TABLE IF NOT EXISTS `CHAT_MESSAGES` (
+    `ID` BIGINT PRIMARY KEY AUTO_INCREMENT,
+    `SESSION_ID` BIGINT NOT NULL,
+    `AUTHOR_ID` BIGINT NOT NULL,
+    `MESSAGE` VARCHAR(4096) NOT NULL,
+    `POSTED` TIMESTAMP NOT NULL,
+    KEY (`SESSION_ID`, `POSTED`),
+    FOREIGN KEY (`SESSION_ID`)
+        REFERENCES `SESSIONS` (`ID`)
+        ON UPDATE CASCADE ON DELETE CASCADE,
+    FOREIGN KEY (`AUTHOR_ID`)
+        REFERENCES `USERS` (`ID`)
+        ON UPDATE CASCADE ON DELETE CASCADE
+);
+
+-- sessions are listed and purged in the order of their creation dates, MySQL can't create an index if not exists
+SET @ddl = IF((SELECT COUNT(*) FROM `information_schema`.`STATISTICS`
+               WHERE `TABLE_SCHEMA` = 'POKER' AND `TABLE_NAME` = 'SESSIONS' AND `INDEX_NAME` = 'SESSIONS_CREATED') = 0,
+              'CREATE INDEX `SESSIONS_CREATED` ON `SESSIONS` (`CREATED`, `ID`)', 'DO 0');
+PREPARE `STMT` FROM @ddl;
+EXECUTE `STMT`;
+DEALLOCATE PREPARE `STMT`;
@@ -20,6 +20,36 @@ CREATE TABLE `SESSIONS` (
     `DESCRIPTION` VARCHAR(4096) NULL,
     `ESTIMATES` VARCHAR(1024) NOT NULL,
     `AUTHOR_ID` BIGINT NOT NULL,
+    KEY `SESSIONS_CREATED` (`CREATED`, `ID`),
+    FOREIGN KEY (`AUTHOR_ID`)
+        REFERENCES `USERS` (`ID`)
+        ON UPDATE CASCADE ON DELETE CASCADE
+);
+
+CREATE TABLE `PARTICIPANTS` (
+    `ID` BIGINT PRIMARY KEY AUTO_INCREMENT,
+    `USER_ID` BIGINT NOT NULL,
+    `SESSION_ID` BIGINT NOT NULL,
+    `JOINED` TIMESTAMP NOT NULL,
+    UNIQUE KEY (`USER_ID`, `SESSION_ID`),
+    FOREIGN KEY (`USER_ID`)
+        REFERENCES `USERS` (`ID`)
+        ON UPDATE CASCADE ON DELETE CASCADE,
+    FOREIGN KEY (`SESSION_ID`)
+        REFERENCES `SESSIONS` (`ID`)
+        ON UPDATE CASCADE ON DELETE CASCADE
+);
+
+CREATE TABLE `CHAT_MESSAGES` (
+    `ID` BIGINT PRIMARY KEY AUTO_INCREMENT,
+    `SESSION_ID` BIGINT NOT NULL,
+    `AUTHOR_ID` BIGINT NOT NULL,
+    `MESSAGE` VARCHAR(4096) NOT NULL,
+    `POSTED` TIMESTAMP NOT NULL,
+    KEY (`SESSION_ID`, `POSTED`),
+    FOREIGN KEY (`SESSION_ID`)
+        REFERENCES `SESSIONS` (`ID`)
+        ON UPDATE CASCADE ON DELETE CASCADE,
     FOREIGN KEY (`AUTHOR_ID`)
         REFERENCES `USERS` (`ID`)
         ON UPDATE CASCADE ON DELETE CASCADE
@@ -0,0 +1,175 @@
+package org.lbogdanov.poker.core.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lbogdanov.poker.core.ChatEntry;
+import org.lbogdanov.poker.core.Participant;
+import org.lbogdanov.poker.core.Session;
+import org.lbogdanov.poker.core.User;
+
+import com.avaje.ebean.EbeanServer;
+import com.avaje.ebean.EbeanServerFactory;
+import com.avaje.ebean.config.DataSourceConfig;
+import com.avaje.ebean.config.ServerConfig;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Charsets;
+
+/**
+ * Tests for {@link SessionArchive} class, sessions are exported from one in-memory H2 database and imported into
+ * another one.
+ *
+ * @author Leonid Bogdanov
+ */
+public class SessionArchiveTest {
+
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    private EbeanServer source;
+    private EbeanServer target;
+    private SessionIndex index;
+
+    /**
+     * Creates two empty databases, fills the source one with two sessions, their participants and chat messages.
+     */
+    @Before
+    public void setUp() {
+        source = server();
+        target = server();
+        index = new SessionIndex();
+        User alice = user(source, "alice");
+        User bob = user(source, "bob");
+        Session first = session(source, "first", alice);
+        Session second = session(source, "second", bob);
+        participant(source, first, alice);
+        participant(source, first, bob);
+        participant(source, second, bob);
+        message(source, first, bob, "hello");
+        message(source, first, alice, "hi");
+        message(source, second, bob, "alone");
+    }
+
+    /**
+     * Test for {@link SessionArchive#exportTo(java.io.OutputStream, Date)} and
+     * {@link SessionArchive#importFrom(java.io.InputStream)} with an empty database, exporting the imported rows
+     * gives the same archive.
+     *
+     * @throws Exception if any error occurred
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        assertEquals(10, new SessionArchive(source, index, new MetricRegistry()).exportTo(archive, null));
+
+        SessionArchive imported = new SessionArchive(target, index, new MetricRegistry());
+        assertEquals(10, imported.importFrom(new ByteArrayInputStream(archive.toByteArray())));
+        ByteArrayOutputStream exported = new ByteArrayOutputStream();
+        imported.exportTo(exported, null);
+        assertEquals(archive.toString("UTF-8"), exported.toString("UTF-8"));
+
+        Session first = target.find(Session.class).where().eq("code", "first").findUnique();
+        User bob = target.find(User.class).where().eq("externalId", "bob").findUnique();
+        assertTrue(index.contains(bob.getId(), first));
+    }
+
+    /**
+     * Test for {@link SessionArchive#importFrom(java.io.InputStream)}, sessions which codes are taken are skipped
+     * along with their participants and messages, as are rows referring to unknown users. Rows never refer to sessions
+     * the import hasn't inserted.
+     *
+     * @throws Exception if any error occurred
+     */
+    @Test
+    public void testImportSkipped() throws Exception {
+        User carol = user(target, "carol");
+        Session taken = session(target, "second", carol);
+        session(target, "third", carol);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        new SessionArchive(source, index, new MetricRegistry()).exportTo(archive, null);
+        String unknown = "{\"type\":\"session\",\"code\":\"third\",\"name\":\"third\",\"estimates\":\"1,2,3\","
+                         + "\"created\":0,\"author\":\"nobody\"}\n"
+                         + "{\"type\":\"message\",\"session\":\"first\",\"author\":\"nobody\",\"message\":\"?\","
+                         + "\"posted\":0}\n"
+                         + "{\"type\":\"participant\",\"session\":\"third\",\"user\":\"bob\",\"joined\":0}\n";
+        byte[] records = (archive.toString("UTF-8") + unknown).getBytes(Charsets.UTF_8);
+
+        SessionArchive imported = new SessionArchive(target, index, new MetricRegistry());
+        // alice, bob, the first session, its two participants and two messages
+        assertEquals(7, imported.importFrom(new ByteArrayInputStream(records)));
+        assertEquals(0, imported.importFrom(new ByteArrayInputStream(records)));
+
+        assertEquals(3, target.find(User.class).findRowCount());
+        assertEquals(3, target.find(Session.class).findRowCount());
+        assertEquals(carol, target.find(Session.class, taken.getId()).getAuthor());
+        assertEquals(0, target.find(Participant.class).where().eq("session.code", "second").findRowCount());
+        assertEquals(0, target.find(ChatEntry.class).where().eq("session.code", "second").findRowCount());
+        assertEquals(2, target.find(ChatEntry.class).where().eq("session.code", "first").findRowCount());
+        assertEquals(0, target.find(Participant.class).where().eq("session.code", "third").findRowCount());
+    }
+
+    private static EbeanServer server() {
+        String name = "archive" + DATABASES.incrementAndGet();
+        DataSourceConfig dataSource = new DataSourceConfig();
+        dataSource.setDriver("org.h2.Driver");
+        dataSource.setUrl("jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+        ServerConfig config = new ServerConfig();
+        config.setName(name);
+        config.setDataSourceConfig(dataSource);
+        config.setDdlGenerate(true);
+        config.setDdlRun(true);
+        config.setDefaultServer(false);
+        config.setRegister(false);
+        config.addClass(Session.class);
+        config.addClass(User.class);
+        config.addClass(Participant.class);
+        config.addClass(ChatEntry.class);
+        return EbeanServerFactory.create(config);
+    }
+
+    private static User user(EbeanServer ebean, String externalId) {
+        User user = new User();
+        user.setExternalId(externalId);
+        user.setFirstName(externalId);
+        user.setEmail(externalId + "@example.com");
+        ebean.save(user);
+        return user;
+    }
+
+    private static Session session(EbeanServer ebean, String code, User author) {
+        Session session = new Session();
+        session.setCode(code);
+        session.setName(code);
+        session.setEstimates("1,2,3");
+        session.setCreated(new Date(1356998400000L));
+        session.setAuthor(author);
+        ebean.save(session);
+        return session;
+    }
+
+    private static void participant(EbeanServer ebean, Session session, User user) {
+        Participant participant = new Participant();
+        participant.setSession(session);
+        participant.setUser(user);
+        participant.setJoined(new Date(1356998460000L));
+        ebean.save(participant);
+    }
+
+    private static void message(EbeanServer ebean, Session session, User author, String text) {
+        ChatEntry entry = new ChatEntry();
+        entry.setSession(session);
+        entry.setAuthor(author);
+        entry.setMessage(text);
+        entry.setPosted(new Date(1356998520000L));
+        ebean.save(entry);
+    }
+
+}
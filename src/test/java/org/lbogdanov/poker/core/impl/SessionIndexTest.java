@@ -0,0 +1,133 @@
+package org.lbogdanov.poker.core.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.SortedMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lbogdanov.poker.core.Session;
+import org.lbogdanov.poker.core.User;
+
+/**
+ * Tests for {@link SessionIndex} class.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class SessionIndexTest {
+
+    private SessionIndex index;
+    private User author;
+    private User other;
+
+    /**
+     * Creates an empty index and two authors.
+     */
+    @Before
+    public void setUp() {
+        index = new SessionIndex();
+        author = user(1L);
+        other = user(2L);
+    }
+
+    /**
+     * Test for {@link SessionIndex#tokenize(String)}.
+     */
+    @Test
+    public void testTokenize() {
+        assertEquals(Arrays.asList("sprint", "42", "planning", "über"), SessionIndex.tokenize("Sprint #42: planning, Über"));
+        assertTrue(SessionIndex.tokenize(null).isEmpty());
+        assertTrue(SessionIndex.tokenize(" -- ").isEmpty());
+    }
+
+    /**
+     * Test for {@link SessionIndex#search(Long, String, int)}, all words of a query are matched as prefixes.
+     */
+    @Test
+    public void testSearch() {
+        index.add(author.getId(), session(1L, author, "Sprint 1 planning", "Backlog grooming"));
+        index.add(author.getId(), session(2L, author, "Sprint 2 planning", null));
+        index.add(author.getId(), session(3L, author, "Retrospective", "after the sprint"));
+        index.add(other.getId(), session(4L, other, "Sprint planning", null));
+
+        assertEquals(Arrays.asList(3L, 2L, 1L), keys(index.search(author.getId(), "spr", 10)));
+        assertEquals(Arrays.asList(2L, 1L), keys(index.search(author.getId(), "PLAN spr", 10)));
+        assertEquals(Arrays.asList(1L), keys(index.search(author.getId(), "groom", 10)));
+        assertEquals(Arrays.asList(3L, 2L), keys(index.search(author.getId(), "sprint", 2)));
+        assertEquals("Retrospective", index.search(author.getId(), "after", 10).get(3L));
+        assertTrue(index.search(author.getId(), "sprint missing", 10).isEmpty());
+        assertTrue(index.search(author.getId(), "", 10).isEmpty());
+        assertTrue(index.search(3L, "sprint", 10).isEmpty());
+    }
+
+    /**
+     * Test for {@link SessionIndex#remove(Session)} and re-adding of a session.
+     */
+    @Test
+    public void testUpdate() {
+        Session session = session(1L, author, "Sprint planning", null);
+        index.add(author.getId(), session);
+        index.add(author.getId(), session(1L, author, "Estimation", null));
+
+        assertTrue(index.search(author.getId(), "sprint", 10).isEmpty());
+        assertEquals(Arrays.asList(1L), keys(index.search(author.getId(), "est", 10)));
+
+        index.remove(session);
+        assertTrue(index.search(author.getId(), "est", 10).isEmpty());
+    }
+
+    /**
+     * Test for {@link SessionIndex#add(Long, Session)}, participants find sessions they joined.
+     */
+    @Test
+    public void testParticipants() {
+        Session session = session(1L, author, "Sprint planning", null);
+        index.add(author.getId(), session);
+        index.add(other.getId(), session);
+
+        assertTrue(index.contains(other.getId(), session));
+        assertEquals(Arrays.asList(1L), keys(index.search(other.getId(), "spr", 10)));
+
+        index.remove(session);
+        assertFalse(index.contains(author.getId(), session));
+        assertFalse(index.contains(other.getId(), session));
+    }
+
+    /**
+     * Test for {@link SessionIndex#removeAll(java.util.Collection)}.
+     */
+    @Test
+    public void testRemoveAll() {
+        index.add(author.getId(), session(1L, author, "Sprint 1 planning", null));
+        index.add(author.getId(), session(2L, author, "Sprint 2 planning", null));
+        index.add(other.getId(), session(2L, author, "Sprint 2 planning", null));
+        index.add(other.getId(), session(3L, other, "Sprint 3 planning", null));
+
+        index.removeAll(Arrays.asList(1L, 2L));
+        assertTrue(index.search(author.getId(), "sprint", 10).isEmpty());
+        assertEquals(Arrays.asList(3L), keys(index.search(other.getId(), "sprint", 10)));
+    }
+
+    private static Object keys(SortedMap<Long, String> found) {
+        return Arrays.asList(found.keySet().toArray());
+    }
+
+    private static User user(Long id) {
+        User user = new User();
+        user.setId(id);
+        return user;
+    }
+
+    private static Session session(Long id, User author, String name, String description) {
+        Session session = new Session();
+        session.setId(id);
+        session.setAuthor(author);
+        session.setName(name);
+        session.setDescription(description);
+        return session;
+    }
+
+}
@@ -0,0 +1,678 @@
+/**
+ * Copyright 2012 Leonid Bogdanov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lbogdanov.poker.core.start;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.server.session.AbstractSessionManager;
+import org.eclipse.jetty.util.resource.ResourceCollection;
+import org.eclipse.jetty.webapp.WebAppContext;
+import org.eclipse.jetty.websocket.WebSocket;
+import org.eclipse.jetty.websocket.WebSocketClient;
+import org.eclipse.jetty.websocket.WebSocketClientFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Longs;
+
+
+/**
+ * An end-to-end load generator for Planning Poker session rooms. Starts the application in embedded Jetty servers with
+ * an in-memory H2 database, logs simulated users in through the ini realm, opens <code>rooms</code> sessions with
+ * <code>participants</code> users each, posts chat messages and reports delivery latency percentiles and throughput
+ * for every requested transport.
+ * <p>
+ * The scenario is configured with system properties:
+ * <ul>
+ *   <li><code>rooms</code> - the number of sessions, default 10</li>
+ *   <li><code>participants</code> - the number of participants per session, default 10</li>
+ *   <li><code>messages</code> - the number of chat messages each participant posts, default 10</li>
+ *   <li><code>interval</code> - the pause between posts of a participant in milliseconds, default 100</li>
+ *   <li><code>transports</code> - a comma separated list of transports, default <code>websocket,long_polling</code></li>
+ *   <li><code>username</code>, <code>password</code> - ini realm credentials, default <code>testaccount</code></li>
+ *   <li><code>nodes</code> - the number of application nodes connected with the TCP cluster bridge, participants of
+ *   every session are spread across them, default 1</li>
+ *   <li><code>affinity</code> - whether sessions should be pinned to owner nodes, participants joining on another node
+ *   get redirected to the owner, default <code>false</code></li>
+ *   <li><code>idle</code> - the number of extra participants which join separate sessions and stay subscribed without
+ *   posting anything, the report shows JVM threads before and after they connected, default 0</li>
+ *   <li><code>chat.rate.limit</code> - the application setting, chat posts aren't rate limited by default</li>
+ * </ul>
+ * 
+ * @author Leonid Bogdanov
+ */
+public class RealtimeLoadGenerator {
+
+    private static final Pattern ATMOSPHERE_URL = Pattern.compile("wicketAtmosphere\\(\\{.*?\"url\":\"([^\"]+)\"");
+    private static final Pattern AJAX_ATTRS = Pattern.compile("Wicket\\.Ajax\\.ajax\\((\\{.*)");
+    private static final Pattern AJAX_URL = Pattern.compile("\"u\":\"([^\"]+)\"");
+    private static final Pattern SESSION_CODE = Pattern.compile("session/([^/?;]+)");
+    private static final Pattern PAYLOAD = Pattern.compile("load:(\\w+):(\\d+):(\\d+)");
+    private static final Pattern THREAD_NUMBER = Pattern.compile("[-#\\s]*\\d+$");
+    private static final String LOGIN_FORM = "IFormSubmitListener-login-internal";
+    private static final String CREATE_FORM = "IFormSubmitListener-session-create";
+    private static final int TIMEOUT = (int) TimeUnit.SECONDS.toMillis(60);
+
+    /**
+     * Collects delivery latencies of chat messages.
+     */
+    private static final class Stats {
+
+        private final long[] latencies;
+        private final AtomicInteger delivered = new AtomicInteger();
+        private final AtomicInteger posted = new AtomicInteger();
+        private final AtomicInteger duplicates = new AtomicInteger();
+        private final AtomicInteger echoes = new AtomicInteger();
+        private final AtomicInteger strays = new AtomicInteger();
+        private final AtomicLong lastDelivery = new AtomicLong();
+        private final ConcurrentMap<String, Queue<Long>> roomLatencies = Maps.newConcurrentMap();
+
+        public Stats(int expected) {
+            latencies = new long[expected];
+        }
+
+        public void delivered(String room, long sentAt) {
+            long now = System.nanoTime();
+            int i = delivered.getAndIncrement();
+            if (i < latencies.length) {
+                latencies[i] = now - sentAt;
+            }
+            Queue<Long> samples = roomLatencies.get(room);
+            if (samples == null) {
+                roomLatencies.putIfAbsent(room, new ConcurrentLinkedQueue<Long>());
+                samples = roomLatencies.get(room);
+            }
+            samples.add(now - sentAt);
+            lastDelivery.set(now);
+        }
+
+        public String report(String transport, long start, int expected) {
+            int count = Math.min(delivered.get(), latencies.length);
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            double seconds = (Math.max(lastDelivery.get(), start) - start) / 1e9;
+            StringBuilder report = new StringBuilder();
+            report.append(String.format("transport=%s posted=%d expected=%d delivered=%d lost=%d duplicates=%d echoes=%d strays=%d%n",
+                                        transport, posted.get(), expected, delivered.get(),
+                                        Math.max(0, expected - delivered.get()), duplicates.get(), echoes.get(),
+                                        strays.get()));
+            report.append(String.format("throughput=%.1f deliveries/s over %.2f s%n", count / Math.max(seconds, 1e-9),
+                                        seconds));
+            report.append(String.format("latency ms: p50=%.2f p90=%.2f p99=%.2f p999=%.2f max=%.2f",
+                                        percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99),
+                                        percentile(sorted, 0.999), percentile(sorted, 1.0)));
+            List<Double> medians = Lists.newArrayList();
+            for (Queue<Long> room : roomLatencies.values()) {
+                long[] roomSorted = Longs.toArray(room);
+                Arrays.sort(roomSorted);
+                medians.add(percentile(roomSorted, 0.5));
+            }
+            Collections.sort(medians);
+            if (!medians.isEmpty()) {
+                report.append(String.format("%nper room p50 ms: min=%.2f median=%.2f max=%.2f", medians.get(0),
+                                            medians.get((medians.size() - 1) / 2), medians.get(medians.size() - 1)));
+            }
+            return report.toString();
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            if (sorted.length == 0) {
+                return Double.NaN;
+            }
+            int i = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(i, sorted.length - 1))] / 1e6;
+        }
+
+    }
+
+    /**
+     * A minimalistic HTTP client with a cookie jar, doesn't follow redirects automatically.
+     */
+    private static final class Browser {
+
+        private final Map<String, String> cookies = Maps.newConcurrentMap();
+        private URL location;
+
+        public String get(URL url) throws IOException {
+            for (int i = 0; i < 5; i++) { // follow redirects manually to keep the cookies
+                HttpURLConnection conn = open(url);
+                location = url;
+                if (conn.getResponseCode() / 100 != 3) {
+                    return read(conn);
+                }
+                read(conn);
+                url = new URL(url, conn.getHeaderField("Location"));
+            }
+            throw new IOException("Too many redirects: " + url);
+        }
+
+        public HttpURLConnection post(URL url, Map<String, String> form, Map<String, String> headers) throws IOException {
+            HttpURLConnection conn = open(url);
+            conn.setRequestMethod("POST");
+            conn.setDoOutput(true);
+            conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                conn.setRequestProperty(header.getKey(), header.getValue());
+            }
+            List<String> params = Lists.newArrayList();
+            for (Map.Entry<String, String> param : form.entrySet()) {
+                params.add(URLEncoder.encode(param.getKey(), "UTF-8") + "=" + URLEncoder.encode(param.getValue(), "UTF-8"));
+            }
+            OutputStream out = conn.getOutputStream();
+            try {
+                out.write(Joiner.on('&').join(params).getBytes(Charsets.UTF_8));
+            } finally {
+                out.close();
+            }
+            conn.getResponseCode();
+            storeCookies(conn);
+            return conn;
+        }
+
+        public HttpURLConnection open(URL url) throws IOException {
+            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+            conn.setInstanceFollowRedirects(false);
+            conn.setConnectTimeout(TIMEOUT);
+            conn.setReadTimeout(TIMEOUT);
+            if (!cookies.isEmpty()) {
+                conn.setRequestProperty("Cookie", Joiner.on("; ").withKeyValueSeparator("=").join(cookies));
+            }
+            return conn;
+        }
+
+        public String read(HttpURLConnection conn) throws IOException {
+            storeCookies(conn);
+            InputStream in = conn.getResponseCode() < 400 ? conn.getInputStream() : conn.getErrorStream();
+            if (in == null) {
+                return "";
+            }
+            try {
+                return new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+            } finally {
+                in.close();
+            }
+        }
+
+        public URL getLocation() {
+            return location;
+        }
+
+        public Map<String, String> getCookies() {
+            return cookies;
+        }
+
+        private void storeCookies(HttpURLConnection conn) {
+            List<String> setCookies = conn.getHeaderFields().get("Set-Cookie");
+            if (setCookies != null) {
+                for (String setCookie : setCookies) {
+                    String pair = setCookie.split(";", 2)[0];
+                    int eq = pair.indexOf('=');
+                    if (eq > 0) {
+                        cookies.put(pair.substring(0, eq).trim(), pair.substring(eq + 1).trim());
+                    }
+                }
+            }
+        }
+
+    }
+
+    /**
+     * A simulated session participant.
+     */
+    private static final class Participant {
+
+        private final Browser browser = new Browser();
+        private URL base;
+        private String username;
+        private String password;
+        private final Stats stats;
+        private final Set<String> seen = Collections.synchronizedSet(new HashSet<String>());
+        private final Set<String> sent = Collections.synchronizedSet(new HashSet<String>());
+        private URL atmosphereUrl;
+        private URL chatUrl;
+        private String room;
+        private volatile boolean connected = true;
+
+        public Participant(URL base, Stats stats) {
+            this.base = base;
+            this.stats = stats;
+        }
+
+        public void login(String username, String password) throws IOException {
+            this.username = username;
+            this.password = password;
+            Map<String, String> fields = Maps.newLinkedHashMap();
+            fields.put("username", username);
+            fields.put("password", password);
+            fields.put("submit", "1");
+            browser.read(submit(browser.get(base), LOGIN_FORM, fields));
+        }
+
+        public String create(String name) throws IOException {
+            Map<String, String> fields = Maps.newLinkedHashMap();
+            fields.put("name", name);
+            fields.put("estimates", "1h 2h 3h 5h 8h");
+            fields.put("description", "");
+            fields.put("submit", "1");
+            HttpURLConnection conn = submit(browser.get(base), CREATE_FORM, fields);
+            String location = conn.getHeaderField("Location");
+            browser.read(conn);
+            Matcher matcher = location == null ? null : SESSION_CODE.matcher(location);
+            if (matcher == null || !matcher.find()) {
+                throw new IOException("Session wasn't created, redirect location: " + location);
+            }
+            return matcher.group(1);
+        }
+
+        public void join(String code) throws IOException {
+            room = code;
+            String page = browser.get(new URL(base, "session/" + code));
+            URL pageUrl = browser.getLocation();
+            Matcher matcher = ATMOSPHERE_URL.matcher(page);
+            if (!matcher.find() && pageUrl.getPort() != base.getPort()) {
+                // redirected to the node which owns the session, log in there too
+                base = new URL(pageUrl, "/");
+                login(username, password);
+                page = browser.get(new URL(base, "session/" + code));
+                pageUrl = browser.getLocation();
+                matcher = ATMOSPHERE_URL.matcher(page);
+            }
+            if (!matcher.find(0)) {
+                throw new IOException("No Atmosphere URL found on a session page");
+            }
+            atmosphereUrl = new URL(pageUrl, unescape(matcher.group(1)));
+            matcher = AJAX_ATTRS.matcher(page);
+            while (matcher.find()) {
+                String attrs = matcher.group(1);
+                Matcher url = AJAX_URL.matcher(attrs);
+                if (attrs.contains("\"c\":\"chatSend\"") && url.find()) {
+                    chatUrl = new URL(pageUrl, unescape(url.group(1)));
+                }
+            }
+            if (chatUrl == null) {
+                throw new IOException("No chat Ajax URL found on a session page");
+            }
+        }
+
+        public void subscribe(String transport, WebSocketClientFactory factory, ExecutorService executor) throws Exception {
+            if ("websocket".equals(transport)) {
+                WebSocketClient client = factory.newWebSocketClient();
+                client.getCookies().putAll(browser.getCookies());
+                URI uri = new URI(atmosphereUrl.toString().replaceFirst("^http", "ws") + "&" + atmosphereQuery("0", transport));
+                client.open(uri, new WebSocket.OnTextMessage() {
+
+                    @Override
+                    public void onOpen(Connection connection) {}
+
+                    @Override
+                    public void onClose(int closeCode, String message) {}
+
+                    @Override
+                    public void onMessage(String data) {
+                        received(data);
+                    }
+
+                }, TIMEOUT, TimeUnit.MILLISECONDS);
+            } else {
+                executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws Exception {
+                        String uuid = "0";
+                        while (connected) {
+                            URL url = new URL(atmosphereUrl + "&" + atmosphereQuery(uuid, "long-polling"));
+                            HttpURLConnection conn = browser.open(url);
+                            conn.setRequestProperty("X-Atmosphere-Transport", "long-polling");
+                            String body = browser.read(conn);
+                            String tracking = conn.getHeaderField("X-Atmosphere-tracking-id");
+                            if (tracking != null) {
+                                uuid = tracking;
+                            }
+                            received(body);
+                        }
+                        return null;
+                    }
+
+                });
+            }
+        }
+
+        public void post(int seq) throws IOException {
+            Map<String, String> form = Maps.newLinkedHashMap();
+            String payload = "load:" + room + ":" + System.nanoTime() + ":" + seq;
+            sent.add(payload);
+            form.put("chatMsg", payload);
+            form.put("chatSend", "1");
+            Map<String, String> headers = Maps.newHashMap();
+            headers.put("Wicket-Ajax", "true");
+            headers.put("Wicket-Ajax-BaseURL", base.getPath());
+            HttpURLConnection conn = browser.post(chatUrl, form, headers);
+            browser.read(conn);
+            stats.posted.incrementAndGet();
+        }
+
+        public URL getBase() {
+            return base;
+        }
+
+        public void disconnect() {
+            connected = false;
+        }
+
+        private void received(String data) {
+            Matcher matcher = PAYLOAD.matcher(data);
+            while (matcher.find()) {
+                if (sent.contains(matcher.group())) {
+                    stats.echoes.incrementAndGet(); // a message pushed back to its author
+                } else if (!room.equals(matcher.group(1))) {
+                    stats.strays.incrementAndGet(); // a message leaked from another session room
+                } else if (seen.add(matcher.group())) {
+                    stats.delivered(room, Long.parseLong(matcher.group(2)));
+                } else {
+                    stats.duplicates.incrementAndGet(); // e.g. replayed by the broadcaster cache on reconnect
+                }
+            }
+        }
+
+        private HttpURLConnection submit(String page, String listener, Map<String, String> fields) throws IOException {
+            Matcher matcher = Pattern.compile("action=\"([^\"]*" + Pattern.quote(listener) + ")\"").matcher(page);
+            if (!matcher.find()) {
+                throw new IOException("No form found for " + listener);
+            }
+            URL action = new URL(browser.getLocation(), matcher.group(1).replace("&amp;", "&"));
+            String form = page.substring(matcher.end(), page.indexOf("</form>", matcher.end()));
+            // input names are component paths which depend on the markup nesting, so match them by component id
+            Map<String, String> params = Maps.newLinkedHashMap();
+            for (Map.Entry<String, String> field : fields.entrySet()) {
+                Matcher name = Pattern.compile("name=\"((?:[^\":]*:)*" + Pattern.quote(field.getKey()) + ")\"").matcher(form);
+                if (!name.find()) {
+                    throw new IOException("No field " + field.getKey() + " found in a form for " + listener);
+                }
+                params.put(name.group(1), field.getValue());
+            }
+            return browser.post(action, params, Collections.<String, String>emptyMap());
+        }
+
+        private static String atmosphereQuery(String uuid, String transport) {
+            return "X-Atmosphere-tracking-id=" + uuid + "&X-Atmosphere-Framework=1.0&X-Atmosphere-Transport="
+                   + transport + "&X-Cache-Date=0&Content-Type=text/plain";
+        }
+
+        private static String unescape(String url) {
+            return url.replace("\\/", "/").replace("&amp;", "&");
+        }
+
+    }
+
+    /**
+     * Starts the application and runs the load scenario for each configured transport.
+     * 
+     * @param args the command line arguments, aren't used
+     * @throws Exception if any error occurred
+     */
+    public static void main(String[] args) throws Exception {
+        int rooms = Integer.getInteger("rooms", 10);
+        int participants = Integer.getInteger("participants", 10);
+        int messages = Integer.getInteger("messages", 10);
+        long interval = Long.getLong("interval", 100);
+        int nodes = Integer.getInteger("nodes", 1);
+        boolean affinity = Boolean.getBoolean("affinity");
+        int idle = Integer.getInteger("idle", 0);
+        String username = System.getProperty("username", "testaccount");
+        String password = System.getProperty("password", "test");
+        Iterable<String> transports = Splitter.on(',').trimResults().omitEmptyStrings()
+                                              .split(System.getProperty("transports", "websocket,long_polling"));
+
+        System.setProperty("db.data.source", "");
+        System.setProperty("db.driver", "org.h2.Driver");
+        System.setProperty("db.url", "jdbc:h2:mem:poker;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        System.setProperty("db.user", "sa");
+        System.setProperty("db.password", "");
+        System.setProperty("db.connection.properties", ""); // driver properties are MySQL specific
+        System.setProperty("development.mode", "false");
+        if (System.getProperty("chat.rate.limit") == null) { // measure delivery rather than flood protection
+            System.setProperty("chat.rate.limit", String.valueOf(Integer.MAX_VALUE));
+        }
+
+        List<Server> servers = Lists.newArrayList();
+        List<WebAppContext> contexts = Lists.newArrayList();
+        List<URL> bases = Lists.newArrayList();
+        List<Integer> httpPorts = freePorts(nodes);
+        List<Integer> clusterPorts = freePorts(nodes);
+        try {
+            for (int i = 0; i < nodes; i++) {
+                System.setProperty("db.generate.ddl", String.valueOf(i == 0)); // the database is shared
+                if (nodes > 1) {
+                    List<String> peers = Lists.newArrayList();
+                    for (int j = 0; j < nodes; j++) {
+                        if (j != i) {
+                            peers.add("node" + j + "@localhost:" + clusterPorts.get(j));
+                        }
+                    }
+                    System.setProperty("cluster.bridge", "tcp");
+                    System.setProperty("cluster.node", "node" + i);
+                    System.setProperty("cluster.port", String.valueOf(clusterPorts.get(i)));
+                    System.setProperty("cluster.peers", Joiner.on(',').join(peers));
+                    System.setProperty("cluster.url", "http://localhost:" + httpPorts.get(i) + "/");
+                    System.setProperty("cluster.affinity", String.valueOf(affinity));
+                }
+                Server server = new Server();
+                SelectChannelConnector connector = new SelectChannelConnector();
+                connector.setPort(httpPorts.get(i));
+                server.addConnector(connector);
+                WebAppContext context = newContext(server, nodes > 1);
+                server.setHandler(context);
+                servers.add(server);
+                contexts.add(context);
+                server.start();
+                URL base = new URL("http://localhost:" + connector.getLocalPort() + "/");
+                bases.add(base);
+                System.out.println(">>> STARTED EMBEDDED JETTY SERVER AT " + base);
+            }
+
+            WebSocketClientFactory factory = new WebSocketClientFactory();
+            factory.start();
+            try {
+                for (String transport : transports) {
+                    System.out.println(runScenario(bases, transport, rooms, participants, messages, interval,
+                                                   idle, username, password, factory));
+                }
+                System.out.println(countLandingPageSessions(bases.get(0), contexts.get(0), 1000));
+            } finally {
+                factory.stop();
+            }
+        } finally {
+            for (Server server : servers) {
+                server.stop();
+                server.join();
+            }
+        }
+    }
+
+    private static WebAppContext newContext(Server server, boolean isolated) {
+        WebAppContext context = new WebAppContext();
+        context.setServer(server);
+        context.setContextPath("/");
+        context.setDescriptor("src/main/webapp/devel/WEB-INF/web.xml");
+        // Atmosphere resolves /WEB-INF/lib/ through the servlet context, so overlay an empty one
+        File webInf = new File(System.getProperty("java.io.tmpdir"), "poker-load/WEB-INF/lib");
+        webInf.mkdirs();
+        context.setBaseResource(new ResourceCollection(new String[] {"src/main/webapp/common",
+                                                                     webInf.getParentFile().getParent()}));
+        if (isolated) { // Atmosphere and Wicket keep state in statics, so every node needs its own copy of them
+            List<String> classpath = Lists.newArrayList();
+            for (String entry : Splitter.on(File.pathSeparatorChar).omitEmptyStrings()
+                                        .split(System.getProperty("java.class.path"))) {
+                if (!entry.contains("jetty") && !entry.contains("servlet-api")) {
+                    classpath.add(entry);
+                }
+            }
+            context.setExtraClasspath(Joiner.on(',').join(classpath));
+            context.addSystemClass("org.h2."); // but the in-memory database is shared
+        }
+        return context;
+    }
+
+    private static List<Integer> freePorts(int count) throws IOException {
+        List<ServerSocket> sockets = Lists.newArrayList();
+        List<Integer> ports = Lists.newArrayList();
+        try {
+            for (int i = 0; i < count; i++) {
+                ServerSocket socket = new ServerSocket(0);
+                sockets.add(socket);
+                ports.add(socket.getLocalPort());
+            }
+        } finally {
+            for (ServerSocket socket : sockets) {
+                socket.close();
+            }
+        }
+        return ports;
+    }
+
+    private static String runScenario(List<URL> bases, String transport, int rooms, int participants, int messages,
+                                      long interval, int idle, String username, String password,
+                                      WebSocketClientFactory factory) throws Exception {
+        int expected = rooms * messages * participants * (participants - 1); // nobody receives own messages
+        Stats stats = new Stats(expected);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        List<Participant> all = Lists.newArrayList();
+        List<Participant> quiet = Lists.newArrayList();
+        try {
+            for (int r = 0; r < rooms; r++) {
+                String code = null;
+                for (int p = 0; p < participants; p++) {
+                    // spread the participants of a room across the nodes
+                    Participant participant = new Participant(bases.get((r + p) % bases.size()), stats);
+                    participant.login(username, password);
+                    if (code == null) {
+                        code = participant.create(transport + " room " + r);
+                    }
+                    participant.join(code);
+                    participant.subscribe(transport, factory, executor);
+                    all.add(participant);
+                }
+            }
+            TimeUnit.SECONDS.sleep(2); // let all the resources get registered with their Broadcasters
+            String threads = "";
+            if (idle > 0) {
+                Map<String, Integer> before = countThreads();
+                String code = null;
+                for (int i = 0; i < idle; i++) {
+                    Participant participant = new Participant(bases.get(i % bases.size()), stats);
+                    participant.login(username, password);
+                    if (i % participants == 0) { // idle sessions are as crowded as the active ones
+                        code = participant.create(transport + " idle room " + i / participants);
+                    }
+                    participant.join(code);
+                    participant.subscribe(transport, factory, executor);
+                    quiet.add(participant);
+                }
+                TimeUnit.SECONDS.sleep(2);
+                threads = String.format("%nthreads before %d idle participants: %s%nthreads after: %s", idle, before,
+                                        countThreads());
+            }
+            Map<String, Integer> load = Maps.newTreeMap();
+            for (Participant participant : all) {
+                String node = participant.getBase().toString();
+                load.put(node, load.containsKey(node) ? load.get(node) + 1 : 1);
+            }
+
+            long start = System.nanoTime();
+            List<Future<Void>> posters = Lists.newArrayList();
+            for (final Participant participant : all) {
+                final long pause = interval;
+                final int count = messages;
+                posters.add(executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws Exception {
+                        for (int i = 0; i < count; i++) {
+                            participant.post(i);
+                            TimeUnit.MILLISECONDS.sleep(pause);
+                        }
+                        return null;
+                    }
+
+                }));
+            }
+            for (Future<Void> poster : posters) {
+                poster.get();
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (stats.delivered.get() < expected && System.nanoTime() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(100);
+            }
+            return stats.report(transport, start, expected) + String.format("%nparticipants per node: %s", load)
+                   + threads;
+        } finally {
+            for (Participant participant : Iterables.concat(all, quiet)) {
+                participant.disconnect();
+            }
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Counts live threads of this JVM, servers and clients alike, grouped by their names without trailing numbers,
+     * e.g. <code>qtp1162918744-30</code> is counted as <code>qtp1162918744</code>.
+     */
+    private static Map<String, Integer> countThreads() {
+        Map<String, Integer> counts = Maps.newTreeMap();
+        int total = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            String group = THREAD_NUMBER.matcher(thread.getName()).replaceFirst("");
+            counts.put(group, counts.containsKey(group) ? counts.get(group) + 1 : 1);
+            total++;
+        }
+        counts.put("total", total);
+        return counts;
+    }
+
+    private static String countLandingPageSessions(URL base, WebAppContext context, int hits) throws IOException {
+        AbstractSessionManager sessions = (AbstractSessionManager) context.getSessionHandler().getSessionManager();
+        int before = sessions.getSessionsTotal();
+        for (int i = 0; i < hits; i++) {
+            new Browser().get(base); // a fresh browser without cookies every time
+        }
+        return String.format("landing page: %d sessions created per %d anonymous hits",
+                             sessions.getSessionsTotal() - before, hits);
+    }
+
+    private RealtimeLoadGenerator() {}
+
+}
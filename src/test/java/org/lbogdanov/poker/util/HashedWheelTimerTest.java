@@ -0,0 +1,102 @@
+package org.lbogdanov.poker.util;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.lbogdanov.poker.util.HashedWheelTimer.Timeout;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for {@link HashedWheelTimer} class.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class HashedWheelTimerTest {
+
+    private final HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10, TimeUnit.MILLISECONDS, 8);
+
+    @After
+    public void tearDown() {
+        timer.stop();
+    }
+
+    /**
+     * Test for {@link HashedWheelTimer#schedule(Runnable, long, TimeUnit)}, tasks run in deadline order, including the
+     * ones which take more than a round of the wheel.
+     */
+    @Test
+    public void testSchedule() throws InterruptedException {
+        final List<Integer> runs = Lists.newCopyOnWriteArrayList();
+        final CountDownLatch done = new CountDownLatch(3);
+        long start = System.nanoTime();
+        for (final int delay : new int[] {250, 30, 120}) { // the wheel turns every 80 ms
+            timer.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    runs.add(delay);
+                    done.countDown();
+                }
+
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(3, timer.getPending());
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(ImmutableList.of(30, 120, 250), runs);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(250));
+        assertEquals(0, timer.getPending());
+    }
+
+    /**
+     * Test for {@link Timeout#cancel()}.
+     */
+    @Test
+    public void testCancel() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        Timeout cancelled = timer.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                fail("Cancelled task has run");
+            }
+
+        }, 20, TimeUnit.MILLISECONDS);
+        Timeout expired = timer.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                done.countDown();
+            }
+
+        }, 50, TimeUnit.MILLISECONDS);
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+        assertEquals(1, timer.getPending());
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(cancelled.isCancelled());
+        assertTrue(expired.isExpired());
+        assertFalse(expired.cancel());
+    }
+
+    /**
+     * Test for {@link HashedWheelTimer#stop()}, no tasks are accepted afterwards.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testStop() {
+        timer.stop();
+        timer.schedule(new Runnable() {
+
+            @Override
+            public void run() {}
+
+        }, 1, TimeUnit.MILLISECONDS);
+    }
+
+}
@@ -0,0 +1,92 @@
+package org.lbogdanov.poker.util;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+
+/**
+ * Tests for {@link KeyedRateLimiter} class.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class KeyedRateLimiterTest {
+
+    private final AtomicLong now = new AtomicLong(42);
+    private final KeyedRateLimiter limiter = new KeyedRateLimiter(2, 3, new Ticker() {
+
+        @Override
+        public long read() {
+            return now.get();
+        }
+
+    });
+
+    /**
+     * Test for {@link KeyedRateLimiter#tryAcquire(Object)}, a burst is allowed and then tokens come at the rate.
+     */
+    @Test
+    public void testTryAcquire() {
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.tryAcquire("a"));
+        }
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), limiter.tryAcquire("a"));
+        assertEquals(0, limiter.tryAcquire("b"));
+        advance(200);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(300), limiter.tryAcquire("a"));
+        advance(300);
+        assertEquals(0, limiter.tryAcquire("a"));
+        assertTrue(limiter.tryAcquire("a") > 0);
+        advance(10000);
+        for (int i = 0; i < 3; i++) { // no more than a burst after a long pause
+            assertEquals(0, limiter.tryAcquire("a"));
+        }
+        assertTrue(limiter.tryAcquire("a") > 0);
+    }
+
+    /**
+     * Test for {@link KeyedRateLimiter#setLimits(double, int)}, existing buckets follow the new limits.
+     */
+    @Test
+    public void testSetLimits() {
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.tryAcquire("a"));
+        }
+        assertTrue(limiter.tryAcquire("a") > 0);
+        limiter.setLimits(2, 4);
+        assertEquals(0, limiter.tryAcquire("a"));
+        assertTrue(limiter.tryAcquire("a") > 0);
+        limiter.setLimits(10, 4);
+        advance(1600); // the bucket is full in 400 ms, a burst of 4 tokens is 400 ms now
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), limiter.tryAcquire("a"));
+        advance(100);
+        assertEquals(0, limiter.tryAcquire("a"));
+    }
+
+    /**
+     * Test for {@link KeyedRateLimiter#size()}, full buckets are dropped.
+     */
+    @Test
+    public void testSweep() {
+        limiter.tryAcquire("a");
+        limiter.tryAcquire("b");
+        limiter.tryAcquire("b");
+        limiter.tryAcquire("b");
+        assertEquals(2, limiter.size());
+        advance(TimeUnit.SECONDS.toMillis(59));
+        limiter.tryAcquire("c");
+        assertEquals(3, limiter.size());
+        advance(TimeUnit.SECONDS.toMillis(1));
+        assertEquals(0, limiter.tryAcquire("c"));
+        assertEquals(1, limiter.size());
+    }
+
+    private void advance(long millis) {
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+}
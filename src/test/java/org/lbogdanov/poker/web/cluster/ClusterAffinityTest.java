@@ -0,0 +1,179 @@
+package org.lbogdanov.poker.web.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lbogdanov.poker.web.util.ChatMessage;
+import org.lbogdanov.poker.web.util.Message;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Tests for session affinity of {@link TcpClusterBridge} nodes running on the loopback interface.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class ClusterAffinityTest {
+
+    private static final int NODES = 3;
+    private static final long TIMEOUT = 5000;
+
+    private final List<TcpClusterBridge> nodes = Lists.newArrayList();
+    private final List<Recorder> recorders = Lists.newArrayList();
+
+    /**
+     * Starts a cluster of several nodes and waits until all of them see each other.
+     * 
+     * @throws Exception if any error occurred
+     */
+    @Before
+    public void setUp() throws Exception {
+        List<Integer> ports = Lists.newArrayList();
+        for (int i = 0; i < NODES; i++) {
+            ServerSocket socket = new ServerSocket(0);
+            ports.add(socket.getLocalPort());
+            socket.close();
+        }
+        for (int i = 0; i < NODES; i++) {
+            Map<String, InetSocketAddress> peers = Maps.newHashMap();
+            for (int j = 0; j < NODES; j++) {
+                if (j != i) {
+                    peers.put("node" + j, new InetSocketAddress("127.0.0.1", ports.get(j)));
+                }
+            }
+            TcpClusterBridge node = new TcpClusterBridge("node" + i, "http://node" + i + "/", 1, true, "127.0.0.1",
+                                                         ports.get(i), peers);
+            Recorder recorder = new Recorder();
+            node.start(recorder);
+            nodes.add(node);
+            recorders.add(recorder);
+        }
+        awaitMembers(NODES);
+    }
+
+    /**
+     * Stops the cluster.
+     */
+    @After
+    public void tearDown() {
+        for (TcpClusterBridge node : nodes) {
+            node.stop();
+        }
+    }
+
+    /**
+     * Test for {@link ClusterBridge#getOwner(String)} and {@link ClusterBridge#getUrl(String)}, all nodes should
+     * agree on the owner of a session.
+     */
+    @Test
+    public void testOwner() {
+        for (int i = 0; i < 100; i++) {
+            String owner = nodes.get(0).getOwner("code" + i);
+            for (TcpClusterBridge node : nodes) {
+                assertEquals(owner, node.getOwner("code" + i));
+                assertEquals("http://" + owner + "/", node.getUrl(owner));
+            }
+        }
+    }
+
+    /**
+     * Test for {@link ClusterBridge#publish(String, Message)}, messages should be forwarded to the owner only.
+     * 
+     * @throws Exception if any error occurred
+     */
+    @Test
+    public void testForwardToOwner() throws Exception {
+        String channel = channelOwnedBy(0);
+        nodes.get(1).publish(channel, new ChatMessage("origin", null, "hello"));
+
+        assertEquals("hello", recorders.get(1).messages.poll(TIMEOUT, TimeUnit.MILLISECONDS)); // local delivery
+        assertEquals("hello", recorders.get(0).messages.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertNull(recorders.get(2).messages.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Test for {@link ClusterBridge#publish(String, Message)}, the owner should relay messages to the nodes which
+     * still have subscribers of the session.
+     * 
+     * @throws Exception if any error occurred
+     */
+    @Test
+    public void testRelay() throws Exception {
+        String channel = channelOwnedBy(0);
+        recorders.get(2).channels.add(channel);
+        TimeUnit.MILLISECONDS.sleep(2500); // let the owner learn about the subscribers from a heartbeat
+        nodes.get(1).publish(channel, new ChatMessage("origin", null, "hello"));
+
+        assertEquals("hello", recorders.get(1).messages.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals("hello", recorders.get(0).messages.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals("hello", recorders.get(2).messages.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertNull(recorders.get(1).messages.poll(200, TimeUnit.MILLISECONDS)); // no echo from the owner
+    }
+
+    /**
+     * Test for sessions moving to other nodes when a node leaves and joins the cluster.
+     * 
+     * @throws Exception if any error occurred
+     */
+    @Test
+    public void testRebalance() throws Exception {
+        String channel = channelOwnedBy(2);
+        nodes.remove(2).stop();
+        awaitMembers(NODES - 1);
+        String owner = nodes.get(0).getOwner(channel);
+        assertTrue(owner.equals("node0") || owner.equals("node1"));
+        assertEquals(owner, nodes.get(1).getOwner(channel));
+    }
+
+    private String channelOwnedBy(int node) {
+        for (int i = 0;; i++) {
+            if (("node" + node).equals(nodes.get(0).getOwner("code" + i))) {
+                return "code" + i;
+            }
+        }
+    }
+
+    private void awaitMembers(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        for (TcpClusterBridge node : nodes) {
+            while (node.getNodes().size() != count && System.currentTimeMillis() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(50);
+            }
+            assertEquals(count, node.getNodes().size());
+        }
+    }
+
+    private static final class Recorder implements ClusterBridge.Receiver {
+
+        private final BlockingQueue<Object> messages = new LinkedBlockingQueue<Object>();
+        private final Set<String> channels = new CopyOnWriteArraySet<String>();
+
+        @Override
+        public void receive(String channel, Message<?> message) {
+            messages.add(message.message);
+        }
+
+        @Override
+        public Collection<String> getChannels() {
+            return channels;
+        }
+
+    }
+
+}
@@ -0,0 +1,128 @@
+package org.lbogdanov.poker.web.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Tests for {@link ConsistentHashRing} class.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class ConsistentHashRingTest {
+
+    private static final int NODES = 5;
+    private static final int KEYS = 20000;
+    private static final String ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+
+    private ConsistentHashRing ring;
+    private List<String> keys;
+
+    /**
+     * Creates a ring of several nodes and a set of random session codes.
+     */
+    @Before
+    public void setUp() {
+        ring = new ConsistentHashRing(128);
+        for (int i = 0; i < NODES; i++) {
+            ring.add("node" + i);
+        }
+        Random random = new Random(42);
+        keys = Lists.newArrayListWithCapacity(KEYS);
+        for (int i = 0; i < KEYS; i++) { // the same shape as codes generated by SessionService
+            StringBuilder code = new StringBuilder();
+            for (int j = 0; j < 10; j++) {
+                code.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+            keys.add(code.toString());
+        }
+    }
+
+    /**
+     * Test for {@link ConsistentHashRing#getOwner(String)} with an empty ring.
+     */
+    @Test
+    public void testEmpty() {
+        assertNull(new ConsistentHashRing(1).getOwner("code"));
+    }
+
+    /**
+     * Test for {@link ConsistentHashRing#add(String)} and {@link ConsistentHashRing#remove(String)}.
+     */
+    @Test
+    public void testMembership() {
+        assertFalse(ring.add("node0"));
+        assertTrue(ring.remove("node0"));
+        assertFalse(ring.remove("node0"));
+        assertEquals(NODES - 1, ring.getNodes().size());
+    }
+
+    /**
+     * Test for {@link ConsistentHashRing#getOwner(String)}, keys should be spread evenly.
+     */
+    @Test
+    public void testDistribution() {
+        Map<String, Integer> counts = Maps.newHashMap();
+        for (String key : keys) {
+            String owner = ring.getOwner(key);
+            counts.put(owner, counts.containsKey(owner) ? counts.get(owner) + 1 : 1);
+        }
+        assertEquals(NODES, counts.size());
+        for (Map.Entry<String, Integer> count : counts.entrySet()) {
+            assertEquals(count.getKey(), KEYS / NODES, count.getValue(), KEYS / NODES * 0.2);
+        }
+    }
+
+    /**
+     * Test for {@link ConsistentHashRing#add(String)}, only keys taken over by the new node should move.
+     */
+    @Test
+    public void testJoin() {
+        Map<String, String> before = owners();
+        ring.add("node" + NODES);
+        int moved = 0;
+        for (Map.Entry<String, String> owner : owners().entrySet()) {
+            if (!owner.getValue().equals(before.get(owner.getKey()))) {
+                assertEquals("node" + NODES, owner.getValue());
+                moved++;
+            }
+        }
+        assertEquals(KEYS / (NODES + 1), moved, KEYS / (NODES + 1) * 0.2);
+    }
+
+    /**
+     * Test for {@link ConsistentHashRing#remove(String)}, only keys of the removed node should move.
+     */
+    @Test
+    public void testLeave() {
+        Map<String, String> before = owners();
+        ring.remove("node0");
+        for (Map.Entry<String, String> owner : owners().entrySet()) {
+            if (!"node0".equals(before.get(owner.getKey()))) {
+                assertEquals(before.get(owner.getKey()), owner.getValue());
+            }
+        }
+        ring.add("node0");
+        assertEquals(before, owners());
+    }
+
+    private Map<String, String> owners() {
+        Map<String, String> owners = Maps.newHashMap();
+        for (String key : keys) {
+            owners.put(key, ring.getOwner(key));
+        }
+        return owners;
+    }
+
+}
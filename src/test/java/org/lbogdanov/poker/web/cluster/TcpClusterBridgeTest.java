@@ -0,0 +1,229 @@
+package org.lbogdanov.poker.web.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lbogdanov.poker.core.User;
+import org.lbogdanov.poker.web.cluster.AbstractClusterBridge.Batch;
+import org.lbogdanov.poker.web.cluster.AbstractClusterBridge.Envelope;
+import org.lbogdanov.poker.web.util.ChatMessage;
+import org.lbogdanov.poker.web.util.Message;
+
+/**
+ * Tests for {@link TcpClusterBridge} class.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class TcpClusterBridgeTest {
+
+    private static final long TIMEOUT = 5000;
+
+    private final Recorder recorderA = new Recorder();
+    private final Recorder recorderB = new Recorder();
+    private TcpClusterBridge nodeA;
+    private TcpClusterBridge nodeB;
+
+    /**
+     * Starts two nodes on the loopback interface, the first one sends messages to the second one.
+     */
+    @Before
+    public void setUp() {
+        nodeB = new TcpClusterBridge("B", null, 5, false, "127.0.0.1", 0, Collections.<String, InetSocketAddress>emptyMap());
+        nodeB.start(recorderB);
+        InetSocketAddress addressB = new InetSocketAddress("127.0.0.1", nodeB.getPort());
+        nodeA = new TcpClusterBridge("A", null, 5, false, "127.0.0.1", 0, Collections.singletonMap("B", addressB));
+        nodeA.start(recorderA);
+    }
+
+    /**
+     * Stops the nodes.
+     */
+    @After
+    public void tearDown() {
+        nodeA.stop();
+        nodeB.stop();
+    }
+
+    /**
+     * Test for {@link TcpClusterBridge#publish(String, Message)}.
+     * 
+     * @throws Exception if any error occurred
+     */
+    @Test
+    public void testPublish() throws Exception {
+        User author = new User();
+        author.setFirstName("John");
+        for (int i = 0; i < 3; i++) {
+            nodeA.publish("c1", new ChatMessage("origin", author, "one" + i));
+            nodeA.publish("c2", new ChatMessage("origin", author, "two" + i));
+        }
+        List<String> expected = Arrays.asList("c1:one0", "c1:one1", "c1:one2", "c2:two0", "c2:two1", "c2:two2");
+        assertEquals(expected, recorderA.await(6));
+        assertEquals(expected, recorderB.await(6));
+        assertNull(recorderB.messages.poll(100, TimeUnit.MILLISECONDS));
+        assertNull(recorderA.messages.poll());
+    }
+
+    /**
+     * Test for {@link TcpClusterBridge#publish(String, Message)} called by several threads for the same channel, none of
+     * the messages may be taken for a duplicate by the other node.
+     * 
+     * @throws Exception if any error occurred
+     */
+    @Test
+    public void testConcurrentPublish() throws Exception {
+        final int threads = 8;
+        final int messages = 200;
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> publishers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            final int thread = i;
+            publishers.add(new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < messages; j++) {
+                        nodeA.publish("c1", new ChatMessage("origin", null, thread + "-" + j));
+                    }
+                }
+
+            });
+        }
+        for (Thread publisher : publishers) {
+            publisher.start();
+        }
+        start.countDown();
+        for (Thread publisher : publishers) {
+            publisher.join();
+        }
+        List<String> received = recorderB.await(threads * messages);
+        assertEquals(threads * messages, received.size());
+        assertEquals(threads * messages, new HashSet<String>(received).size());
+    }
+
+    /**
+     * Test for {@link TcpClusterBridge#publish(String, Message)} to many channels, idle outboxes should be dropped and
+     * the messages published to a channel afterwards mustn't be taken for duplicates by the other node.
+     * 
+     * @throws Exception if any error occurred
+     */
+    @Test
+    public void testIdleOutboxes() throws Exception {
+        int channels = 50;
+        nodeA.setOutboxIdleMillis(0);
+        for (int i = 0; i < channels; i++) {
+            nodeA.publish("c" + i, new ChatMessage("origin", null, "first"));
+        }
+        assertEquals(channels, recorderB.await(channels).size());
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (nodeA.getOutboxCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, nodeA.getOutboxCount());
+
+        nodeA.publish("c0", new ChatMessage("origin", null, "second"));
+        assertEquals(Arrays.asList("c0:second"), recorderB.await(1));
+    }
+
+    /**
+     * Test for {@link TcpClusterBridge} receiving a Java serialized object, the connection should be dropped without
+     * deserializing it, while the other connections keep working.
+     * 
+     * @throws Exception if any error occurred
+     */
+    @Test
+    public void testMalformedPacket() throws Exception {
+        Socket socket = new Socket("127.0.0.1", nodeB.getPort());
+        try {
+            socket.setSoTimeout((int) TIMEOUT);
+            ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+            out.writeObject(new ChatMessage("origin", null, "forged"));
+            out.flush();
+            assertEquals(-1, socket.getInputStream().read());
+        } finally {
+            socket.close();
+        }
+        nodeA.publish("c1", new ChatMessage("origin", null, "genuine"));
+        assertEquals(Arrays.asList("c1:genuine"), recorderB.await(1));
+        assertNull(recorderB.messages.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Test for {@link AbstractClusterBridge#receive(Object)} with redelivered and looped back messages.
+     */
+    @Test
+    public void testDuplicates() {
+        Batch batch = new Batch("c1", Arrays.asList(new Envelope("A", 1, new ChatMessage("origin", null, "first")),
+                                                    new Envelope("A", 2, new ChatMessage("origin", null, "second")),
+                                                    new Envelope("B", 3, new ChatMessage("origin", null, "own"))));
+        nodeB.receive(batch);
+        nodeB.receive(batch);
+        nodeB.receive(new Batch("c1", Arrays.asList(new Envelope("A", 1, new ChatMessage("origin", null, "first")))));
+
+        assertEquals(Arrays.asList("c1:first", "c1:second"), recorderB.drain());
+    }
+
+    private static final class Recorder implements ClusterBridge.Receiver {
+
+        private final BlockingQueue<String> messages = new LinkedBlockingQueue<String>();
+
+        @Override
+        public void receive(String channel, Message<?> message) {
+            messages.add(channel + ":" + message.message);
+        }
+
+        @Override
+        public Collection<String> getChannels() {
+            return Collections.emptySet();
+        }
+
+        List<String> await(int count) throws InterruptedException {
+            List<String> list = new ArrayList<String>();
+            String message;
+            while (list.size() < count && (message = messages.poll(TIMEOUT, TimeUnit.MILLISECONDS)) != null) {
+                list.add(message);
+            }
+            // messages of different channels may interleave, a stable sort by channel keeps the order within one
+            Collections.sort(list, new Comparator<String>() {
+
+                @Override
+                public int compare(String o1, String o2) {
+                    return o1.substring(0, o1.indexOf(':')).compareTo(o2.substring(0, o2.indexOf(':')));
+                }
+
+            });
+            return list;
+        }
+
+        List<String> drain() {
+            List<String> list = new ArrayList<String>();
+            messages.drainTo(list);
+            return list;
+        }
+
+    }
+
+}
@@ -0,0 +1,117 @@
+package org.lbogdanov.poker.web.markup;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.wicket.MarkupContainer;
+import org.apache.wicket.ajax.AjaxRequestTarget;
+import org.apache.wicket.markup.IMarkupResourceStreamProvider;
+import org.apache.wicket.markup.html.WebPage;
+import org.apache.wicket.markup.html.form.Form;
+import org.apache.wicket.markup.html.form.RequiredTextField;
+import org.apache.wicket.markup.html.form.StatelessForm;
+import org.apache.wicket.model.Model;
+import org.apache.wicket.util.resource.IResourceStream;
+import org.apache.wicket.util.resource.StringResourceStream;
+import org.apache.wicket.util.tester.FormTester;
+import org.apache.wicket.util.tester.WicketTester;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link StatelessAjaxFallbackButton} class, a join form like the one of the landing page is rendered and
+ * submitted without binding an HTTP session.
+ *
+ * @author Leonid Bogdanov
+ */
+public class StatelessAjaxFallbackButtonTest {
+
+    private static final AtomicReference<String> SUBMITTED = new AtomicReference<String>();
+
+    private WicketTester tester;
+
+    /**
+     * Starts a mock application.
+     */
+    @Before
+    public void setUp() {
+        SUBMITTED.set(null);
+        tester = new WicketTester();
+    }
+
+    /**
+     * Stops the mock application.
+     */
+    @After
+    public void tearDown() {
+        tester.destroy();
+    }
+
+    /**
+     * Test for a page with a stateless form and a {@link StatelessAjaxFallbackButton}, the page should stay stateless.
+     */
+    @Test
+    public void testRender() {
+        tester.startPage(JoinPage.class);
+        tester.assertRenderedPage(JoinPage.class);
+        assertTrue(tester.getLastRenderedPage().isPageStateless());
+        assertTrue(tester.getSession().isTemporary());
+    }
+
+    /**
+     * Test for {@link StatelessAjaxFallbackButton#onSubmit(AjaxRequestTarget, Form)} and
+     * {@link StatelessAjaxFallbackButton#onError(AjaxRequestTarget, Form)} called by Ajax submits.
+     */
+    @Test
+    public void testAjaxSubmit() {
+        tester.startPage(JoinPage.class);
+        tester.executeAjaxEvent("join:submit", "click");
+        assertEquals("error", SUBMITTED.get());
+
+        tester.startPage(JoinPage.class);
+        FormTester form = tester.newFormTester("join");
+        form.setValue("code", "abc");
+        tester.executeAjaxEvent("join:submit", "click");
+        assertEquals("abc", SUBMITTED.get());
+        assertTrue(tester.getSession().isTemporary());
+    }
+
+    /**
+     * A page with a join form.
+     */
+    public static class JoinPage extends WebPage implements IMarkupResourceStreamProvider {
+
+        /**
+         * Creates a new instance of the <code>JoinPage</code> class.
+         */
+        public JoinPage() {
+            final Model<String> code = Model.of("");
+            Form<?> join = new StatelessForm<Void>("join");
+            join.add(new RequiredTextField<String>("code", code), new StatelessAjaxFallbackButton("submit", join) {
+
+                @Override
+                protected void onSubmit(AjaxRequestTarget target, Form<?> form) {
+                    SUBMITTED.set(code.getObject());
+                }
+
+                @Override
+                protected void onError(AjaxRequestTarget target, Form<?> form) {
+                    SUBMITTED.set("error");
+                }
+
+            });
+            add(join);
+        }
+
+        @Override
+        public IResourceStream getMarkupResourceStream(MarkupContainer container, Class<?> containerClass) {
+            return new StringResourceStream("<html><body><form wicket:id=\"join\">"
+                                            + "<input type=\"text\" wicket:id=\"code\"/>"
+                                            + "<button wicket:id=\"submit\">Join</button></form></body></html>");
+        }
+
+    }
+
+}
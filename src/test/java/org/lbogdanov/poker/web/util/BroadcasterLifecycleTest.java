@@ -0,0 +1,88 @@
+package org.lbogdanov.poker.web.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.*;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.Broadcaster;
+import org.atmosphere.cpr.BroadcasterFactory;
+import org.junit.After;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Tests for {@link BroadcasterLifecycle} class.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class BroadcasterLifecycleTest {
+
+    private final BroadcasterFactory factory = mock(BroadcasterFactory.class);
+    private final AtmosphereResource resource = mock(AtmosphereResource.class);
+    private final Broadcaster busy = broadcaster("busy", Collections.singleton(resource));
+    private final Broadcaster empty = broadcaster("empty", Collections.<AtmosphereResource>emptyList());
+    private BroadcasterLifecycle lifecycle;
+
+    @After
+    public void tearDown() {
+        lifecycle.stop();
+    }
+
+    /**
+     * Test for {@link BroadcasterLifecycle#reap(BroadcasterFactory)}, Broadcasters without clients are destroyed after
+     * the grace period.
+     */
+    @Test
+    public void testReap() throws InterruptedException {
+        lifecycle = new BroadcasterLifecycle(new MetricRegistry(), 50);
+        when(factory.lookupAll()).thenReturn(ImmutableList.of(busy, empty));
+        when(factory.lookup("empty")).thenReturn(empty);
+
+        assertEquals(0, lifecycle.reap(factory));
+        assertEquals(1, lifecycle.getLive());
+        assertEquals(1, lifecycle.getIdle());
+        verify(empty, never()).destroy();
+
+        Thread.sleep(100);
+        assertEquals(1, lifecycle.reap(factory));
+        verify(empty).destroy();
+        verify(busy, never()).destroy();
+        assertEquals(1, lifecycle.getLive());
+        assertEquals(0, lifecycle.getIdle());
+        assertEquals(1, lifecycle.getReaped());
+    }
+
+    /**
+     * Test for {@link BroadcasterLifecycle#subscribe(BroadcasterFactory, String, AtmosphereResource)}, a client
+     * restarts the grace period of its room.
+     */
+    @Test
+    public void testSubscribe() throws InterruptedException {
+        lifecycle = new BroadcasterLifecycle(new MetricRegistry(), 50);
+        when(factory.lookupAll()).thenReturn(ImmutableList.of(empty));
+        when(factory.lookup("empty", true)).thenReturn(empty);
+
+        lifecycle.reap(factory);
+        Thread.sleep(100);
+        assertSame(empty, lifecycle.subscribe(factory, "empty", resource));
+        verify(empty).addAtmosphereResource(resource);
+        assertEquals(0, lifecycle.getIdle());
+
+        assertEquals(0, lifecycle.reap(factory)); // the grace period starts over
+        verify(empty, never()).destroy();
+    }
+
+    private static Broadcaster broadcaster(String id, Collection<AtmosphereResource> resources) {
+        Broadcaster broadcaster = mock(Broadcaster.class);
+        when(broadcaster.getID()).thenReturn(id);
+        when(broadcaster.getAtmosphereResources()).thenReturn(resources);
+        return broadcaster;
+    }
+
+}
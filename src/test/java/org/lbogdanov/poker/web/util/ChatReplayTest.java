@@ -0,0 +1,89 @@
+package org.lbogdanov.poker.web.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Test;
+import org.lbogdanov.poker.core.User;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for {@link ChatReplay} class.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class ChatReplayTest {
+
+    private final ChatReplay replay = new ChatReplay();
+    private final User author = new User();
+
+    /**
+     * Test for {@link ChatReplay#add(String, ChatMessage)}, the oldest messages are overwritten.
+     */
+    @Test
+    public void testAdd() {
+        int capacity = replay.getCapacity();
+        replay.getRecent("code", history());
+        replay.getRecent("other", history());
+        for (int i = 0; i < capacity + 10; i++) {
+            replay.add("code", new ChatMessage(null, author, String.valueOf(i)));
+        }
+        replay.add("other", new ChatMessage(null, author, "other"));
+
+        List<String> expected = Lists.newArrayList();
+        for (int i = 10; i < capacity + 10; i++) {
+            expected.add(String.valueOf(i));
+        }
+        assertEquals(expected, texts(replay.getRecent("code", history("persisted"))));
+        assertEquals(Arrays.asList("other"), texts(replay.getRecent("other", history("persisted"))));
+    }
+
+    /**
+     * Test for {@link ChatReplay#getRecent(String, Supplier)}, the history is seeded once.
+     */
+    @Test
+    public void testGetRecent() {
+        assertEquals(Arrays.asList("1", "2"), texts(replay.getRecent("code", history("1", "2"))));
+        replay.add("code", new ChatMessage(null, author, "3"));
+        assertEquals(Arrays.asList("1", "2", "3"), texts(replay.getRecent("code", history("4"))));
+    }
+
+    /**
+     * Test for {@link ChatReplay#add(String, ChatMessage)} before the history of a channel is seeded, e.g. after a
+     * restart, the persisted history shouldn't be hidden by the new message.
+     */
+    @Test
+    public void testAddUnseeded() {
+        replay.add("code", new ChatMessage(null, author, "3"));
+        assertEquals(Arrays.asList("1", "2", "3"), texts(replay.getRecent("code", history("1", "2", "3"))));
+    }
+
+    private Supplier<Collection<ChatMessage>> history(final String... texts) {
+        return new Supplier<Collection<ChatMessage>>() {
+
+            @Override
+            public Collection<ChatMessage> get() {
+                List<ChatMessage> messages = Lists.newArrayList();
+                for (String text : texts) {
+                    messages.add(new ChatMessage(null, author, text));
+                }
+                return messages;
+            }
+
+        };
+    }
+
+    private static List<String> texts(List<ChatMessage> messages) {
+        List<String> texts = Lists.newArrayList();
+        for (ChatMessage message : messages) {
+            texts.add(message.message);
+        }
+        return texts;
+    }
+
+}
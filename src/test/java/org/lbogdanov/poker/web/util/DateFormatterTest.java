@@ -0,0 +1,48 @@
+package org.lbogdanov.poker.web.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link DateFormatter} class.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class DateFormatterTest {
+
+    private final DateFormatter formatter = DateFormatter.get();
+
+    /**
+     * Test for {@link DateFormatter#format(Date, int, int, Locale)}.
+     */
+    @Test
+    public void testFormat() {
+        Date date = new Date();
+        for (Locale locale : new Locale[] {Locale.ENGLISH, Locale.GERMANY, Locale.JAPAN}) {
+            assertEquals(DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.MEDIUM, locale).format(date),
+                         formatter.format(date, DateFormat.SHORT, DateFormat.MEDIUM, locale));
+        }
+    }
+
+    /**
+     * Test for {@link DateFormatter#formatRelative(Date, Locale)}.
+     */
+    @Test
+    public void testFormatRelative() {
+        Date recent = new Date(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(5));
+        Date old = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(30));
+
+        assertEquals("5 minutes ago", formatter.formatRelative(recent, Locale.ENGLISH));
+        assertSame(formatter.formatRelative(recent, Locale.ENGLISH), formatter.formatRelative(recent, Locale.ENGLISH));
+        assertEquals(DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT, Locale.ENGLISH).format(old),
+                     formatter.formatRelative(old, Locale.ENGLISH));
+    }
+
+}
@@ -0,0 +1,80 @@
+package org.lbogdanov.poker.web.util;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.apache.wicket.ThreadContext;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.atmosphere.cpr.HeaderConfig;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Tests for {@link DeferredSessionFilter} class.
+ *
+ * @author Leonid Bogdanov
+ */
+public class DeferredSessionFilterTest {
+
+    private final DeferredSessionFilter filter = new DeferredSessionFilter();
+    private final HttpServletRequest request = mock(HttpServletRequest.class);
+    private final HttpServletResponse response = mock(HttpServletResponse.class);
+    private final HttpSession session = mock(HttpSession.class);
+    private final FilterChain chain = mock(FilterChain.class);
+
+    /**
+     * Detaches the request cycle a test may have set.
+     */
+    @After
+    public void tearDown() {
+        ThreadContext.detach();
+    }
+
+    /**
+     * Test for {@link DeferredSessionFilter#doFilter(ServletRequest, javax.servlet.ServletResponse, FilterChain)}, a
+     * session isn't created outside a Wicket request cycle, unless it's asked for with <code>getSession()</code>.
+     *
+     * @throws Exception if any error occurred
+     */
+    @Test
+    public void testDeferred() throws Exception {
+        when(request.getSession(true)).thenReturn(session);
+        when(request.getSession()).thenReturn(session);
+        HttpServletRequest wrapped = filter(request);
+
+        assertNull(wrapped.getSession(true));
+        verify(request, never()).getSession(true);
+        assertSame(session, wrapped.getSession());
+
+        ThreadContext.setRequestCycle(mock(RequestCycle.class));
+        assertSame(session, wrapped.getSession(true));
+    }
+
+    /**
+     * Test for {@link DeferredSessionFilter#doFilter(ServletRequest, javax.servlet.ServletResponse, FilterChain)},
+     * Atmosphere requests are passed on as they are.
+     *
+     * @throws Exception if any error occurred
+     */
+    @Test
+    public void testAtmosphere() throws Exception {
+        when(request.getQueryString()).thenReturn(HeaderConfig.X_ATMOSPHERE_TRANSPORT + "=long-polling");
+        filter.doFilter(request, response, chain);
+        verify(chain).doFilter(request, response);
+    }
+
+    private HttpServletRequest filter(HttpServletRequest request) throws Exception {
+        ArgumentCaptor<ServletRequest> wrapped = ArgumentCaptor.forClass(ServletRequest.class);
+        filter.doFilter(request, response, chain);
+        verify(chain).doFilter(wrapped.capture(), same(response));
+        return (HttpServletRequest) wrapped.getValue();
+    }
+
+}
@@ -0,0 +1,120 @@
+package org.lbogdanov.poker.web.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link MappedDataStore} class.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class MappedDataStoreTest {
+
+    private MappedDataStore store;
+
+    /**
+     * Creates a store of 1000 bytes which allows 300 bytes per session.
+     * 
+     * @throws IOException if any error occurred
+     */
+    @Before
+    public void setUp() throws IOException {
+        File file = File.createTempFile("pages", ".map");
+        store = new MappedDataStore(file, 1000, 300);
+    }
+
+    /**
+     * Destroys the store.
+     */
+    @After
+    public void tearDown() {
+        store.destroy();
+    }
+
+    /**
+     * Test for {@link MappedDataStore#storeData(String, int, byte[])} and
+     * {@link MappedDataStore#getData(String, int)}.
+     */
+    @Test
+    public void testStore() {
+        store.storeData("s1", 1, page(100, 1));
+        store.storeData("s2", 1, page(100, 2));
+        store.storeData("s1", 1, page(50, 3)); // a newer version of the same page
+
+        assertArrayEquals(page(50, 3), store.getData("s1", 1));
+        assertArrayEquals(page(100, 2), store.getData("s2", 1));
+        assertNull(store.getData("s1", 2));
+        assertNull(store.getData("s3", 1));
+        assertEquals(2, store.getSessionCount());
+        assertEquals(150, store.getSize());
+    }
+
+    /**
+     * Test for {@link MappedDataStore#storeData(String, int, byte[])}, a session can't exceed its limit.
+     */
+    @Test
+    public void testSessionLimit() {
+        for (int i = 1; i <= 4; i++) {
+            store.storeData("s1", i, page(100, i));
+        }
+
+        assertNull(store.getData("s1", 1));
+        for (int i = 2; i <= 4; i++) {
+            assertArrayEquals(page(100, i), store.getData("s1", i));
+        }
+        assertEquals(300, store.getSize());
+    }
+
+    /**
+     * Test for {@link MappedDataStore#getData(String, int)}, the oldest pages are overwritten once the file is full.
+     */
+    @Test
+    public void testWrap() {
+        for (int i = 1; i <= 10; i++) {
+            store.storeData("s" + i, 1, page(100, i));
+        }
+        store.storeData("s11", 1, page(150, 11)); // doesn't fit, goes to the beginning of the file
+
+        assertNull(store.getData("s1", 1));
+        assertNull(store.getData("s2", 1));
+        for (int i = 3; i <= 10; i++) {
+            assertArrayEquals(page(100, i), store.getData("s" + i, 1));
+        }
+        assertArrayEquals(page(150, 11), store.getData("s11", 1));
+        assertEquals(950, store.getSize());
+    }
+
+    /**
+     * Test for {@link MappedDataStore#removeData(String, int)} and {@link MappedDataStore#removeData(String)}.
+     */
+    @Test
+    public void testRemove() {
+        store.storeData("s1", 1, page(100, 1));
+        store.storeData("s1", 2, page(100, 2));
+        store.storeData("s2", 1, page(100, 3));
+        store.removeData("s1", 1);
+        store.removeData("s2");
+
+        assertNull(store.getData("s1", 1));
+        assertArrayEquals(page(100, 2), store.getData("s1", 2));
+        assertNull(store.getData("s2", 1));
+        assertEquals(1, store.getSessionCount());
+        assertEquals(100, store.getSize());
+    }
+
+    private static byte[] page(int length, int content) {
+        byte[] page = new byte[length];
+        Arrays.fill(page, (byte) content);
+        return page;
+    }
+
+}
@@ -0,0 +1,117 @@
+package org.lbogdanov.poker.web.util;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.lbogdanov.poker.core.User;
+import org.lbogdanov.poker.web.cluster.ClusterBridge;
+import org.mockito.ArgumentCaptor;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Tests for {@link Presence} class.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class PresenceTest {
+
+    private final ClusterBridge bridge = mock(ClusterBridge.class);
+    private final User alice = user("alice");
+    private final User bob = user("bob");
+    private Presence presence;
+
+    @After
+    public void tearDown() {
+        presence.stop();
+    }
+
+    /**
+     * Test for {@link Presence#join(String, String, User)}, participants join with the first connection and leave with
+     * the last one.
+     */
+    @Test
+    public void testJoin() {
+        presence = newPresence(TimeUnit.MINUTES.toMillis(1));
+        presence.join("code", "1", alice);
+        presence.join("code", "2", alice);
+        presence.join("code", "3", bob);
+        presence.join("other", "4", bob);
+        assertEquals(ImmutableList.of(alice, bob), presence.getUsers("code"));
+        assertEquals(ImmutableList.of(bob), presence.getUsers("other"));
+
+        presence.flush();
+        PresenceMessage message = published("code");
+        assertEquals(ImmutableList.of(alice, bob), message.message);
+        assertTrue(message.left.isEmpty());
+
+        presence.leave("1");
+        presence.leave("3");
+        presence.flush();
+        message = published("code");
+        assertTrue(message.message.isEmpty());
+        assertEquals(ImmutableList.of(bob), message.left);
+        assertEquals(ImmutableList.of(alice), presence.getUsers("code"));
+    }
+
+    /**
+     * Test for {@link Presence#leave(String)}, a participant who reconnects between two flushes isn't reported.
+     */
+    @Test
+    public void testLeave() {
+        presence = newPresence(TimeUnit.MINUTES.toMillis(1));
+        presence.join("code", "1", alice);
+        presence.flush();
+        reset(bridge);
+
+        presence.leave("1");
+        presence.join("code", "2", alice);
+        presence.leave("unknown");
+        presence.flush();
+        verify(bridge, never()).publish(anyString(), any(PresenceMessage.class));
+        assertEquals(ImmutableList.of(alice), presence.getUsers("code"));
+    }
+
+    /**
+     * Test for {@link Presence#heartbeat(String)}, connections without heartbeats time out.
+     */
+    @Test
+    public void testHeartbeat() throws InterruptedException {
+        presence = newPresence(300);
+        presence.join("code", "1", alice);
+        presence.join("code", "2", bob);
+        for (int i = 0; i < 10; i++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+            assertTrue(presence.heartbeat("1"));
+        }
+        assertFalse(presence.heartbeat("2"));
+        assertEquals(ImmutableList.of(alice), presence.getUsers("code"));
+        assertTrue(presence.getUsers("other").isEmpty());
+    }
+
+    private Presence newPresence(long timeoutMillis) {
+        return new Presence(bridge, new MetricRegistry(), timeoutMillis, TimeUnit.HOURS.toMillis(1));
+    }
+
+    private PresenceMessage published(String channel) {
+        ArgumentCaptor<PresenceMessage> captor = ArgumentCaptor.forClass(PresenceMessage.class);
+        verify(bridge).publish(eq(channel), captor.capture());
+        reset(bridge);
+        return captor.getValue();
+    }
+
+    private static User user(String id) {
+        User user = new User();
+        user.setExternalId(id);
+        return user;
+    }
+
+}
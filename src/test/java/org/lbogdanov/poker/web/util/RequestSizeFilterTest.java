@@ -0,0 +1,86 @@
+package org.lbogdanov.poker.web.util;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Tests for {@link RequestSizeFilter} class.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class RequestSizeFilterTest {
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final RequestSizeFilter filter = new RequestSizeFilter(metrics, 10);
+    private final HttpServletRequest request = mock(HttpServletRequest.class);
+    private final HttpServletResponse response = mock(HttpServletResponse.class);
+    private final FilterChain chain = mock(FilterChain.class);
+
+    /**
+     * Test for {@link RequestSizeFilter#doFilter(ServletRequest, javax.servlet.ServletResponse, FilterChain)}, requests
+     * of a known length are passed on or rejected.
+     */
+    @Test
+    public void testContentLength() throws Exception {
+        when(request.getContentLength()).thenReturn(10);
+        filter.doFilter(request, response, chain);
+        verify(chain).doFilter(request, response);
+
+        when(request.getContentLength()).thenReturn(11);
+        filter.doFilter(request, response, chain);
+        verify(response).sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+        verifyNoMoreInteractions(chain);
+        assertEquals(1, metrics.histogram("org.lbogdanov.poker.web.util.RequestSizeFilter.bytes").getCount());
+        assertEquals(1, metrics.meter("org.lbogdanov.poker.web.util.RequestSizeFilter.rejected").getCount());
+    }
+
+    /**
+     * Test for {@link RequestSizeFilter#doFilter(ServletRequest, javax.servlet.ServletResponse, FilterChain)}, bodies
+     * of an unknown length can't be read past the limit.
+     */
+    @Test
+    public void testUnknownLength() throws Exception {
+        when(request.getContentLength()).thenReturn(-1);
+        when(request.getInputStream()).thenReturn(body(10), body(11));
+        ArgumentCaptor<ServletRequest> wrapped = ArgumentCaptor.forClass(ServletRequest.class);
+
+        filter.doFilter(request, response, chain);
+        filter.doFilter(request, response, chain);
+        verify(chain, times(2)).doFilter(wrapped.capture(), same(response));
+        assertEquals(10, ByteStreams.toByteArray(wrapped.getAllValues().get(0).getInputStream()).length);
+        try {
+            ByteStreams.toByteArray(wrapped.getAllValues().get(1).getInputStream());
+            fail("A body larger than the limit was read");
+        } catch (IOException e) {
+            assertEquals(1, metrics.meter("org.lbogdanov.poker.web.util.RequestSizeFilter.rejected").getCount());
+        }
+    }
+
+    private static ServletInputStream body(int size) {
+        final ByteArrayInputStream input = new ByteArrayInputStream(new byte[size]);
+        return new ServletInputStream() {
+
+            @Override
+            public int read() {
+                return input.read();
+            }
+
+        };
+    }
+
+}
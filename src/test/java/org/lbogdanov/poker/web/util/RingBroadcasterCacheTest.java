@@ -0,0 +1,100 @@
+package org.lbogdanov.poker.web.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+
+import org.atmosphere.cpr.AtmosphereResource;
+import org.junit.Test;
+
+/**
+ * Tests for {@link RingBroadcasterCache} class.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class RingBroadcasterCacheTest {
+
+    private final AtmosphereResource first = resource("first");
+    private final AtmosphereResource second = resource("second");
+
+    /**
+     * Test for {@link RingBroadcasterCache#addToCache(String, AtmosphereResource, Object)}, equal messages are stored
+     * once.
+     */
+    @Test
+    public void testAddToCache() {
+        RingBroadcasterCache cache = new RingBroadcasterCache(10);
+        cache.addToCache("id", first, "one");
+        cache.addToCache("id", first, "two");
+        cache.addToCache("id", second, "two");
+
+        assertEquals(2, cache.getSize());
+        assertEquals(2, cache.getClients());
+        assertEquals(2L * "one".length() + 2L * "two".length(), cache.getBytes());
+        assertEquals(Arrays.<Object>asList("one", "two"), cache.retrieveFromCache("id", first));
+        assertEquals(Arrays.<Object>asList("two"), cache.retrieveFromCache("id", second));
+        assertTrue(cache.retrieveFromCache("id", first).isEmpty());
+        assertEquals(0, cache.getClients());
+        assertEquals(3, cache.getReplayed());
+    }
+
+    /**
+     * Test for {@link RingBroadcasterCache#addToCache(String, AtmosphereResource, Object)}, equal messages missed by the
+     * same client are all kept in order, an entry is shared with another client only after its last missed message.
+     */
+    @Test
+    public void testAddEqualMessages() {
+        RingBroadcasterCache cache = new RingBroadcasterCache(10);
+        cache.addToCache("id", first, "ok");
+        cache.addToCache("id", first, "two");
+        cache.addToCache("id", first, "ok");
+        cache.addToCache("id", second, "two");
+        cache.addToCache("id", second, "ok");
+        cache.addToCache("id", second, "two");
+
+        assertEquals(4, cache.getSize());
+        assertEquals(Arrays.<Object>asList("ok", "two", "ok"), cache.retrieveFromCache("id", first));
+        assertEquals(Arrays.<Object>asList("two", "ok", "two"), cache.retrieveFromCache("id", second));
+    }
+
+    /**
+     * Test for {@link RingBroadcasterCache#retrieveFromCache(String, AtmosphereResource)}, the oldest messages are
+     * overwritten.
+     */
+    @Test
+    public void testRetrieveFromCache() {
+        RingBroadcasterCache cache = new RingBroadcasterCache(3);
+        cache.addToCache("id", second, "zero");
+        for (int i = 1; i <= 5; i++) {
+            cache.addToCache("id", first, String.valueOf(i));
+        }
+
+        assertEquals(3, cache.getSize());
+        assertEquals(1, cache.getClients()); // the only message the second client missed is gone
+        assertEquals(Arrays.<Object>asList("3", "4", "5"), cache.retrieveFromCache("id", first));
+        assertTrue(cache.retrieveFromCache("id", second).isEmpty());
+    }
+
+    /**
+     * Test for a client which reconnects without missing anything and for a disabled cache.
+     */
+    @Test
+    public void testEmpty() {
+        RingBroadcasterCache cache = new RingBroadcasterCache(0);
+        cache.addToCache("id", first, "one");
+        cache.addToCache("id", null, "two");
+
+        assertEquals(0, cache.getSize());
+        assertTrue(cache.retrieveFromCache("id", first).isEmpty());
+    }
+
+    private static AtmosphereResource resource(String uuid) {
+        AtmosphereResource resource = mock(AtmosphereResource.class);
+        when(resource.uuid()).thenReturn(uuid);
+        return resource;
+    }
+
+}
@@ -0,0 +1,114 @@
+package org.lbogdanov.poker.web.util;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Tests for {@link StripedExecutor} class.
+ * 
+ * @author Leonid Bogdanov
+ */
+public class StripedExecutorTest {
+
+    private final StripedExecutor executor = new StripedExecutor("test", 4);
+
+    @After
+    public void tearDown() {
+        executor.shutdown(1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Test for {@link StripedExecutor#execute(Object, Runnable)}, tasks of a key run in submission order.
+     */
+    @Test
+    public void testExecute() {
+        final Map<String, List<Integer>> runs = Maps.newHashMap();
+        List<String> keys = ImmutableList.of("a", "b", "c", "d", "e", "f");
+        for (String key : keys) {
+            runs.put(key, Lists.<Integer>newArrayList());
+        }
+        for (int i = 0; i < 100; i++) {
+            for (final String key : keys) {
+                final int seq = i;
+                executor.execute(key, new Runnable() {
+
+                    @Override
+                    public void run() {
+                        runs.get(key).add(seq); // a key is never run on two threads at once
+                    }
+
+                });
+            }
+        }
+        assertTrue(executor.shutdown(10, TimeUnit.SECONDS));
+        for (String key : keys) {
+            List<Integer> run = runs.get(key);
+            assertEquals(100, run.size());
+            for (int i = 0; i < run.size(); i++) {
+                assertEquals(i, run.get(i).intValue());
+            }
+        }
+    }
+
+    /**
+     * Test for {@link StripedExecutor#getPending()}.
+     */
+    @Test
+    public void testGetPending() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.execute("key", new Runnable() {
+
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 3; i++) {
+            executor.execute("key", new Runnable() {
+
+                @Override
+                public void run() {}
+
+            });
+        }
+        assertEquals(3, executor.getPending());
+        release.countDown();
+        assertTrue(executor.shutdown(10, TimeUnit.SECONDS));
+        assertEquals(0, executor.getPending());
+    }
+
+    /**
+     * Test for {@link StripedExecutor#shutdown(long, TimeUnit)}, no tasks are accepted afterwards.
+     */
+    @Test(expected = RejectedExecutionException.class)
+    public void testShutdown() {
+        assertTrue(executor.shutdown(1, TimeUnit.SECONDS));
+        executor.execute("key", new Runnable() {
+
+            @Override
+            public void run() {}
+
+        });
+    }
+
+}